@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This JfrRecorder.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.jfr;
+
+import com.oracle.jrockit.jfr.TimedEvent;
+
+/**
+ * The {@link EventRecorder} using the JFR API. Instantiated reflectively by
+ * {@link CoreEvents}, and only when the API is available.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+@SuppressWarnings("deprecation")
+final class JfrRecorder implements EventRecorder {
+	JfrRecorder() {
+	}
+
+	@Override
+	public boolean isDispatchEnabled() {
+		return MessageDispatchEvent.isEnabled();
+	}
+
+	@Override
+	public boolean isSchedulerEnabled() {
+		return SchedulerFireEvent.isEnabled();
+	}
+
+	@Override
+	public void messageEnqueued(String unitId, Class<?> messageClass, Enum<?> priority) {
+		if (MessageEnqueueEvent.isEnabled()) {
+			new MessageEnqueueEvent(unitId, messageClass.getName(), String.valueOf(priority)).commit();
+		}
+	}
+
+	@Override
+	public Object dispatchStarted(String unitId, Class<?> messageClass, long enqueueNanos, int batchSize) {
+		if (!MessageDispatchEvent.isEnabled()) {
+			return null;
+		}
+		MessageDispatchEvent event = new MessageDispatchEvent(unitId, messageClass.getName(),
+				System.nanoTime() - enqueueNanos, batchSize);
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public Object schedulerFireStarted(String unitId, Class<?> messageClass, long latenessNanos) {
+		if (!SchedulerFireEvent.isEnabled()) {
+			return null;
+		}
+		SchedulerFireEvent event = new SchedulerFireEvent(unitId, messageClass.getName(), latenessNanos);
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void lifecycleChanged(String unitId, Enum<?> from, Enum<?> to) {
+		if (LifecycleEvent.isEnabled()) {
+			new LifecycleEvent(unitId, String.valueOf(from), String.valueOf(to)).commit();
+		}
+	}
+
+	@Override
+	public void end(Object event) {
+		TimedEvent timedEvent = (TimedEvent) event;
+		timedEvent.end();
+		timedEvent.commit();
+	}
+}
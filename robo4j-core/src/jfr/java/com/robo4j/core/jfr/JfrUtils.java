@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This JfrUtils.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.jfr;
+
+import java.net.URI;
+
+import com.oracle.jrockit.jfr.EventToken;
+import com.oracle.jrockit.jfr.InstantEvent;
+import com.oracle.jrockit.jfr.InvalidEventDefinitionException;
+import com.oracle.jrockit.jfr.InvalidValueException;
+import com.oracle.jrockit.jfr.Producer;
+
+import com.robo4j.core.logging.SimpleLoggingUtil;
+
+/**
+ * Registers the JFR events of the Robo4J core runtime. Only loaded when the
+ * JFR API is available, see {@link CoreEvents}.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+@SuppressWarnings({ "deprecation" })
+final class JfrUtils {
+	static final Producer PRODUCER;
+
+	// Register the producer and keep the reference around
+	static {
+		URI producerURI = URI.create("http://robo4j.org/core/");
+		PRODUCER = new Producer("Robo4J Core", "Events produced by the Robo4J core runtime.", producerURI);
+		PRODUCER.register();
+	}
+
+	private JfrUtils() {
+		throw new UnsupportedOperationException("Toolkit! Do not instantiate!");
+	}
+
+	/**
+	 * Helper method to register an event class with the core producer.
+	 * 
+	 * @param clazz
+	 *            the event class to register.
+	 * @return the token associated with the event class, or null if the
+	 *         registration failed.
+	 */
+	static EventToken register(Class<? extends InstantEvent> clazz) {
+		try {
+			return PRODUCER.addEvent(clazz);
+		} catch (InvalidEventDefinitionException | InvalidValueException e) {
+			SimpleLoggingUtil.error(JfrUtils.class, "Failed to register the event class " + clazz.getName()
+					+ ". Event will not be available. Please check your configuration.", e);
+		}
+		return null;
+	}
+
+	static boolean isEnabled(EventToken token) {
+		return token != null && token.isEnabled();
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This MessageDispatchEvent.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.jfr;
+
+import com.oracle.jrockit.jfr.EventDefinition;
+import com.oracle.jrockit.jfr.EventToken;
+import com.oracle.jrockit.jfr.TimedEvent;
+import com.oracle.jrockit.jfr.ValueDefinition;
+
+/**
+ * The JFR event definition for a unit handling a message. The duration of the
+ * event is the time spent in the handler.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+@SuppressWarnings("deprecation")
+@EventDefinition(path = "robo4j/core/dispatch", name = "Message Dispatch", description = "A unit handling a message.", stacktrace = false, thread = true)
+final class MessageDispatchEvent extends TimedEvent {
+	private static final EventToken EVENT_TOKEN = JfrUtils.register(MessageDispatchEvent.class);
+
+	@ValueDefinition(name = "Unit", description = "The id of the unit handling the message.")
+	private String unitId;
+
+	@ValueDefinition(name = "Message Class", description = "The class of the message, or of the first message of a batch.")
+	private String messageClass;
+
+	@ValueDefinition(name = "Queue Latency", description = "The time in nanoseconds the message spent queued.")
+	private long queueLatency;
+
+	@ValueDefinition(name = "Batch Size", description = "The number of messages handled together.")
+	private int batchSize;
+
+	MessageDispatchEvent(String unitId, String messageClass, long queueLatency, int batchSize) {
+		super(EVENT_TOKEN);
+		this.unitId = unitId;
+		this.messageClass = messageClass;
+		this.queueLatency = queueLatency;
+		this.batchSize = batchSize;
+	}
+
+	static boolean isEnabled() {
+		return JfrUtils.isEnabled(EVENT_TOKEN);
+	}
+
+	public String getUnitId() {
+		return unitId;
+	}
+
+	public String getMessageClass() {
+		return messageClass;
+	}
+
+	public long getQueueLatency() {
+		return queueLatency;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This MessageEnqueueEvent.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.jfr;
+
+import com.oracle.jrockit.jfr.EventDefinition;
+import com.oracle.jrockit.jfr.EventToken;
+import com.oracle.jrockit.jfr.InstantEvent;
+import com.oracle.jrockit.jfr.ValueDefinition;
+
+/**
+ * The JFR event definition for a message being enqueued for a unit.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+@SuppressWarnings("deprecation")
+@EventDefinition(path = "robo4j/core/enqueue", name = "Message Enqueued", description = "A message was enqueued for a unit.", stacktrace = false, thread = true)
+final class MessageEnqueueEvent extends InstantEvent {
+	private static final EventToken EVENT_TOKEN = JfrUtils.register(MessageEnqueueEvent.class);
+
+	@ValueDefinition(name = "Unit", description = "The id of the receiving unit.")
+	private String unitId;
+
+	@ValueDefinition(name = "Message Class", description = "The class of the message.")
+	private String messageClass;
+
+	@ValueDefinition(name = "Priority", description = "The priority of the message.")
+	private String priority;
+
+	MessageEnqueueEvent(String unitId, String messageClass, String priority) {
+		super(EVENT_TOKEN);
+		this.unitId = unitId;
+		this.messageClass = messageClass;
+		this.priority = priority;
+	}
+
+	static boolean isEnabled() {
+		return JfrUtils.isEnabled(EVENT_TOKEN);
+	}
+
+	public String getUnitId() {
+		return unitId;
+	}
+
+	public String getMessageClass() {
+		return messageClass;
+	}
+
+	public String getPriority() {
+		return priority;
+	}
+}
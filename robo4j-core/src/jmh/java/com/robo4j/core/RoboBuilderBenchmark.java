@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This RoboBuilderBenchmark.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.robo4j.core;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.robo4j.core.configuration.Configuration;
+
+/**
+ * Measures loading generated system descriptors with the
+ * {@link RoboBuilder}. Every unit has a configuration with twenty values and
+ * a child configuration with twenty more.
+ * 
+ * <p>
+ * Run with <code>gradle :robo4j-core:jmh</code>.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RoboBuilderBenchmark {
+	private static final int VALUES = 20;
+
+	public static final class ConfiguredUnit extends RoboUnit<Object> {
+		public ConfiguredUnit(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		}
+	}
+
+	@Param({ "10", "100", "500" })
+	public int units;
+
+	private byte[] descriptor;
+	private RoboBuilder builder;
+
+	@Setup(Level.Trial)
+	public void generate() {
+		StringBuilder xml = new StringBuilder("<robo4j>\n");
+		for (int i = 0; i < units; i++) {
+			xml.append("<roboUnit id=\"unit").append(i).append("\">\n");
+			xml.append("<class>").append(ConfiguredUnit.class.getName()).append("</class>\n");
+			xml.append("<config name=\"com.robo4j.core.root\">\n");
+			for (int v = 0; v < VALUES; v++) {
+				xml.append("<value name=\"int").append(v).append("\" type=\"int\">").append(v).append("</value>\n");
+			}
+			xml.append("<config name=\"child\">\n");
+			for (int v = 0; v < VALUES; v++) {
+				xml.append("<value name=\"string").append(v).append("\" type=\"String\">value ").append(v)
+						.append("</value>\n");
+			}
+			xml.append("</config>\n</config>\n</roboUnit>\n");
+		}
+		descriptor = xml.append("</robo4j>\n").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Setup(Level.Invocation)
+	public void createBuilder() {
+		// Not part of the measurement - starts the system thread pools
+		builder = new RoboBuilder();
+	}
+
+	@TearDown(Level.Invocation)
+	public void shutdown() {
+		builder.build().shutdown();
+	}
+
+	@Benchmark
+	public RoboBuilder load() throws RoboBuilderException {
+		return builder.add(new ByteArrayInputStream(descriptor));
+	}
+}
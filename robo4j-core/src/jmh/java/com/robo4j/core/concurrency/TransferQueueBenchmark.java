@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This TransferQueueBenchmark.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.robo4j.core.concurrency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TransferQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link RingBufferTransferQueue} with the {@link CoreBusQueue}.
+ * Three producers hand over to a single consumer. The number of elements in
+ * flight is bounded for both queues, so that the unbounded
+ * {@link CoreBusQueue} does not simply grow.
+ * 
+ * <p>
+ * Run with <code>gradle :robo4j-core:jmh</code>.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TransferQueueBenchmark {
+	private static final int MAX_IN_FLIGHT = 1024;
+
+	public static final class Signal implements TransferSignal, Comparable<Signal> {
+		@Override
+		public int compareTo(Signal o) {
+			return 0;
+		}
+	}
+
+	private static final class BenchmarkBusQueue extends CoreBusQueue<QueueFIFOEntry<Signal>> {
+		private static final long serialVersionUID = 1L;
+
+		BenchmarkBusQueue() {
+			super(0);
+		}
+	}
+
+	@Param({ "CoreBusQueue", "RingBufferTransferQueue" })
+	public String queueType;
+
+	private TransferQueue<QueueFIFOEntry<Signal>> queue;
+	private QueueFIFOEntry<Signal> entry;
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		switch (queueType) {
+		case "CoreBusQueue":
+			queue = new BenchmarkBusQueue();
+			break;
+		case "RingBufferTransferQueue":
+			queue = new RingBufferTransferQueue<>(MAX_IN_FLIGHT);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown queue type " + queueType);
+		}
+		entry = new QueueFIFOEntry<>(new Signal());
+		inFlight.set(0);
+	}
+
+	@Benchmark
+	@Group("handOver")
+	@GroupThreads(3)
+	public boolean produce() {
+		if (inFlight.get() >= MAX_IN_FLIGHT) {
+			return false;
+		}
+		if (queue.offer(entry)) {
+			inFlight.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	@Benchmark
+	@Group("handOver")
+	@GroupThreads(1)
+	public QueueFIFOEntry<Signal> consume() {
+		QueueFIFOEntry<Signal> result = queue.poll();
+		if (result != null) {
+			inFlight.decrementAndGet();
+		}
+		return result;
+	}
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public QueueFIFOEntry<Signal> offerAndPoll() {
+		queue.offer(entry);
+		return queue.poll();
+	}
+}
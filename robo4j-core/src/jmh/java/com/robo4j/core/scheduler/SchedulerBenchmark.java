@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This SchedulerBenchmark.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.robo4j.core.scheduler;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.robo4j.core.ConfigurationException;
+import com.robo4j.core.RoboContext;
+import com.robo4j.core.RoboSystem;
+import com.robo4j.core.RoboUnit;
+import com.robo4j.core.configuration.Configuration;
+
+/**
+ * Compares the {@link DefaultScheduler} with the {@link HashedWheelScheduler}
+ * when scheduling and cancelling timers, with 10k timers already waiting.
+ * 
+ * <p>
+ * Run with <code>gradle :robo4j-core:jmh</code>.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SchedulerBenchmark {
+	private static final int TIMERS = 10000;
+
+	public static final class Sink extends RoboUnit<Object> {
+		public Sink(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		}
+	}
+
+	@Param({ "DefaultScheduler", "HashedWheelScheduler" })
+	public String schedulerType;
+
+	private RoboSystem system;
+	private Scheduler scheduler;
+	private Sink sink;
+	private final ScheduledFuture<?>[] waiting = new ScheduledFuture<?>[TIMERS];
+	private final ScheduledFuture<?>[] batch = new ScheduledFuture<?>[TIMERS];
+
+	@Setup(Level.Trial)
+	public void setup() {
+		system = new RoboSystem(1);
+		switch (schedulerType) {
+		case "DefaultScheduler":
+			scheduler = new DefaultScheduler(system);
+			break;
+		case "HashedWheelScheduler":
+			scheduler = new HashedWheelScheduler(system);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown scheduler type " + schedulerType);
+		}
+		sink = new Sink(system, "sink");
+		// Spread over a minute, so that they do not fire while measuring
+		for (int i = 0; i < TIMERS; i++) {
+			waiting[i] = scheduler.schedule(sink, "waiting", 60000 + i, 60000, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (ScheduledFuture<?> future : waiting) {
+			future.cancel(false);
+		}
+		scheduler.shutdown();
+	}
+
+	@Benchmark
+	public boolean scheduleAndCancel() {
+		return scheduler.schedule(sink, "timeout", 30, 30, TimeUnit.SECONDS).cancel(false);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TIMERS)
+	public int scheduleAndCancelBatch() {
+		for (int i = 0; i < TIMERS; i++) {
+			batch[i] = scheduler.schedule(sink, "timeout", 30000 + i, 30000, TimeUnit.MILLISECONDS);
+		}
+		int cancelled = 0;
+		for (int i = 0; i < TIMERS; i++) {
+			if (batch[i].cancel(false)) {
+				cancelled++;
+			}
+		}
+		return cancelled;
+	}
+}
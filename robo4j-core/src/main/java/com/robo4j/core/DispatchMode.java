@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+/**
+ * Defines how a {@link RoboSystem} delivers messages to its units.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public enum DispatchMode {
+	/**
+	 * Every message is submitted as a separate task to the shared system
+	 * executor. Messages to the same unit may be processed concurrently and
+	 * out of order.
+	 */
+	SHARED_QUEUE,
+
+	/**
+	 * Every unit owns a mailbox which is drained by at most one system thread
+	 * at a time. Messages to the same unit are processed one at a time, in the
+	 * order they were sent.
+	 */
+	MAILBOX
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Lists a {@link RoboUnit} in the unit index of its jar, so that it can be
+ * added with {@link RoboBuilder#add(ClassLoader)}. The index is generated at
+ * compile time by the {@link com.robo4j.core.processing.UnitIndexProcessor}.
+ *
+ * <p>
+ * The unit must be a public, concrete class with a public constructor
+ * taking a {@link RoboContext} and a String id. If any configuration values
+ * are given, the unit is initialized with them. Otherwise it is added
+ * uninitialized, just like a unit without a config element in a system
+ * descriptor.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface IndexedUnit {
+	/**
+	 * @return the id of the unit.
+	 */
+	String id();
+
+	/**
+	 * @return the default configuration of the unit.
+	 */
+	Value[] config() default {};
+
+	/**
+	 * A configuration value.
+	 */
+	@Documented
+	@Retention(RetentionPolicy.CLASS)
+	@Target({})
+	@interface Value {
+		String name();
+
+		/**
+		 * @return the type of the value, one of String, int, long, float,
+		 *         double and boolean, as in a system descriptor.
+		 */
+		String type() default "String";
+
+		String value();
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of durations in nanoseconds, cheap enough to record
+ * every message handled.
+ *
+ * <p>
+ * Values are counted in logarithmic buckets, with eight sub buckets per power
+ * of two, which keeps the error of a reported percentile below 12.5% over the
+ * whole range. Values below 16 ns are counted exactly.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = SUB_BUCKETS << 1;
+	private static final int BUCKET_COUNT = indexOf(Long.MAX_VALUE) + 1;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a duration.
+	 * 
+	 * @param nanos
+	 *            the duration in nanoseconds. Negative values are counted as
+	 *            0.
+	 */
+	public void record(long nanos) {
+		record(nanos, 1);
+	}
+
+	/**
+	 * Records the same duration several times.
+	 * 
+	 * @param nanos
+	 *            the duration in nanoseconds. Negative values are counted as
+	 *            0.
+	 * @param count
+	 *            the number of times to record the duration.
+	 */
+	public void record(long nanos, int count) {
+		long value = Math.max(0, nanos);
+		buckets.addAndGet(indexOf(value), count);
+		total.add(value * count);
+		long currentMax;
+		while (value > (currentMax = max.get())) {
+			if (max.compareAndSet(currentMax, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of recorded values.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += buckets.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the largest recorded value in nanoseconds, or 0 if nothing has
+	 *         been recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values in nanoseconds, or 0 if nothing
+	 *         has been recorded.
+	 */
+	public long getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : total.sum() / count;
+	}
+
+	/**
+	 * Returns an upper bound for the value at the percentile. Values recorded
+	 * while the percentile is calculated may or may not be included.
+	 * 
+	 * @param percentile
+	 *            the percentile, between 0 and 100.
+	 * @return the value in nanoseconds, or 0 if nothing has been recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100, was " + percentile);
+		}
+		long[] counts = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+			count += counts[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValueIn(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Clears the recorded values. Values recorded concurrently may be partly
+	 * lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		total.reset();
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("p50=%dus p99=%dus max=%dus count=%d", toMicros(getValueAtPercentile(50)),
+				toMicros(getValueAtPercentile(99)), toMicros(getMax()), getCount());
+	}
+
+	private static long toMicros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	static int indexOf(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		// The top SUB_BUCKET_BITS + 1 bits, between SUB_BUCKETS and
+		// 2 * SUB_BUCKETS - 1
+		int mantissa = (int) (value >>> shift);
+		return shift * SUB_BUCKETS + mantissa;
+	}
+
+	static long highestValueIn(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+		long next = (mantissa + 1) << shift;
+		return next < 0 ? Long.MAX_VALUE : next - 1;
+	}
+}
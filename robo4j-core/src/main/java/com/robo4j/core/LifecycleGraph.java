@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+import com.robo4j.core.concurrency.RoboExecutors;
+import com.robo4j.core.configuration.Configuration;
+import com.robo4j.core.logging.SimpleLoggingUtil;
+
+/**
+ * The dependencies between the units of a {@link RoboSystem}, used to run
+ * life cycle operations in parallel, in dependency order.
+ *
+ * <p>
+ * A unit depends on the unit named by its {@value #CONFIG_TARGET}
+ * configuration, since it will be sending messages to it. Units are started
+ * after the units they depend on, and stopped before them. Units without a
+ * dependency between them are handled concurrently, so that the time taken
+ * is bounded by the slowest chain rather than the sum of all units.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+final class LifecycleGraph {
+	/**
+	 * The configuration naming the unit a unit sends its messages to.
+	 */
+	static final String CONFIG_TARGET = "target";
+
+	private final Collection<RoboUnit<?>> units;
+	// unit -> the units it sends to
+	private final Map<RoboUnit<?>, Set<RoboUnit<?>>> dependencies = new HashMap<>();
+	// unit -> the units sending to it
+	private final Map<RoboUnit<?>, Set<RoboUnit<?>>> dependents = new HashMap<>();
+
+	/**
+	 * Builds the graph from the current configuration of the units.
+	 * Targets outside of the units are ignored.
+	 */
+	LifecycleGraph(Collection<RoboUnit<?>> units) {
+		this.units = new ArrayList<>(units);
+		Map<String, RoboUnit<?>> unitsById = new HashMap<>();
+		for (RoboUnit<?> unit : units) {
+			unitsById.put(unit.getId(), unit);
+		}
+		for (RoboUnit<?> unit : units) {
+			dependencies.put(unit, new HashSet<>());
+			dependents.put(unit, new HashSet<>());
+		}
+		for (RoboUnit<?> unit : units) {
+			RoboUnit<?> target = getTarget(unit, unitsById);
+			if (target != null && target != unit) {
+				dependencies.get(unit).add(target);
+				dependents.get(target).add(unit);
+			}
+		}
+	}
+
+	/**
+	 * Runs the action on all units, each one after the units it depends on.
+	 * Returns when the action has completed for all units.
+	 */
+	void runInDependencyOrder(String operation, Consumer<RoboUnit<?>> action) {
+		run(operation, action, dependencies);
+	}
+
+	/**
+	 * Runs the action on all units, each one after the units depending on it.
+	 * Returns when the action has completed for all units.
+	 */
+	void runInReverseOrder(String operation, Consumer<RoboUnit<?>> action) {
+		run(operation, action, dependents);
+	}
+
+	private void run(String operation, Consumer<RoboUnit<?>> action, Map<RoboUnit<?>, Set<RoboUnit<?>>> before) {
+		if (units.size() <= 1) {
+			units.forEach(unit -> runSafely(operation, action, unit));
+			return;
+		}
+		ExecutorService executor = RoboExecutors.newCachedPool("Robo4J Lifecycle ");
+		try {
+			Map<RoboUnit<?>, CompletableFuture<Void>> futures = new HashMap<>();
+			Set<RoboUnit<?>> visiting = new HashSet<>();
+			for (RoboUnit<?> unit : units) {
+				schedule(operation, action, before, unit, futures, visiting, executor);
+			}
+			CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()])).join();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private CompletableFuture<Void> schedule(String operation, Consumer<RoboUnit<?>> action,
+			Map<RoboUnit<?>, Set<RoboUnit<?>>> before, RoboUnit<?> unit, Map<RoboUnit<?>, CompletableFuture<Void>> futures,
+			Set<RoboUnit<?>> visiting, ExecutorService executor) {
+		CompletableFuture<Void> future = futures.get(unit);
+		if (future != null) {
+			return future;
+		}
+		if (!visiting.add(unit)) {
+			SimpleLoggingUtil.error(getClass(), "Cyclic target dependency involving unit " + unit.getId()
+					+ ". Will not order the " + operation + " of the cycle.");
+			return CompletableFuture.completedFuture(null);
+		}
+		List<CompletableFuture<Void>> prerequisites = new ArrayList<>();
+		for (RoboUnit<?> other : before.get(unit)) {
+			prerequisites.add(schedule(operation, action, before, other, futures, visiting, executor));
+		}
+		visiting.remove(unit);
+		future = CompletableFuture.allOf(prerequisites.toArray(new CompletableFuture<?>[prerequisites.size()]))
+				.thenRunAsync(() -> runSafely(operation, action, unit), executor);
+		futures.put(unit, future);
+		return future;
+	}
+
+	private void runSafely(String operation, Consumer<RoboUnit<?>> action, RoboUnit<?> unit) {
+		try {
+			action.accept(unit);
+		} catch (RuntimeException e) {
+			SimpleLoggingUtil.error(getClass(), "Failed to " + operation + " unit " + unit.getId(), e);
+		}
+	}
+
+	/**
+	 * Groups unit definitions into waves which can be initialized
+	 * concurrently, each unit in a later wave than the unit it depends on.
+	 * Targets outside of the definitions are ignored.
+	 * 
+	 * @return the waves, as indices into the definitions, each wave in
+	 *         definition order.
+	 */
+	static List<List<Integer>> toWaves(List<RoboBuilder.UnitDefinition> definitions) {
+		Map<String, Integer> indicesById = new HashMap<>();
+		for (int i = 0; i < definitions.size(); i++) {
+			indicesById.putIfAbsent(definitions.get(i).getId(), i);
+		}
+		int[] waveOf = new int[definitions.size()];
+		Arrays.fill(waveOf, -1);
+		List<List<Integer>> waves = new ArrayList<>();
+		for (int i = 0; i < definitions.size(); i++) {
+			int wave = getWave(definitions, indicesById, i, waveOf, new HashSet<>());
+			while (waves.size() <= wave) {
+				waves.add(new ArrayList<>());
+			}
+			waves.get(wave).add(i);
+		}
+		return waves;
+	}
+
+	private static int getWave(List<RoboBuilder.UnitDefinition> definitions, Map<String, Integer> indicesById,
+			int index, int[] waveOf, Set<Integer> visiting) {
+		if (waveOf[index] >= 0) {
+			return waveOf[index];
+		}
+		RoboBuilder.UnitDefinition definition = definitions.get(index);
+		Configuration configuration = definition.getConfiguration();
+		String target = configuration == null ? null : configuration.getString(CONFIG_TARGET, null);
+		Integer targetIndex = target == null ? null : indicesById.get(target);
+		int wave = 0;
+		if (targetIndex != null && targetIndex != index) {
+			if (visiting.add(index)) {
+				wave = getWave(definitions, indicesById, targetIndex, waveOf, visiting) + 1;
+			} else {
+				SimpleLoggingUtil.error(LifecycleGraph.class, "Cyclic target dependency involving unit "
+						+ definition.getId() + ". Will not order the initialization of the cycle.");
+			}
+		}
+		waveOf[index] = wave;
+		return wave;
+	}
+
+	private static RoboUnit<?> getTarget(RoboUnit<?> unit, Map<String, RoboUnit<?>> unitsById) {
+		Configuration configuration = unit.getConfiguration();
+		if (configuration == null) {
+			return null;
+		}
+		String target = configuration.getString(CONFIG_TARGET, null);
+		return target == null ? null : unitsById.get(target);
+	}
+}
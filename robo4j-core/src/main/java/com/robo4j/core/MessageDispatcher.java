@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.robo4j.core.logging.SimpleLoggingUtil;
+
+/**
+ * The dispatch table of a {@link RoboUnit} class, built from its
+ * {@link MessageHandler} annotated methods.
+ *
+ * <p>
+ * Handlers are resolved to {@link MethodHandle}s once per class. Message
+ * types which are subtypes of a handled type are resolved on first use and
+ * then cached, so every message costs one map lookup.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+final class MessageDispatcher {
+	private static final MethodType HANDLER_TYPE = MethodType.methodType(Object.class, Object.class, Object.class);
+	// Marks message types known to have no handler
+	private static final MethodHandle NO_HANDLER = MethodHandles.constant(Object.class, null);
+
+	private static final ClassValue<MessageDispatcher> DISPATCHERS = new ClassValue<MessageDispatcher>() {
+		@Override
+		protected MessageDispatcher computeValue(Class<?> unitClass) {
+			return new MessageDispatcher(unitClass);
+		}
+	};
+
+	private final Class<?> unitClass;
+	private final Map<Class<?>, MethodHandle> declared;
+	private final ConcurrentHashMap<Class<?>, MethodHandle> resolved;
+
+	private MessageDispatcher(Class<?> unitClass) {
+		this.unitClass = unitClass;
+		this.declared = Collections.unmodifiableMap(findHandlers(unitClass));
+		this.resolved = new ConcurrentHashMap<>(declared);
+	}
+
+	/**
+	 * @return the dispatcher for the unit class.
+	 * @throws IllegalArgumentException
+	 *             if a handler is not properly declared.
+	 */
+	static MessageDispatcher forUnit(Class<?> unitClass) {
+		return DISPATCHERS.get(unitClass);
+	}
+
+	/**
+	 * @return true if the unit does not declare any handlers, in which case it
+	 *         dispatches by overriding {@link RoboUnit#onMessage(Object)}.
+	 */
+	boolean isEmpty() {
+		return declared.isEmpty();
+	}
+
+	/**
+	 * @return the message types with declared handlers.
+	 */
+	Set<Class<?>> getMessageTypes() {
+		return declared.keySet();
+	}
+
+	/**
+	 * Rejects messages not handled by the unit. Units without handlers are
+	 * checked against {@link RoboUnit#getAcceptedMessageTypes()}, and accept
+	 * everything if that is empty.
+	 * 
+	 * @throws UnsupportedMessageException
+	 *             if the unit does not accept the message.
+	 */
+	void checkAccepted(RoboUnit<?> unit, Object message) {
+		boolean accepted = isEmpty() ? isAccepted(unit.getAcceptedMessageTypes(), message)
+				: getHandler(message) != NO_HANDLER;
+		if (!accepted) {
+			throw new UnsupportedMessageException("Unit " + unit.getId() + " (" + unitClass.getName()
+					+ ") does not accept messages of type " + typeName(message));
+		}
+	}
+
+	/**
+	 * Invokes the handler for the message.
+	 * 
+	 * @return the result of the handler.
+	 * @throws Throwable
+	 *             whatever the handler throws.
+	 */
+	<T, R> RoboResult<T, R> dispatch(RoboUnit<T> unit, Object message) throws Throwable {
+		MethodHandle handler = getHandler(message);
+		if (handler == NO_HANDLER) {
+			SimpleLoggingUtil.error(getClass(), "Unit " + unit.getId() + " has no handler for " + typeName(message));
+			return null;
+		}
+		return toResult(unit, handler.invokeExact((Object) unit, message));
+	}
+
+	private static boolean isAccepted(Collection<Class<?>> acceptedTypes, Object message) {
+		if (acceptedTypes.isEmpty()) {
+			return true;
+		}
+		for (Class<?> type : acceptedTypes) {
+			if (type.isInstance(message)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, R> RoboResult<T, R> toResult(RoboUnit<T> unit, Object result) {
+		if (result == null || result instanceof RoboResult) {
+			return (RoboResult<T, R>) result;
+		}
+		return new RoboResult<>(unit, (R) result);
+	}
+
+	private MethodHandle getHandler(Object message) {
+		if (message == null) {
+			return NO_HANDLER;
+		}
+		Class<?> messageType = message.getClass();
+		MethodHandle handler = resolved.get(messageType);
+		if (handler == null) {
+			handler = resolve(messageType);
+			resolved.putIfAbsent(messageType, handler);
+		}
+		return handler;
+	}
+
+	/**
+	 * Finds the handler of the closest super type, classes before interfaces.
+	 */
+	private MethodHandle resolve(Class<?> messageType) {
+		for (Class<?> type = messageType; type != null; type = type.getSuperclass()) {
+			MethodHandle handler = declared.get(type);
+			if (handler != null) {
+				return handler;
+			}
+		}
+		Deque<Class<?>> interfaces = new ArrayDeque<>();
+		for (Class<?> type = messageType; type != null; type = type.getSuperclass()) {
+			Collections.addAll(interfaces, type.getInterfaces());
+		}
+		while (!interfaces.isEmpty()) {
+			Class<?> type = interfaces.poll();
+			MethodHandle handler = declared.get(type);
+			if (handler != null) {
+				return handler;
+			}
+			Collections.addAll(interfaces, type.getInterfaces());
+		}
+		return NO_HANDLER;
+	}
+
+	private static Map<Class<?>, MethodHandle> findHandlers(Class<?> unitClass) {
+		Map<Class<?>, MethodHandle> handlers = new HashMap<>();
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		// Subclasses first, so that they can override the handlers of their
+		// super classes
+		for (Class<?> type = unitClass; type != null && type != RoboUnit.class; type = type.getSuperclass()) {
+			for (Method method : type.getDeclaredMethods()) {
+				if (!method.isAnnotationPresent(MessageHandler.class)) {
+					continue;
+				}
+				Class<?> messageType = getMessageType(method);
+				if (handlers.containsKey(messageType)) {
+					continue;
+				}
+				try {
+					method.setAccessible(true);
+					handlers.put(messageType, lookup.unreflect(method).asType(HANDLER_TYPE));
+				} catch (IllegalAccessException | RuntimeException e) {
+					throw new IllegalArgumentException("Could not access message handler " + method, e);
+				}
+			}
+		}
+		return handlers;
+	}
+
+	private static Class<?> getMessageType(Method method) {
+		if (Modifier.isStatic(method.getModifiers())) {
+			throw new IllegalArgumentException("Message handler " + method + " must not be static");
+		}
+		if (method.getParameterCount() != 1) {
+			throw new IllegalArgumentException("Message handler " + method + " must take exactly one parameter");
+		}
+		Class<?> messageType = method.getParameterTypes()[0];
+		if (messageType.isPrimitive()) {
+			throw new IllegalArgumentException("Message handler " + method + " must take an object, not a primitive");
+		}
+		return messageType;
+	}
+
+	private static String typeName(Object message) {
+		return message == null ? "null" : message.getClass().getName();
+	}
+}
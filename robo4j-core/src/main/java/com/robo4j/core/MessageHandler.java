@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a {@link RoboUnit} as the handler for a message type.
+ * The method must take exactly one parameter, the type of which is the
+ * message type handled. It may return void, a {@link RoboResult}, or any
+ * other value, which is then wrapped in a {@link RoboResult}.
+ *
+ * <p>
+ * Handlers are resolved once per unit class. A message is routed to the
+ * handler of its most specific type, by the default implementation of
+ * {@link RoboUnit#onMessage(Object)}. Units declaring handlers only accept
+ * messages of the handled types - anything else is rejected with an
+ * {@link UnsupportedMessageException} when sent.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface MessageHandler {
+}
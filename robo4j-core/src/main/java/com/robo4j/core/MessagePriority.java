@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+/**
+ * The priority class of a message. Each priority class is a separate lane in
+ * the unit mailboxes and in the system work queues, and lanes are drained in
+ * strict priority order. Messages not declaring a priority (see
+ * {@link PrioritizedMessage}) are sent with {@link #CONTROL} priority.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public enum MessagePriority {
+	/**
+	 * Safety critical messages, such as emergency stops. Overtakes everything
+	 * else.
+	 */
+	EMERGENCY,
+
+	/**
+	 * Commands to actuators. The default.
+	 */
+	CONTROL,
+
+	/**
+	 * Periodic sensor readings and status updates.
+	 */
+	TELEMETRY,
+
+	/**
+	 * Large or non time critical transfers, such as logs or scans.
+	 */
+	BULK;
+
+	/**
+	 * The priority used for messages not declaring one.
+	 */
+	public static final MessagePriority DEFAULT = CONTROL;
+
+	private static final MessagePriority[] VALUES = values();
+
+	/**
+	 * @return the priority of the message.
+	 */
+	public static MessagePriority of(Object message) {
+		if (message instanceof PrioritizedMessage) {
+			MessagePriority priority = ((PrioritizedMessage) message).getPriority();
+			return priority != null ? priority : DEFAULT;
+		}
+		return DEFAULT;
+	}
+
+	/**
+	 * @return the number of priority classes.
+	 */
+	static int count() {
+		return VALUES.length;
+	}
+
+	static MessagePriority fromOrdinal(int ordinal) {
+		return VALUES[ordinal];
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import com.robo4j.core.jfr.CoreEvents;
+
+/**
+ * Delivers a message to a unit, when the {@link RoboSystem} is running in
+ * {@link DispatchMode#SHARED_QUEUE}. Carries everything needed on the way -
+ * the priority, the trace hop and the enqueue time - so that sending a one
+ * way message only allocates the task itself.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+final class MessageTask extends PriorityTask {
+	private final RoboUnit<?> unit;
+	// The message, or the ReplyTask wrapping it
+	private final Object message;
+	private final TraceHop hop;
+	// 0 unless JFR dispatch events are recorded
+	private final long enqueueNanos;
+
+	/**
+	 * @param message
+	 *            the message, or the {@link ReplyTask} of a request.
+	 * @param hop
+	 *            the hop, or null if the message is not traced.
+	 * @param enqueueNanos
+	 *            when the message was enqueued, or 0 if not timed.
+	 */
+	MessageTask(RoboUnit<?> unit, Object message, MessagePriority priority, TraceHop hop, long enqueueNanos) {
+		super(priority);
+		this.unit = unit;
+		this.message = message;
+		this.hop = hop;
+		this.enqueueNanos = enqueueNanos;
+	}
+
+	@Override
+	public void run() {
+		unit.getMetrics().messageDequeued();
+		if (enqueueNanos == 0) {
+			deliver();
+			return;
+		}
+		Object event = CoreEvents.dispatchStarted(unit.getId(), ReplyTask.messageClassOf(message), enqueueNanos, 1);
+		try {
+			deliver();
+		} finally {
+			CoreEvents.dispatchEnded(event);
+		}
+	}
+
+	private void deliver() {
+		if (hop == null) {
+			handle();
+		} else {
+			hop.run(this::handle);
+		}
+	}
+
+	private void handle() {
+		if (message instanceof ReplyTask) {
+			((ReplyTask<?>) message).run();
+		} else {
+			unit.handle(message);
+		}
+	}
+}
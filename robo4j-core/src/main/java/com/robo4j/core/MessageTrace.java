@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A sampled chain of messages: the first message, and everything sent by the
+ * units while handling the messages of the chain.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+final class MessageTrace {
+	private final MessageTracer tracer;
+	private final Queue<TraceHop> hops = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pending = new AtomicInteger();
+
+	MessageTrace(MessageTracer tracer) {
+		this.tracer = tracer;
+	}
+
+	TraceHop newHop(RoboUnit<?> target) {
+		pending.incrementAndGet();
+		return new TraceHop(this, target.getId());
+	}
+
+	void hopDone(TraceHop hop) {
+		hops.add(hop);
+		// The handler has sent all its messages by now, so the chain is
+		// complete once nothing is pending
+		if (pending.decrementAndGet() == 0) {
+			tracer.completed(this);
+		}
+	}
+
+	/**
+	 * @return the hops, in the order they were enqueued.
+	 */
+	List<TraceHop> getHops() {
+		List<TraceHop> sorted = new ArrayList<>(hops);
+		sorted.sort(Comparator.comparingLong(TraceHop::getEnqueueNanos));
+		return sorted;
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.robo4j.core.logging.SimpleLoggingUtil;
+
+/**
+ * Samples messages sent between the units of a {@link RoboSystem}, and
+ * follows them through the chain of units they trigger. For every unit
+ * reached, the time spent queued and the time spent in the handler are
+ * recorded. The results are aggregated per chain of units, to help find
+ * where the time goes, for example whether a slow actuator is held up by a
+ * queue or by its own handler.
+ *
+ * <p>
+ * A message starts a new trace with the probability given by the sampling
+ * rate. Messages sent while handling a traced message always join its trace.
+ * With the sampling rate at zero, the default, the cost is a single volatile
+ * read per message. The initial rate can be set with the system property
+ * {@value #PROPERTY_SAMPLING_RATE}.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public final class MessageTracer {
+	/**
+	 * System property with the initial sampling rate, between 0 and 1.
+	 */
+	public static final String PROPERTY_SAMPLING_RATE = "robo4j.trace.samplingRate";
+
+	private static final String CHAIN_SEPARATOR = " -> ";
+	// The hop being handled on this thread
+	private static final ThreadLocal<TraceHop> CURRENT = new ThreadLocal<>();
+
+	private final Map<String, TraceChainStatistics> chains = new ConcurrentHashMap<>();
+	private volatile double samplingRate;
+
+	MessageTracer() {
+		samplingRate = getInitialSamplingRate();
+	}
+
+	/**
+	 * Sets the fraction of messages to trace. Messages already being traced
+	 * are not affected, unless the rate is set to zero, which stops all
+	 * tracing.
+	 * 
+	 * @param samplingRate
+	 *            the sampling rate, from 0 (off) to 1 (trace everything).
+	 */
+	public void setSamplingRate(double samplingRate) {
+		if (samplingRate < 0 || samplingRate > 1) {
+			throw new IllegalArgumentException("Sampling rate must be between 0 and 1, was " + samplingRate);
+		}
+		this.samplingRate = samplingRate;
+	}
+
+	/**
+	 * @return the fraction of messages traced.
+	 */
+	public double getSamplingRate() {
+		return samplingRate;
+	}
+
+	/**
+	 * @return the statistics of the chains completed so far, by chain. A
+	 *         chain is named by its units in the order they were reached,
+	 *         separated by " -> ".
+	 */
+	public Map<String, TraceChainStatistics> getChainStatistics() {
+		return Collections.unmodifiableMap(new TreeMap<>(chains));
+	}
+
+	/**
+	 * Discards the statistics collected so far.
+	 */
+	public void reset() {
+		chains.clear();
+	}
+
+	/**
+	 * @return a human readable report of the latencies per chain.
+	 */
+	public String generateReport() {
+		StringBuilder builder = new StringBuilder();
+		for (TraceChainStatistics statistics : getChainStatistics().values()) {
+			builder.append(statistics).append('\n');
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Called when a message is sent to the unit.
+	 * 
+	 * @return the hop to carry with the message, or null if it is not traced.
+	 */
+	TraceHop startHop(RoboUnit<?> target) {
+		if (samplingRate <= 0) {
+			return null;
+		}
+		TraceHop current = CURRENT.get();
+		if (current != null) {
+			return current.getTrace().newHop(target);
+		}
+		if (ThreadLocalRandom.current().nextDouble() >= samplingRate) {
+			return null;
+		}
+		return new MessageTrace(this).newHop(target);
+	}
+
+	static TraceHop enter(TraceHop hop) {
+		TraceHop previous = CURRENT.get();
+		CURRENT.set(hop);
+		return previous;
+	}
+
+	static void exit(TraceHop previous) {
+		if (previous == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(previous);
+		}
+	}
+
+	void completed(MessageTrace trace) {
+		List<TraceHop> delivered = new ArrayList<>();
+		int dropped = 0;
+		for (TraceHop hop : trace.getHops()) {
+			if (hop.isDropped()) {
+				dropped++;
+			} else {
+				delivered.add(hop);
+			}
+		}
+		if (delivered.isEmpty()) {
+			return;
+		}
+		List<String> units = new ArrayList<>(delivered.size());
+		long end = 0;
+		for (TraceHop hop : delivered) {
+			units.add(hop.getUnitId());
+			end = Math.max(end, hop.getEndNanos());
+		}
+		long latency = end - delivered.get(0).getEnqueueNanos();
+		String chain = String.join(CHAIN_SEPARATOR, units);
+		chains.computeIfAbsent(chain, name -> new TraceChainStatistics(units)).record(delivered, latency, dropped);
+	}
+
+	private static double getInitialSamplingRate() {
+		String rate = System.getProperty(PROPERTY_SAMPLING_RATE);
+		if (rate == null) {
+			return 0;
+		}
+		try {
+			return Math.max(0, Math.min(1, Double.parseDouble(rate)));
+		} catch (NumberFormatException e) {
+			SimpleLoggingUtil.error(MessageTracer.class, "Bad trace sampling rate " + rate + ". Tracing is off.");
+			return 0;
+		}
+	}
+}
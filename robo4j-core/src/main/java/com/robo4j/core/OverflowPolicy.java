@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+/**
+ * What a bounded unit mailbox does with a message sent when it is full. The
+ * capacity and policy are set in the unit configuration, see
+ * {@link RoboUnit#CONFIG_MAILBOX_CAPACITY} and
+ * {@link RoboUnit#CONFIG_MAILBOX_OVERFLOW}.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public enum OverflowPolicy {
+	/**
+	 * The sender waits until there is room in the mailbox, but at most for
+	 * the time given by {@link RoboUnit#CONFIG_MAILBOX_BLOCK_TIMEOUT}, after
+	 * which the message being sent is dropped. The wait is bounded, since
+	 * the sender is usually another unit, running on a system thread that
+	 * may be needed to drain the mailbox. A unit sending to itself is never
+	 * blocked.
+	 */
+	BLOCK,
+
+	/**
+	 * The message being sent is dropped.
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * The oldest queued message of the same or lower priority is dropped to
+	 * make room. If there is none, the message being sent is dropped.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Queued messages of the same type and priority as the message being
+	 * sent are stale, and are dropped in favour of it. If there are none, the
+	 * message being sent is dropped.
+	 */
+	COALESCE_LATEST
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+/**
+ * A task for the system executor. Tasks are queued in the lane of their
+ * {@link MessagePriority}, see {@link #laneOf(Runnable)}.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+abstract class PriorityTask implements Runnable {
+	private final int priority;
+
+	PriorityTask(MessagePriority priority) {
+		this.priority = priority.ordinal();
+	}
+
+	/**
+	 * @return the priority of this task.
+	 */
+	MessagePriority getPriority() {
+		return MessagePriority.fromOrdinal(priority);
+	}
+
+	/**
+	 * Lane function for a {@link com.robo4j.core.concurrency.PriorityLaneQueue}
+	 * with one lane per priority.
+	 * 
+	 * @return the lane of the task. Tasks other than priority tasks use the
+	 *         lane of {@link MessagePriority#DEFAULT}.
+	 */
+	static int laneOf(Runnable task) {
+		return task instanceof PriorityTask ? ((PriorityTask) task).priority : MessagePriority.DEFAULT.ordinal();
+	}
+}
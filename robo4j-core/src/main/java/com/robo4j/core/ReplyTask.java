@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Wraps a message which has a reply. Only instances of this class are treated
+ * as request/response by the mailboxes, so that user messages which happen to
+ * be runnable are delivered like any other message.
+ *
+ * <p>
+ * Tasks created for {@link RoboReference#ask(Object)} also complete a
+ * {@link CompletableFuture}, on the thread running the task.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+final class ReplyTask<V> extends FutureTask<V> {
+	private final Object message;
+	private final MessagePriority priority;
+	private final CompletableFuture<V> completion;
+
+	ReplyTask(RoboUnit<?> unit, Object message) {
+		this(unit, message, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	ReplyTask(RoboUnit<?> unit, Object message, boolean completable) {
+		super(() -> (V) unit.handle(message));
+		this.message = message;
+		this.priority = MessagePriority.of(message);
+		this.completion = completable ? new CompletableFuture<>() : null;
+	}
+
+	/**
+	 * @return the future completed with the outcome of this task, or null if
+	 *         the task was not created completable.
+	 */
+	CompletableFuture<V> getCompletion() {
+		return completion;
+	}
+
+	@Override
+	protected void done() {
+		if (completion == null) {
+			return;
+		}
+		if (isCancelled()) {
+			completion.cancel(false);
+			return;
+		}
+		try {
+			// Does not block - we are done
+			completion.complete(get());
+		} catch (ExecutionException e) {
+			completion.completeExceptionally(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			completion.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * @return the wrapped message.
+	 */
+	Object getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the class of the message, unwrapped if it is a task.
+	 */
+	static Class<?> messageClassOf(Object message) {
+		return message instanceof ReplyTask ? ((ReplyTask<?>) message).message.getClass() : message.getClass();
+	}
+
+	/**
+	 * @return the priority of the wrapped message.
+	 */
+	MessagePriority getPriority() {
+		return priority;
+	}
+}
@@ -17,25 +17,34 @@
  */
 package com.robo4j.core;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import com.robo4j.core.configuration.Configuration;
+import com.robo4j.core.configuration.ConfigurationFactoryException;
 import com.robo4j.core.configuration.XmlConfigurationFactory;
 import com.robo4j.core.logging.SimpleLoggingUtil;
+import com.robo4j.core.processing.UnitIndexProcessor;
 
 /**
  * Builds a RoboSystem from various different sources.
@@ -45,105 +54,46 @@ import com.robo4j.core.logging.SimpleLoggingUtil;
  * @since 09.01.2017
  */
 public final class RoboBuilder {
+	private static final String ELEMENT_UNIT = "roboUnit";
+	private static final String ELEMENT_CLASS = "class";
+	private static final String ATTRIBUTE_ID = "id";
+	private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
 	private final Set<RoboUnit<?>> units = new HashSet<>();
-	private final RoboSystem system = new RoboSystem();
-
-	private class RoboXMLHandler extends DefaultHandler {
-		private String currentId = "";
-		private String currentClassName = "";
-		private String currentConfiguration = "";
-		private String lastElement = "";
-		private boolean configState = false;
-
-		@Override
-		public void startElement(String uri, String localName, String qName, Attributes attributes)
-				throws SAXException {
-			switch (qName) {
-			case "roboUnit":
-				currentId = attributes.getValue("id");
-				break;
-			case XmlConfigurationFactory.ELEMENT_CONFIG:
-				currentConfiguration = "";
-				configState = true;
-				break;
-			}
-			lastElement = qName;
-			if (configState) {
-				currentConfiguration += String.format("<%s %s>", qName, toString(attributes));
-			}
-		}
+	private DispatchMode dispatchMode = DispatchMode.SHARED_QUEUE;
+	// Created when the first unit is instantiated, with the dispatch mode
+	// chosen by then
+	private RoboSystem system;
+	private int parallelism = 1;
 
-		private Object toString(Attributes attributes) {
-			return String.format("%s=\"%s\" %s=\"%s\"", XmlConfigurationFactory.ATTRIBUTE_NAME,
-					attributes.getValue(XmlConfigurationFactory.ATTRIBUTE_NAME), XmlConfigurationFactory.ATTRIBUTE_TYPE,
-					attributes.getValue(XmlConfigurationFactory.ATTRIBUTE_TYPE));
-		}
+	/**
+	 * A unit as described by a system descriptor.
+	 */
+	static final class UnitDefinition {
+		private final String id;
+		private final String className;
+		private final Configuration configuration;
 
-		@Override
-		public void endElement(String uri, String localName, String qName) throws SAXException {
-			if (qName.equals("roboUnit")) {
-				if (!verifyUnit()) {
-					clearCurrentVariables();
-				} else {
-					try {
-						SimpleLoggingUtil.debug(getClass(), "Loading " + currentClassName.trim() + " id=" + currentId);
-						@SuppressWarnings("unchecked")
-						Class<RoboUnit<?>> roboUnitClass = (Class<RoboUnit<?>>) Thread.currentThread()
-								.getContextClassLoader().loadClass(currentClassName.trim());
-						Configuration config = currentConfiguration.trim().equals("") ? null
-								: XmlConfigurationFactory.fromXml(currentConfiguration);
-						internalAddUnit(instantiateAndInitialize(roboUnitClass, currentId.trim(), config));
-					} catch (Exception e) {
-						throw new SAXException("Failed to parse robo unit", e);
-					}
-					clearCurrentVariables();
-				}
-				configState = false;
-			}
-			if (configState) {
-				currentConfiguration += String.format("</%s>", qName);
-			}
+		UnitDefinition(String id, String className, Configuration configuration) {
+			this.id = id;
+			this.className = className;
+			this.configuration = configuration;
 		}
 
-		private void clearCurrentVariables() {
-			currentId = "";
-			currentClassName = "";
-			currentConfiguration = null;
-			currentConfiguration = "";
+		String getId() {
+			return id;
 		}
 
-		private boolean verifyUnit() {
-			if (currentId.isEmpty()) {
-				SimpleLoggingUtil.error(getClass(), "Error parsing unit, no ID");
-				return false;
-			} else if (currentClassName.isEmpty()) {
-				SimpleLoggingUtil.error(getClass(), "Error parsing unit, no class name for " + currentId);
-				return false;
-			}
-			return true;
+		String getClassName() {
+			return className;
 		}
 
-		@Override
-		public void characters(char[] ch, int start, int length) throws SAXException {
-			if (configState) {
-				currentConfiguration += toString(ch, start, length);
-			}
-			// NOTE(Marcus/Jan 22, 2017): Seems these can be called repeatedly
-			// for a single text() node.
-			switch (lastElement) {
-			case XmlConfigurationFactory.ELEMENT_CONFIG:
-				currentConfiguration += toString(ch, start, length);
-				break;
-			case "class":
-				currentClassName += toString(ch, start, length);
-				break;
-			default:
-				break;
-			}
-		}
-
-		private String toString(char[] data, int offset, int count) {
-			return String.valueOf(data, offset, count);
+		/**
+		 * @return the configuration, or null if the unit should not be
+		 *         initialized.
+		 */
+		Configuration getConfiguration() {
+			return configuration;
 		}
 	}
 
@@ -200,6 +150,50 @@ public final class RoboBuilder {
 		return this;
 	}
 
+	/**
+	 * Sets how many units loaded from a descriptor may be instantiated and
+	 * initialized at the same time. Units doing slow hardware handshakes in
+	 * their initialization then no longer have to wait for each other. The
+	 * default, 1, initializes the units one after the other, in the order
+	 * they are defined.
+	 * 
+	 * <p>
+	 * With a parallelism above 1, a unit is still only initialized once the
+	 * unit named by its {@code target} configuration has been initialized.
+	 * 
+	 * @param parallelism
+	 *            the maximum number of units to initialize concurrently.
+	 * @return the builder, for chaining.
+	 */
+	public RoboBuilder setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be at least 1, was " + parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Sets how the built system delivers messages to its units. The mailbox
+	 * related unit configuration, such as {@link RoboUnit#CONFIG_MAILBOX_CAPACITY},
+	 * and the {@link RoboUnit#getCoalescingKey(Object) coalescing} of messages
+	 * only take effect in {@link DispatchMode#MAILBOX}. The default is
+	 * {@link DispatchMode#SHARED_QUEUE}.
+	 * 
+	 * @param dispatchMode
+	 *            the dispatch mode of the system.
+	 * @return the builder, for chaining.
+	 * @throws IllegalStateException
+	 *             if units have already been instantiated by the builder.
+	 */
+	public synchronized RoboBuilder setDispatchMode(DispatchMode dispatchMode) {
+		if (system != null && system.getDispatchMode() != dispatchMode) {
+			throw new IllegalStateException("The dispatch mode must be set before any units are added");
+		}
+		this.dispatchMode = dispatchMode;
+		return this;
+	}
+
 	/**
 	 * Returns the built {@link RoboContext}. This should be the final method
 	 * called on the builder.
@@ -207,6 +201,7 @@ public final class RoboBuilder {
 	 * @return the RoboContext.
 	 */
 	public RoboContext build() {
+		RoboSystem system = getSystem();
 		system.addUnits(units);
 		return system;
 	}
@@ -222,23 +217,280 @@ public final class RoboBuilder {
 	 * @throws RoboBuilderException
 	 */
 	public RoboBuilder add(InputStream inputStream) throws RoboBuilderException {
+		addAll(readDefinitions(inputStream), getContextClassLoader());
+		return this;
+	}
+
+	/**
+	 * Will load all the units from the definitions found in the XML file and
+	 * add them to the builder, using a binary snapshot of the definitions to
+	 * skip the XML parsing when possible.
+	 * 
+	 * <p>
+	 * The snapshot is keyed by a hash of the XML. If the snapshot is missing
+	 * or was made from a different XML, the XML is parsed and a new snapshot
+	 * is written. Failing to write the snapshot is logged, but does not fail
+	 * the loading.
+	 * 
+	 * @param inputStream
+	 *            the xml containing the definitions.
+	 * @param snapshot
+	 *            the file to keep the snapshot in.
+	 * @return the builder.
+	 * @throws RoboBuilderException
+	 */
+	public RoboBuilder add(InputStream inputStream, Path snapshot) throws RoboBuilderException {
+		byte[] xml;
 		try {
-			SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
-			saxParser.parse(inputStream, new RoboXMLHandler());
-		} catch (SAXException | IOException | ParserConfigurationException e) {
-			throw new RoboBuilderException("Could not initialize from xml", e);
+			xml = readFully(inputStream);
+		} catch (IOException e) {
+			throw new RoboBuilderException("Could not read the xml", e);
 		}
+		byte[] hash = SystemSnapshot.hash(xml);
+		List<UnitDefinition> definitions = SystemSnapshot.read(snapshot, hash);
+		if (definitions == null) {
+			definitions = readDefinitions(new ByteArrayInputStream(xml));
+			SystemSnapshot.write(snapshot, hash, definitions);
+		}
+		addAll(definitions, getContextClassLoader());
 		return this;
 	}
 
-	// FIXME(Marcus/Jan 22, 2017): Implement.
+	/**
+	 * Will add all the units listed in the unit indexes visible to the class
+	 * loader. The indexes are generated at compile time by the
+	 * {@link UnitIndexProcessor}, from the units annotated with
+	 * {@link IndexedUnit}, so no class path scanning takes place.
+	 * 
+	 * @param loader
+	 *            the class loader to look up the indexes and load the units
+	 *            with.
+	 * @return the builder.
+	 * @throws RoboBuilderException
+	 *             if an index could not be read, or units could not be
+	 *             created.
+	 */
 	public RoboBuilder add(ClassLoader loader) throws RoboBuilderException {
-		throw new UnsupportedOperationException("Not yet supported");
+		return add(loader, null);
 	}
 
-	// FIXME(Marcus/Jan 22, 2017): Implement.
+	/**
+	 * Will add the units listed in the unit indexes visible to the class
+	 * loader, which have an id or class name matching the regular
+	 * expression.
+	 * 
+	 * @param loader
+	 *            the class loader to look up the indexes and load the units
+	 *            with.
+	 * @param match
+	 *            the regular expression to match, or null to add all units.
+	 * @return the builder.
+	 * @throws RoboBuilderException
+	 *             if an index could not be read, or units could not be
+	 *             created.
+	 * @see #add(ClassLoader)
+	 */
 	public RoboBuilder add(ClassLoader loader, String match) throws RoboBuilderException {
-		throw new UnsupportedOperationException("Not yet supported");
+		Pattern pattern = match == null ? null : Pattern.compile(match);
+		List<UnitDefinition> definitions = new ArrayList<>();
+		try {
+			// One index per jar or class folder
+			Enumeration<URL> indexes = loader.getResources(UnitIndexProcessor.INDEX_RESOURCE);
+			while (indexes.hasMoreElements()) {
+				try (InputStream in = indexes.nextElement().openStream()) {
+					for (UnitDefinition definition : readDefinitions(in)) {
+						if (pattern == null || pattern.matcher(definition.getId()).matches()
+								|| pattern.matcher(definition.getClassName()).matches()) {
+							definitions.add(definition);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new RoboBuilderException("Could not read the unit index", e);
+		}
+		addAll(definitions, loader);
+		return this;
+	}
+
+	private List<UnitDefinition> readDefinitions(InputStream inputStream) throws RoboBuilderException {
+		List<UnitDefinition> definitions = new ArrayList<>();
+		try {
+			XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT
+							&& ELEMENT_UNIT.equals(reader.getLocalName())) {
+						UnitDefinition definition = readUnit(reader);
+						if (definition != null) {
+							definitions.add(definition);
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException | ConfigurationFactoryException e) {
+			throw new RoboBuilderException("Could not initialize from xml", e);
+		}
+		return definitions;
+	}
+
+	/**
+	 * Creates the defined units, and adds the ones which could be created.
+	 * 
+	 * @throws RoboBuilderException
+	 *             for the failed units. If more than one unit failed, the
+	 *             other failures are suppressed exceptions.
+	 */
+	private void addAll(List<UnitDefinition> definitions, ClassLoader loader) throws RoboBuilderException {
+		int count = definitions.size();
+		RoboUnit<?>[] created = new RoboUnit<?>[count];
+		RoboBuilderException[] failures = new RoboBuilderException[count];
+		if (parallelism > 1 && count > 1) {
+			ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, count));
+			try {
+				// A unit may expect the unit it targets to be initialized
+				for (List<Integer> wave : LifecycleGraph.toWaves(definitions)) {
+					List<Callable<Void>> tasks = new ArrayList<>(wave.size());
+					for (int index : wave) {
+						tasks.add(() -> {
+							create(definitions.get(index), loader, index, created, failures);
+							return null;
+						});
+					}
+					pool.invokeAll(tasks);
+				}
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				create(definitions.get(i), loader, i, created, failures);
+			}
+		}
+
+		List<RoboBuilderException> failed = new ArrayList<>();
+		StringBuilder failedIds = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			try {
+				if (failures[i] != null) {
+					throw failures[i];
+				}
+				internalAddUnit(created[i]);
+			} catch (RoboBuilderException e) {
+				failed.add(e);
+				failedIds.append(failedIds.length() == 0 ? "" : ", ").append(definitions.get(i).getId());
+			}
+		}
+		if (failed.size() == 1) {
+			throw failed.get(0);
+		} else if (!failed.isEmpty()) {
+			RoboBuilderException exception = new RoboBuilderException(
+					"Failed to add " + failed.size() + " units: " + failedIds, failed.get(0));
+			for (int i = 1; i < failed.size(); i++) {
+				exception.addSuppressed(failed.get(i));
+			}
+			throw exception;
+		}
+	}
+
+	private void create(UnitDefinition definition, ClassLoader loader, int index, RoboUnit<?>[] created,
+			RoboBuilderException[] failures) {
+		SimpleLoggingUtil.debug(getClass(), "Loading " + definition.getClassName() + " id=" + definition.getId());
+		try {
+			created[index] = instantiateAndInitialize(loadUnitClass(loader, definition.getClassName()),
+					definition.getId(), definition.getConfiguration());
+		} catch (RoboBuilderException | RuntimeException e) {
+			failures[index] = new RoboBuilderException("Could not create unit " + definition.getId(), e);
+		}
+	}
+
+	/**
+	 * Reads a unit definition. The configuration is built while reading, in
+	 * the same pass over the document.
+	 * 
+	 * @return the definition, or null if the definition was incomplete.
+	 */
+	private UnitDefinition readUnit(XMLStreamReader reader) throws XMLStreamException, ConfigurationFactoryException {
+		String id = reader.getAttributeValue(null, ATTRIBUTE_ID);
+		String className = null;
+		Configuration configuration = null;
+		for (int event = reader.next(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+			if (event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+			switch (reader.getLocalName()) {
+			case ELEMENT_CLASS:
+				className = reader.getElementText().trim();
+				break;
+			case XmlConfigurationFactory.ELEMENT_CONFIG:
+				configuration = XmlConfigurationFactory.fromXml(reader);
+				break;
+			default:
+				skipElement(reader);
+				break;
+			}
+		}
+		if (id == null || id.trim().isEmpty()) {
+			SimpleLoggingUtil.error(getClass(), "Error parsing unit, no ID");
+			return null;
+		} else if (className == null || className.isEmpty()) {
+			SimpleLoggingUtil.error(getClass(), "Error parsing unit, no class name for " + id);
+			return null;
+		}
+		return new UnitDefinition(id.trim(), className, configuration);
+	}
+
+	private static byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int read = inputStream.read(buffer); read >= 0; read = inputStream.read(buffer)) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<RoboUnit<?>> loadUnitClass(ClassLoader loader, String className)
+			throws RoboBuilderException {
+		try {
+			return (Class<RoboUnit<?>>) loader.loadClass(className);
+		} catch (ClassNotFoundException e) {
+			throw new RoboBuilderException("Could not load robo unit class " + className, e);
+		}
+	}
+
+	/**
+	 * @return the class loader to load units from descriptors with. Looked up
+	 *         here, since worker threads may have another context class
+	 *         loader.
+	 */
+	private static ClassLoader getContextClassLoader() {
+		ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+		return contextLoader != null ? contextLoader : RoboBuilder.class.getClassLoader();
+	}
+
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		for (int depth = 1; depth > 0;) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				break;
+			}
+		}
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// Descriptors are plain documents - no DTDs or external entities
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
 	}
 
 	private void internalAddUnit(RoboUnit<?> unit) throws RoboBuilderException {
@@ -251,10 +503,18 @@ public final class RoboBuilder {
 		units.add(unit);
 	}
 
+	// Units may be instantiated concurrently, see setParallelism
+	private synchronized RoboSystem getSystem() {
+		if (system == null) {
+			system = new RoboSystem(RoboSystem.DEFAULT_THREAD_POOL_SIZE, dispatchMode);
+		}
+		return system;
+	}
+
 	private RoboUnit<?> instantiateRoboUnit(Class<RoboUnit<?>> clazz, String id) throws RoboBuilderException {
 		try {
 			Constructor<RoboUnit<?>> constructor = clazz.getConstructor(RoboContext.class, String.class);
-			return constructor.newInstance(system, id);
+			return constructor.newInstance(getSystem(), id);
 		} catch (NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException
 				| IllegalArgumentException | InvocationTargetException e) {
 			throw new RoboBuilderException("Could not instantiate robo unit.", e);
@@ -62,6 +62,16 @@ public interface RoboContext {
 	 */
 	Collection<RoboUnit<?>> getUnits();
 
+	/**
+	 * Returns the live runtime metrics of a unit, such as the mailbox depth,
+	 * the message rate and the handler latencies.
+	 * 
+	 * @param id
+	 *            the id of the unit.
+	 * @return the metrics, or null if there is no unit with the id.
+	 */
+	UnitMetrics getMetrics(String id);
+
 	/**
 	 * @return the system scheduler.
 	 */
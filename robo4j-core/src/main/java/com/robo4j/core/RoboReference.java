@@ -16,7 +16,10 @@
  */
 package com.robo4j.core;
 
+import java.util.List;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.robo4j.core.configuration.Configuration;
 
@@ -36,7 +39,63 @@ public interface RoboReference<T> {
 	 * @return the RoboUnit specific response.
 	 */
 	<R> Future<RoboResult<T, R>> sendMessage(Object message);
+
+	/**
+	 * Sends a message to this RoboUnit, without waiting for or keeping track
+	 * of the result. No future or result object is created, which makes this
+	 * the preferred way of sending messages on hot paths.
+	 * 
+	 * @param message
+	 *            the message to send.
+	 */
+	void sendOneWay(Object message);
+
+	/**
+	 * Sends several one way messages to this RoboUnit, to be handled in order.
+	 * In a {@link DispatchMode#MAILBOX} system the messages are queued in the
+	 * mailbox of the unit as one entry, and are handed to the unit back to
+	 * back, through {@link RoboUnit#onMessages(List)} if it accepts batches.
+	 * Otherwise they are sent one by one, like {@link #sendOneWay(Object)}.
+	 * 
+	 * @param messages
+	 *            the messages to send.
+	 */
+	void sendBatch(List<?> messages);
+
+	/**
+	 * Sends a message to this RoboUnit, and returns a stage completed with
+	 * the response. The stage is completed by the thread processing the
+	 * message, so no thread is kept waiting for the response. If the unit
+	 * returns a {@link CompletionStage} as the result, the returned stage
+	 * completes when that stage does.
+	 * 
+	 * @param message
+	 *            the message to send.
+	 * @return the stage completed with the RoboUnit specific response.
+	 */
+	<R> CompletionStage<RoboResult<T, R>> ask(Object message);
+
+	/**
+	 * Like {@link #ask(Object)}, but completes the stage exceptionally with a
+	 * {@link java.util.concurrent.TimeoutException} if there is no response
+	 * within the timeout. The message is not processed if it is still queued
+	 * when the timeout expires.
+	 * 
+	 * @param message
+	 *            the message to send.
+	 * @param timeout
+	 *            the maximum time to wait for a response.
+	 * @param unit
+	 *            the time unit of the timeout.
+	 * @return the stage completed with the RoboUnit specific response.
+	 */
+	<R> CompletionStage<RoboResult<T, R>> ask(Object message, long timeout, TimeUnit unit);
 	
+	/**
+	 * @return the id of the referenced RoboUnit.
+	 */
+	String getId();
+
 	/**
 	 * @return the configuration.
 	 */
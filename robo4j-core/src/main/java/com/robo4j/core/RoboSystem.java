@@ -16,21 +16,33 @@
  */
 package com.robo4j.core;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Stream;
+import java.util.function.Function;
 
+import com.robo4j.core.concurrency.DedicatedThreadExecutor;
+import com.robo4j.core.concurrency.PriorityLaneQueue;
+import com.robo4j.core.concurrency.RoboExecutors;
 import com.robo4j.core.concurrency.RoboThreadFactory;
+import com.robo4j.core.concurrency.WaitStrategy;
 import com.robo4j.core.configuration.Configuration;
+import com.robo4j.core.jfr.CoreEvents;
 import com.robo4j.core.logging.SimpleLoggingUtil;
 import com.robo4j.core.scheduler.DefaultScheduler;
 import com.robo4j.core.scheduler.Scheduler;
@@ -44,35 +56,166 @@ import com.robo4j.core.scheduler.Scheduler;
  * @since 09.01.2017
  */
 public class RoboSystem implements RoboContext {
-	private static final int DEFAULT_THREAD_POOL_SIZE = 2;
+	static final int DEFAULT_THREAD_POOL_SIZE = 2;
 	private static final int TERMINATION_TIMEOUT = 2;
-	private static final int KEEP_ALIVE_TIME = 10;
+	private final DispatchMode dispatchMode;
 	private volatile AtomicReference<LifecycleState> state = new AtomicReference<>(LifecycleState.UNINITIALIZED);
-	private final Map<String, RoboUnit<?>> units = new HashMap<>();
-	private final Map<RoboUnit<?>, RoboReference<?>> referenceCache = new WeakHashMap<>();
+	private final UnitRegistry registry = new UnitRegistry();
+	private final MessageTracer tracer = new MessageTracer();
 
 	private final ThreadPoolExecutor systemExecutor;
-	private final Scheduler scheduler = new DefaultScheduler(this);
-	private final LinkedBlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>();
+	private final Scheduler scheduler;
+	// One lane per priority, so that urgent messages overtake the backlog
+	private final PriorityLaneQueue<Runnable> workQueue = new PriorityLaneQueue<>(MessagePriority.count(),
+			PriorityTask::laneOf);
 	private final String uid = UUID.randomUUID().toString();
+	// Keyed by unit id, so that the thread can be stopped when the unit is removed
+	private final Map<String, DedicatedThreadExecutor> dedicatedExecutors = new ConcurrentHashMap<>();
+	// Only used to expire asks with a timeout
+	private final ScheduledThreadPoolExecutor timeoutExecutor = new ScheduledThreadPoolExecutor(1,
+			new RoboThreadFactory("Robo4J Ask Timeout ", true));
 
 	private class ReferenceImplementation<T> implements RoboReference<T> {
 		private final RoboUnit<T> unit;
+		private volatile Executor executor = systemExecutor;
 
 		public ReferenceImplementation(RoboUnit<T> unit) {
 			this.unit = unit;
 		}
 
-		@SuppressWarnings("unchecked")
 		@Override
-		public Future<RoboResult<T, ?>> sendMessage(final Object message) {
-			return systemExecutor.submit(() -> unit.onMessage(message));
+		public <R> Future<RoboResult<T, R>> sendMessage(final Object message) {
+			checkAccepted(unit, message);
+			ReplyTask<RoboResult<T, R>> task = new ReplyTask<>(unit, message);
+			submit(task, task.getPriority());
+			return task;
+		}
+
+		@Override
+		public <R> CompletionStage<RoboResult<T, R>> ask(Object message) {
+			return ask(message, 0, null);
+		}
+
+		@Override
+		public <R> CompletionStage<RoboResult<T, R>> ask(Object message, long timeout, TimeUnit timeUnit) {
+			checkAccepted(unit, message);
+			ReplyTask<RoboResult<T, R>> task = new ReplyTask<>(unit, message, true);
+			CompletableFuture<RoboResult<T, R>> reply = toReply(task, timeout, timeUnit);
+			submit(task, task.getPriority());
+			return reply;
+		}
+
+		@Override
+		public void sendOneWay(final Object message) {
+			checkAccepted(unit, message);
+			submit(message, MessagePriority.of(message));
+		}
+
+		@Override
+		public void sendBatch(List<?> messages) {
+			// The shared queue does not keep the messages of a unit together
+			for (Object message : messages) {
+				sendOneWay(message);
+			}
+		}
+
+		/**
+		 * Submits the task delivering the message, keeping track of the
+		 * number of tasks waiting for a thread.
+		 * 
+		 * @param message
+		 *            the message, or the {@link ReplyTask} of a request.
+		 */
+		private void submit(Object message, MessagePriority priority) {
+			UnitMetrics metrics = unit.getMetrics();
+			CoreEvents.messageEnqueued(unit.getId(), ReplyTask.messageClassOf(message), priority);
+			long enqueueNanos = CoreEvents.isDispatchEnabled() ? System.nanoTime() : 0;
+			TraceHop hop = tracer.startHop(unit);
+			metrics.messageQueued();
+			try {
+				executor.execute(new MessageTask(unit, message, priority, hop, enqueueNanos));
+			} catch (RejectedExecutionException e) {
+				metrics.messageDequeued();
+				if (hop != null) {
+					hop.dropped();
+				}
+				throw e;
+			}
+		}
+
+		@Override
+		public String getId() {
+			return unit.getId();
 		}
 
 		@Override
 		public Configuration getConfiguration() {
 			return unit.getConfiguration();
 		}
+
+		void setExecutor(Executor executor) {
+			this.executor = executor;
+		}
+	}
+
+	private class MailboxReferenceImplementation<T> implements RoboReference<T> {
+		private final RoboUnit<T> unit;
+		private final UnitMailbox<T> mailbox;
+
+		public MailboxReferenceImplementation(RoboUnit<T> unit) {
+			this.unit = unit;
+			this.mailbox = new UnitMailbox<>(unit, systemExecutor, UnitMailbox.DEFAULT_THROUGHPUT, tracer);
+		}
+
+		@Override
+		public <R> Future<RoboResult<T, R>> sendMessage(final Object message) {
+			checkAccepted(unit, message);
+			ReplyTask<RoboResult<T, R>> task = new ReplyTask<>(unit, message);
+			mailbox.enqueue(task);
+			return task;
+		}
+
+		@Override
+		public <R> CompletionStage<RoboResult<T, R>> ask(Object message) {
+			return ask(message, 0, null);
+		}
+
+		@Override
+		public <R> CompletionStage<RoboResult<T, R>> ask(Object message, long timeout, TimeUnit timeUnit) {
+			checkAccepted(unit, message);
+			ReplyTask<RoboResult<T, R>> task = new ReplyTask<>(unit, message, true);
+			CompletableFuture<RoboResult<T, R>> reply = toReply(task, timeout, timeUnit);
+			mailbox.enqueue(task);
+			return reply;
+		}
+
+		@Override
+		public void sendOneWay(final Object message) {
+			checkAccepted(unit, message);
+			mailbox.enqueue(message);
+		}
+
+		@Override
+		public void sendBatch(List<?> messages) {
+			for (Object message : messages) {
+				checkAccepted(unit, message);
+			}
+			mailbox.enqueueBatch(messages);
+		}
+
+		@Override
+		public String getId() {
+			return unit.getId();
+		}
+
+		@Override
+		public Configuration getConfiguration() {
+			return unit.getConfiguration();
+		}
+
+		UnitMailbox<T> getMailbox() {
+			return mailbox;
+		}
 	}
 
 	public RoboSystem() {
@@ -80,8 +223,38 @@ public class RoboSystem implements RoboContext {
 	}
 
 	public RoboSystem(int threadPoolSize) {
-		systemExecutor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
-				workQueue, new RoboThreadFactory("Robo4J System ", true));
+		this(threadPoolSize, DispatchMode.SHARED_QUEUE);
+	}
+
+	/**
+	 * Creates a system using the specified dispatch mode.
+	 * 
+	 * @param threadPoolSize
+	 *            the number of threads in the system thread pool.
+	 * @param dispatchMode
+	 *            how messages are delivered to the units.
+	 */
+	public RoboSystem(int threadPoolSize, DispatchMode dispatchMode) {
+		this(threadPoolSize, dispatchMode, DefaultScheduler::new);
+	}
+
+	/**
+	 * Creates a system using the specified dispatch mode and scheduler.
+	 * 
+	 * @param threadPoolSize
+	 *            the number of threads in the system thread pool.
+	 * @param dispatchMode
+	 *            how messages are delivered to the units.
+	 * @param schedulerFactory
+	 *            creates the scheduler returned by {@link #getScheduler()},
+	 *            for example <code>HashedWheelScheduler::new</code>.
+	 */
+	public RoboSystem(int threadPoolSize, DispatchMode dispatchMode,
+			Function<RoboContext, ? extends Scheduler> schedulerFactory) {
+		this.dispatchMode = dispatchMode;
+		this.scheduler = schedulerFactory.apply(this);
+		systemExecutor = RoboExecutors.newWorkerPool("Robo4J System ", threadPoolSize, workQueue);
+		timeoutExecutor.setRemoveOnCancelPolicy(true);
 	}
 
 	public RoboSystem(int threadPoolSize, Set<RoboUnit<?>> unitSet) {
@@ -89,52 +262,112 @@ public class RoboSystem implements RoboContext {
 		addToMap(unitSet);
 	}
 
+	/**
+	 * Adds units to the system. Units can be added at any time - units added
+	 * to a started system are started right away.
+	 * 
+	 * @param unitSet
+	 *            the units to add.
+	 * @throws IllegalArgumentException
+	 *             if a different unit with the same id is already registered.
+	 */
 	public void addUnits(Set<RoboUnit<?>> unitSet) {
-		if (state.get() != LifecycleState.UNINITIALIZED) {
-			throw new UnsupportedOperationException("All units must be registered up front for now.");
-		}
 		addToMap(unitSet);
+		startIfRunning(unitSet);
 	}
 
+	/**
+	 * Adds units to the system. Units can be added at any time - units added
+	 * to a started system are started right away.
+	 * 
+	 * @param units
+	 *            the units to add.
+	 * @throws IllegalArgumentException
+	 *             if a different unit with the same id is already registered.
+	 */
 	public void addUnits(RoboUnit<?>... units) {
-		if (state.get() != LifecycleState.UNINITIALIZED) {
-			throw new UnsupportedOperationException("All units must be registered up front for now.");
-		}
 		addToMap(units);
+		startIfRunning(Arrays.asList(units));
 	}
 
 	public void addToMap(Set<RoboUnit<?>> unitSet) {
-		unitSet.stream().forEach(unit -> units.put(unit.getId(), unit));
+		unitSet.forEach(this::register);
 	}
 
 	public void addToMap(RoboUnit<?>... unitArray) {
-		Stream.of(unitArray).forEach(unit -> units.put(unit.getId(), unit));
+		for (RoboUnit<?> unit : unitArray) {
+			register(unit);
+		}
+	}
+
+	/**
+	 * Removes a unit from the system. A unit removed from a running system is
+	 * stopped and shut down. The handle of the unit may be reused by units
+	 * added later.
+	 * 
+	 * @param id
+	 *            the id of the unit to remove.
+	 * @return the removed unit, or null if there was no unit with the id.
+	 */
+	public RoboUnit<?> removeUnit(String id) {
+		UnitRegistry.Entry entry = registry.remove(id);
+		if (entry == null) {
+			return null;
+		}
+		RoboUnit<?> unit = entry.getUnit();
+		LifecycleState current = state.get();
+		if (current != LifecycleState.UNINITIALIZED && current != LifecycleState.SHUTDOWN) {
+			if (unit.getState() == LifecycleState.STARTED) {
+				unit.stop();
+			}
+			unit.shutdown();
+		}
+		shutdownDedicatedExecutor(dedicatedExecutors.remove(id));
+		return unit;
+	}
+
+	private void register(RoboUnit<?> unit) {
+		RoboReference<?> reference = unit.getContext() == this ? unit.internalGetReference() : null;
+		registry.add(unit, reference != null ? reference : createReference(unit));
+	}
+
+	private void startIfRunning(Collection<RoboUnit<?>> added) {
+		LifecycleState current = state.get();
+		if (current == LifecycleState.STARTING || current == LifecycleState.STARTED) {
+			new LifecycleGraph(added).runInDependencyOrder("start", RoboUnit::start);
+		}
 	}
 
 	@Override
 	public void start() {
 		state.set(LifecycleState.STARTING);
-		units.values().forEach(RoboUnit::start);
+		new LifecycleGraph(registry.getUnits()).runInDependencyOrder("start", RoboUnit::start);
 		state.set(LifecycleState.STARTED);
 	}
 
 	@Override
 	public void stop() {
 		state.set(LifecycleState.STOPPING);
-		units.values().forEach(RoboUnit::stop);
+		new LifecycleGraph(registry.getUnits()).runInReverseOrder("stop", RoboUnit::stop);
 		state.set(LifecycleState.STOPPED);
 	}
 
 	@Override
 	public void shutdown() {
+		scheduler.shutdown();
 		stop();
 		try {
 			systemExecutor.awaitTermination(TERMINATION_TIMEOUT, TimeUnit.SECONDS);
+			for (DedicatedThreadExecutor executor : dedicatedExecutors.values()) {
+				executor.shutdown();
+				executor.awaitTermination(TERMINATION_TIMEOUT, TimeUnit.SECONDS);
+			}
 		} catch (InterruptedException e) {
 			SimpleLoggingUtil.error(getClass(), "Was interrupted when shutting down.", e);
 		}
+		timeoutExecutor.shutdownNow();
 		state.set(LifecycleState.SHUTTING_DOWN);
-		units.values().forEach(RoboUnit::shutdown);
+		new LifecycleGraph(registry.getUnits()).runInReverseOrder("shut down", RoboUnit::shutdown);
 		state.set(LifecycleState.SHUTDOWN);
 	}
 
@@ -144,10 +377,10 @@ public class RoboSystem implements RoboContext {
 	}
 
 	/**
-	 * Returns all the units in the system.
+	 * Returns a snapshot of all the units in the system.
 	 */
 	public Collection<RoboUnit<?>> getUnits() {
-		return units.values();
+		return registry.getUnits();
 	}
 
 	/**
@@ -157,29 +390,197 @@ public class RoboSystem implements RoboContext {
 	 * @return returns the reference to the specified RoboUnit. The reference
 	 *         can be kept and
 	 */
+	@SuppressWarnings("unchecked")
 	public <T> RoboReference<T> getReference(String id) {
-		@SuppressWarnings("unchecked")
-		RoboUnit<T> roboUnit = (RoboUnit<T>) units.get(id);
-		if (roboUnit == null) {
-			return null;
-		}
-		return getReference(roboUnit);
+		UnitRegistry.Entry entry = registry.get(id);
+		return entry == null ? null : (RoboReference<T>) entry.getReference();
+	}
+
+	/**
+	 * Looks up a reference by the handle of the unit, without hashing. For
+	 * hot paths.
+	 * 
+	 * @param handle
+	 *            the handle of the unit, see {@link #getHandle(String)}.
+	 * @return the reference, or null if there is no unit with the handle.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> RoboReference<T> getReference(int handle) {
+		UnitRegistry.Entry entry = registry.get(handle);
+		return entry == null ? null : (RoboReference<T>) entry.getReference();
+	}
+
+	/**
+	 * Returns the handle of a unit. Handles are small integers, dense over
+	 * the units currently registered.
+	 * 
+	 * @param id
+	 *            the id of the unit.
+	 * @return the handle, or -1 if there is no unit with the id.
+	 */
+	public int getHandle(String id) {
+		UnitRegistry.Entry entry = registry.get(id);
+		return entry == null ? UnitRegistry.NO_HANDLE : entry.getHandle();
 	}
 
 	private <T> RoboReference<T> createReference(RoboUnit<T> roboUnit) {
+		if (dispatchMode == DispatchMode.MAILBOX) {
+			return new MailboxReferenceImplementation<>(roboUnit);
+		}
 		return new ReferenceImplementation<>(roboUnit);
 	}
 
 	// NOTE(Marcus/Jan 24, 2017): We're only making sure that the reference is
 	// around, no more, no less.
+	@SuppressWarnings("unchecked")
 	public <T> RoboReference<T> getReference(RoboUnit<T> roboUnit) {
-		@SuppressWarnings("unchecked")
-		RoboReference<T> reference = (RoboReference<T>) referenceCache.get(roboUnit);
-		if (reference == null) {
-			reference = createReference(roboUnit);
-			referenceCache.put(roboUnit, reference);
+		UnitRegistry.Entry entry = registry.get(roboUnit.getId());
+		if (entry != null && entry.getUnit() == roboUnit) {
+			return (RoboReference<T>) entry.getReference();
+		}
+		// Not registered yet - the unit keeps the reference created when it
+		// was constructed
+		RoboReference<T> reference = roboUnit.getContext() == this ? roboUnit.internalGetReference() : null;
+		return reference != null ? reference : createReference(roboUnit);
+	}
+
+	private static void checkAccepted(RoboUnit<?> unit, Object message) {
+		try {
+			unit.getDispatcher().checkAccepted(unit, message);
+		} catch (UnsupportedMessageException e) {
+			unit.getMetrics().messageRejected();
+			throw e;
 		}
-		return reference;
+	}
+
+	/**
+	 * Creates the future handed out for an ask. Results which are themselves
+	 * stages are flattened, and the optional timeout cancels the task.
+	 */
+	private <T, R> CompletableFuture<RoboResult<T, R>> toReply(ReplyTask<RoboResult<T, R>> task, long timeout,
+			TimeUnit timeUnit) {
+		CompletableFuture<RoboResult<T, R>> reply = task.getCompletion().thenCompose(RoboSystem::flatten);
+		if (timeUnit != null && timeout > 0) {
+			ScheduledFuture<?> timer = timeoutExecutor.schedule(() -> reply.completeExceptionally(
+					new TimeoutException("No response within " + timeout + " " + timeUnit)), timeout, timeUnit);
+			reply.whenComplete((result, error) -> timer.cancel(false));
+		}
+		// If the reply is given up on, there is no need to process the message
+		reply.whenComplete((result, error) -> {
+			if (error != null) {
+				task.cancel(false);
+			}
+		});
+		return reply;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T, R> CompletionStage<RoboResult<T, R>> flatten(RoboResult<T, R> result) {
+		if (result != null && result.getResult() instanceof CompletionStage) {
+			CompletionStage<R> stage = (CompletionStage<R>) result.getResult();
+			return stage.thenApply(value -> new RoboResult<>(result.getSource(), value));
+		}
+		return CompletableFuture.completedFuture(result);
+	}
+
+	/**
+	 * Applies the reference related parts of the unit configuration, such as
+	 * the mailbox bounds. Called when the unit is initialized.
+	 */
+	<T> void configureReference(RoboUnit<T> roboUnit) {
+		RoboReference<T> reference = getReference(roboUnit);
+		Configuration configuration = roboUnit.getConfiguration();
+		if (reference instanceof MailboxReferenceImplementation) {
+			((MailboxReferenceImplementation<T>) reference).getMailbox().configure(configuration);
+		} else if (configuration != null && hasMailboxConfiguration(configuration)) {
+			SimpleLoggingUtil.error(getClass(), "The mailbox configuration of unit " + roboUnit.getId()
+					+ " is ignored, since the system is not running in " + DispatchMode.MAILBOX);
+		}
+		if (configuration == null || !isDedicatedThread(configuration)) {
+			return;
+		}
+		DedicatedThreadExecutor executor = new DedicatedThreadExecutor("Robo4J Unit " + roboUnit.getId() + " ",
+				getWaitStrategy(roboUnit, configuration), MessagePriority.count(), PriorityTask::laneOf);
+		// Initializing the unit again replaces the thread
+		shutdownDedicatedExecutor(dedicatedExecutors.put(roboUnit.getId(), executor));
+		if (reference instanceof MailboxReferenceImplementation) {
+			((MailboxReferenceImplementation<T>) reference).getMailbox().setExecutor(executor);
+		} else if (reference instanceof ReferenceImplementation) {
+			((ReferenceImplementation<T>) reference).setExecutor(executor);
+		}
+	}
+
+	private void shutdownDedicatedExecutor(DedicatedThreadExecutor executor) {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(TERMINATION_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			SimpleLoggingUtil.error(getClass(), "Was interrupted when shutting down.", e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static boolean hasMailboxConfiguration(Configuration configuration) {
+		Set<String> names = configuration.getValueNames();
+		return names.contains(RoboUnit.CONFIG_MAILBOX_CAPACITY) || names.contains(RoboUnit.CONFIG_MAILBOX_OVERFLOW)
+				|| names.contains(RoboUnit.CONFIG_MAILBOX_BLOCK_TIMEOUT);
+	}
+
+	/**
+	 * Also accepts the flag as a string, as given by descriptors which do not
+	 * declare the value as a boolean.
+	 */
+	private static boolean isDedicatedThread(Configuration configuration) {
+		Object value = configuration.getValue(RoboUnit.CONFIG_DEDICATED_THREAD, Boolean.FALSE);
+		return value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(String.valueOf(value).trim());
+	}
+
+	private static WaitStrategy getWaitStrategy(RoboUnit<?> roboUnit, Configuration configuration) {
+		String strategy = configuration.getString(RoboUnit.CONFIG_WAIT_STRATEGY, WaitStrategy.PARK.name());
+		try {
+			return WaitStrategy.valueOf(strategy.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			SimpleLoggingUtil.error(RoboSystem.class,
+					"Unknown wait strategy " + strategy + " for unit " + roboUnit.getId() + ". Using " + WaitStrategy.PARK);
+			return WaitStrategy.PARK;
+		}
+	}
+
+	/**
+	 * Returns the number of messages dropped by the mailbox of the unit, as a
+	 * result of its {@link OverflowPolicy}. Always 0 unless running in
+	 * {@link DispatchMode#MAILBOX}.
+	 * 
+	 * @param id
+	 *            the id of the unit.
+	 * @return the number of dropped messages, or -1 if there is no such unit.
+	 */
+	public long getDroppedMessageCount(String id) {
+		UnitRegistry.Entry entry = registry.get(id);
+		return entry == null ? -1 : entry.getUnit().getMetrics().getDroppedCount();
+	}
+
+	@Override
+	public UnitMetrics getMetrics(String id) {
+		UnitRegistry.Entry entry = registry.get(id);
+		return entry == null ? null : entry.getUnit().getMetrics();
+	}
+
+	/**
+	 * @return the tracer sampling the messages sent between the units.
+	 */
+	public MessageTracer getTracer() {
+		return tracer;
+	}
+
+	/**
+	 * @return the {@link DispatchMode} used by this system.
+	 */
+	public DispatchMode getDispatchMode() {
+		return dispatchMode;
 	}
 
 	/**
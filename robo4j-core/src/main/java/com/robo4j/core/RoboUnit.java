@@ -19,11 +19,15 @@
 
 package com.robo4j.core;
 
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.robo4j.core.configuration.Configuration;
+import com.robo4j.core.jfr.CoreEvents;
 
 /**
  * The core component. Subclass this to provide a messaging capable agent for a
@@ -33,11 +37,50 @@ import com.robo4j.core.configuration.Configuration;
  * @author Miroslav Wengner (@miragemiko)
  */
 public abstract class RoboUnit<T> implements RoboReference<T> {
+	/**
+	 * Optional integer configuration limiting the number of messages waiting
+	 * in the mailbox of the unit. Only used in {@link DispatchMode#MAILBOX}.
+	 * Unbounded if not set, or not positive.
+	 */
+	public static final String CONFIG_MAILBOX_CAPACITY = "mailboxCapacity";
+
+	/**
+	 * Optional string configuration with the name of the
+	 * {@link OverflowPolicy} used when the mailbox is full. Defaults to
+	 * {@link OverflowPolicy#BLOCK}.
+	 */
+	public static final String CONFIG_MAILBOX_OVERFLOW = "mailboxOverflow";
+
+	/**
+	 * Optional integer configuration with the maximum number of milliseconds
+	 * a sender waits for room in the mailbox under
+	 * {@link OverflowPolicy#BLOCK}, before the message is dropped. Defaults
+	 * to 100.
+	 */
+	public static final String CONFIG_MAILBOX_BLOCK_TIMEOUT = "mailboxBlockTimeout";
+
+	/**
+	 * Optional boolean configuration. If true, the messages to the unit are
+	 * processed on a thread of its own, rather than on the shared system
+	 * pool.
+	 */
+	public static final String CONFIG_DEDICATED_THREAD = "dedicatedThread";
+
+	/**
+	 * Optional string configuration with the name of the
+	 * {@link com.robo4j.core.concurrency.WaitStrategy} used by the dedicated
+	 * thread when idle. Defaults to
+	 * {@link com.robo4j.core.concurrency.WaitStrategy#PARK}.
+	 */
+	public static final String CONFIG_WAIT_STRATEGY = "waitStrategy";
+
 	private final RoboContext context;
 	private final String id;
 	private volatile LifecycleState state = LifecycleState.UNINITIALIZED;
 	private RoboReference<T> reference;
 	private Configuration configuration;
+	private final MessageDispatcher dispatcher;
+	private final UnitMetrics metrics = new UnitMetrics();
 
 	/**
 	 * Either provide id up front
@@ -45,6 +88,7 @@ public abstract class RoboUnit<T> implements RoboReference<T> {
 	public RoboUnit(RoboContext context, String id) {
 		this.context = context;
 		this.id = id;
+		this.dispatcher = MessageDispatcher.forUnit(getClass());
 		if (context instanceof RoboSystem) {
 			reference = ((RoboSystem) context).getReference(this);
 		}
@@ -53,6 +97,7 @@ public abstract class RoboUnit<T> implements RoboReference<T> {
 	/**
 	 * @return the {@link RoboSystem} unique identifier for this unit.
 	 */
+	@Override
 	public String getId() {
 		return id;
 	}
@@ -65,7 +110,9 @@ public abstract class RoboUnit<T> implements RoboReference<T> {
 	}
 
 	/**
-	 * Should be overridden in subclasses to define the behaviour of the unit.
+	 * Defines the behaviour of the unit. The default implementation routes
+	 * the message to the {@link MessageHandler} of its type. Either declare
+	 * handlers, or override this method in subclasses.
 	 * 
 	 * @param message
 	 *            the message received by this unit.
@@ -73,6 +120,73 @@ public abstract class RoboUnit<T> implements RoboReference<T> {
 	 * @return the unit specific result from the call.
 	 */
 	public <R> RoboResult<T, R> onMessage(Object message) {
+		if (dispatcher.isEmpty()) {
+			return null;
+		}
+		try {
+			return dispatcher.dispatch(this, message);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new UndeclaredThrowableException(t, "Unit " + id + " failed to handle " + message);
+		}
+	}
+
+	/**
+	 * Called with a burst of queued messages when the system is running in
+	 * {@link DispatchMode#MAILBOX} and {@link #getMaxBatchSize()} is larger
+	 * than one. Also called with the scheduled messages fused by a
+	 * {@link com.robo4j.core.scheduler.DefaultScheduler} with a fusion window.
+	 * The list is only valid for the duration of the call, and must not be
+	 * modified or kept.
+	 * 
+	 * <p>
+	 * Default implementation calls {@link #onMessage(Object)} for every
+	 * message, in order.
+	 * 
+	 * @param messages
+	 *            the messages received by this unit, in the order they were
+	 *            sent.
+	 */
+	public void onMessages(List<Object> messages) {
+		for (Object message : messages) {
+			onMessage(message);
+		}
+	}
+
+	/**
+	 * Override in subclasses which benefit from processing several messages at
+	 * once, for example to do a single device write for a burst of messages.
+	 * Only one way messages (see {@link #sendOneWay(Object)}) are batched.
+	 * 
+	 * @return the maximum number of messages to hand to
+	 *         {@link #onMessages(List)} in one call. The default, 1, disables
+	 *         batching.
+	 */
+	public int getMaxBatchSize() {
+		return 1;
+	}
+
+	/**
+	 * Override in subclasses receiving "set state" messages, where only the
+	 * most recent one matters. When a one way message with a key is sent
+	 * while a message with the same key is still waiting in the mailbox, the
+	 * waiting message is replaced in place, rather than the new one being
+	 * appended. A more urgent message with the same key withdraws the waiting
+	 * one. Messages without a key are never reordered with respect to keyed
+	 * messages of the same priority.
+	 * 
+	 * <p>
+	 * Only used in {@link DispatchMode#MAILBOX}. Systems built from a
+	 * descriptor get that mode through
+	 * {@link RoboBuilder#setDispatchMode(DispatchMode)}.
+	 * 
+	 * @param message
+	 *            the message about to be queued.
+	 * @return the key identifying the state set by the message, or null if the
+	 *         message should always be delivered. The default returns null.
+	 */
+	public Object getCoalescingKey(Object message) {
 		return null;
 	}
 
@@ -86,6 +200,9 @@ public abstract class RoboUnit<T> implements RoboReference<T> {
 	 */
 	public void initialize(Configuration configuration) throws ConfigurationException {
 		setConfiguration(configuration);
+		if (context instanceof RoboSystem) {
+			((RoboSystem) context).configureReference(this);
+		}
 		onInitialization(configuration);
 		setState(LifecycleState.INITIALIZED);
 	}
@@ -143,13 +260,16 @@ public abstract class RoboUnit<T> implements RoboReference<T> {
 
 	/**
 	 * It is considered good form to return the types that you can respond to.
-	 * This method should be overriden in subclasses. Note that it is allowed
-	 * for an agent to return the empty set. Returning null is not allowed.
+	 * By default, these are the types with a {@link MessageHandler}. Units
+	 * overriding {@link #onMessage(Object)} should also override this method,
+	 * so that messages of other types are rejected by the sender. Note that it
+	 * is allowed for an agent to return the empty set, which accepts any
+	 * message. Returning null is not allowed.
 	 * 
 	 * @return the message types accepted by this unit.
 	 */
 	public Collection<Class<?>> getAcceptedMessageTypes() {
-		return Collections.emptySet();
+		return dispatcher.getMessageTypes();
 	}
 
 	/**
@@ -161,9 +281,33 @@ public abstract class RoboUnit<T> implements RoboReference<T> {
 	 * @see LifecycleState for allowable transitions.
 	 */
 	public void setState(LifecycleState state) {
+		if (this.state != state) {
+			metrics.stateChanged(state);
+			CoreEvents.lifecycleChanged(id, this.state, state);
+		}
 		this.state = state;
 	}
 
+	/**
+	 * @return the live runtime metrics of this unit.
+	 */
+	public UnitMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Calls {@link #onMessage(Object)}, recording the time spent in the
+	 * handler.
+	 */
+	<R> RoboResult<T, R> handle(Object message) {
+		long start = System.nanoTime();
+		try {
+			return onMessage(message);
+		} finally {
+			metrics.handled(start);
+		}
+	}
+
 	@Override
 	public Configuration getConfiguration() {
 		return configuration;
@@ -197,6 +341,40 @@ public abstract class RoboUnit<T> implements RoboReference<T> {
 		return reference.sendMessage(message);
 	}
 
+	/**
+	 * Sends a message to this unit, discarding any result.
+	 */
+	@Override
+	public void sendOneWay(Object message) {
+		reference.sendOneWay(message);
+	}
+
+	/**
+	 * Sends several messages to this unit, discarding any results.
+	 */
+	@Override
+	public void sendBatch(List<?> messages) {
+		reference.sendBatch(messages);
+	}
+
+	/**
+	 * Sends a message to this unit, returning a stage completed with the
+	 * result.
+	 */
+	@Override
+	public <R> CompletionStage<RoboResult<T, R>> ask(Object message) {
+		return reference.ask(message);
+	}
+
+	/**
+	 * Sends a message to this unit, returning a stage completed with the
+	 * result, or with a timeout.
+	 */
+	@Override
+	public <R> CompletionStage<RoboResult<T, R>> ask(Object message, long timeout, TimeUnit unit) {
+		return reference.ask(message, timeout, unit);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -208,15 +386,18 @@ public abstract class RoboUnit<T> implements RoboReference<T> {
 	}
 
 	/**
-	 * @return a RoboReference. Internal use only.
+	 * @return the RoboReference created for this unit by its system, or null
+	 *         while the unit is being constructed. Internal use only.
 	 */
 	RoboReference<T> internalGetReference() {
-		// NOTE(Marcus/Jan 27, 2017): Can we avoid this?
-		if (reference == null) {
-			return getContext().getReference(getId());
-		} else {
-			return reference;
-		}
+		return reference;
+	}
+
+	/**
+	 * @return the dispatch table of the unit. Internal use only.
+	 */
+	MessageDispatcher getDispatcher() {
+		return dispatcher;
 	}
 
 	private void setConfiguration(Configuration configuration) {
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.robo4j.core.RoboBuilder.UnitDefinition;
+import com.robo4j.core.configuration.BinaryConfigurationFactory;
+import com.robo4j.core.logging.SimpleLoggingUtil;
+
+/**
+ * Binary snapshot of the unit definitions of a system descriptor, so that
+ * the descriptor does not need to be parsed again on every start. Used by
+ * {@link RoboBuilder#add(java.io.InputStream, Path)}.
+ *
+ * <p>
+ * The snapshot holds a magic number, a format version, the SHA-256 hash of
+ * the descriptor it was made from, and then the id, class name and typed
+ * configuration of every unit.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+final class SystemSnapshot {
+	private static final int MAGIC = 0x52344A53; // R4JS
+	private static final short VERSION = 1;
+	private static final String HASH_ALGORITHM = "SHA-256";
+	// Every unit takes at least its id and class name length, and a flag
+	private static final int MIN_UNIT_SIZE = 5;
+
+	private SystemSnapshot() {
+	}
+
+	static byte[] hash(byte[] source) {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM).digest(source);
+		} catch (NoSuchAlgorithmException e) {
+			// Required to be present in every Java platform
+			throw new IllegalStateException(HASH_ALGORITHM + " not available", e);
+		}
+	}
+
+	/**
+	 * Reads the definitions from a snapshot.
+	 * 
+	 * @param snapshot
+	 *            the snapshot file.
+	 * @param hash
+	 *            the hash of the current descriptor.
+	 * @return the definitions, or null if there is no usable snapshot for the
+	 *         descriptor. Broken snapshots are logged and ignored.
+	 */
+	static List<UnitDefinition> read(Path snapshot, byte[] hash) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+			if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+				SimpleLoggingUtil.debug(SystemSnapshot.class, "Ignoring unknown snapshot format in " + snapshot);
+				return null;
+			}
+			byte[] snapshotHash = new byte[in.readUnsignedByte()];
+			in.readFully(snapshotHash);
+			if (!MessageDigest.isEqual(hash, snapshotHash)) {
+				SimpleLoggingUtil.debug(SystemSnapshot.class, "Snapshot " + snapshot + " is stale");
+				return null;
+			}
+			int count = in.readInt();
+			if (count < 0 || count > Files.size(snapshot) / MIN_UNIT_SIZE) {
+				throw new IOException("Invalid unit count " + count);
+			}
+			List<UnitDefinition> definitions = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				String id = in.readUTF();
+				String className = in.readUTF();
+				definitions.add(new UnitDefinition(id, className,
+						in.readBoolean() ? BinaryConfigurationFactory.read(in) : null));
+			}
+			if (in.read() != -1) {
+				throw new IOException("Unexpected data after the last unit");
+			}
+			return definitions;
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException | RuntimeException e) {
+			SimpleLoggingUtil.error(SystemSnapshot.class, "Could not read the snapshot " + snapshot, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a snapshot. The previous snapshot is replaced in one step, so a
+	 * failed write never leaves a broken snapshot behind. Failures are
+	 * logged, since the snapshot is only an optimization.
+	 * 
+	 * @param snapshot
+	 *            the snapshot file.
+	 * @param hash
+	 *            the hash of the descriptor the definitions were read from.
+	 * @param definitions
+	 *            the definitions.
+	 */
+	static void write(Path snapshot, byte[] hash, List<UnitDefinition> definitions) {
+		Path directory = snapshot.toAbsolutePath().getParent();
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(directory, snapshot.getFileName().toString(), ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeShort(VERSION);
+				out.writeByte(hash.length);
+				out.write(hash);
+				out.writeInt(definitions.size());
+				for (UnitDefinition definition : definitions) {
+					out.writeUTF(definition.getId());
+					out.writeUTF(definition.getClassName());
+					out.writeBoolean(definition.getConfiguration() != null);
+					if (definition.getConfiguration() != null) {
+						BinaryConfigurationFactory.write(out, definition.getConfiguration());
+					}
+				}
+			}
+			try {
+				Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			SimpleLoggingUtil.error(SystemSnapshot.class, "Could not write the snapshot " + snapshot, e);
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException ignore) {
+					// Nothing more to do
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregated latencies of the traced messages following one chain of units.
+ * See {@link MessageTracer}.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public final class TraceChainStatistics {
+	private final List<String> units;
+	private final long[] totalQueueNanos;
+	private final long[] maxQueueNanos;
+	private final long[] totalHandlerNanos;
+	private final long[] maxHandlerNanos;
+	private long count;
+	private long dropped;
+	private long totalLatencyNanos;
+	private long maxLatencyNanos;
+
+	TraceChainStatistics(List<String> units) {
+		this.units = Collections.unmodifiableList(units);
+		totalQueueNanos = new long[units.size()];
+		maxQueueNanos = new long[units.size()];
+		totalHandlerNanos = new long[units.size()];
+		maxHandlerNanos = new long[units.size()];
+	}
+
+	synchronized void record(List<TraceHop> hops, long latencyNanos, int droppedHops) {
+		count++;
+		dropped += droppedHops;
+		totalLatencyNanos += latencyNanos;
+		maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+		for (int i = 0; i < hops.size(); i++) {
+			TraceHop hop = hops.get(i);
+			totalQueueNanos[i] += hop.getQueueNanos();
+			maxQueueNanos[i] = Math.max(maxQueueNanos[i], hop.getQueueNanos());
+			totalHandlerNanos[i] += hop.getHandlerNanos();
+			maxHandlerNanos[i] = Math.max(maxHandlerNanos[i], hop.getHandlerNanos());
+		}
+	}
+
+	/**
+	 * @return the ids of the units of the chain, in the order reached.
+	 */
+	public List<String> getUnits() {
+		return units;
+	}
+
+	/**
+	 * @return the number of traces recorded for the chain.
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of traced messages of the chain which were dropped
+	 *         before reaching their unit.
+	 */
+	public synchronized long getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * @return the mean time from the first message being sent, to the last
+	 *         handler in the chain finishing.
+	 */
+	public synchronized long getMeanLatencyNanos() {
+		return count == 0 ? 0 : totalLatencyNanos / count;
+	}
+
+	/**
+	 * @return the max time from the first message being sent, to the last
+	 *         handler in the chain finishing.
+	 */
+	public synchronized long getMaxLatencyNanos() {
+		return maxLatencyNanos;
+	}
+
+	/**
+	 * @param hop
+	 *            the index of the unit in the chain.
+	 * @return the mean time the messages were queued for the unit.
+	 */
+	public synchronized long getMeanQueueNanos(int hop) {
+		return count == 0 ? 0 : totalQueueNanos[hop] / count;
+	}
+
+	/**
+	 * @param hop
+	 *            the index of the unit in the chain.
+	 * @return the max time a message was queued for the unit.
+	 */
+	public synchronized long getMaxQueueNanos(int hop) {
+		return maxQueueNanos[hop];
+	}
+
+	/**
+	 * @param hop
+	 *            the index of the unit in the chain.
+	 * @return the mean time spent in the handler of the unit.
+	 */
+	public synchronized long getMeanHandlerNanos(int hop) {
+		return count == 0 ? 0 : totalHandlerNanos[hop] / count;
+	}
+
+	/**
+	 * @param hop
+	 *            the index of the unit in the chain.
+	 * @return the max time spent in the handler of the unit.
+	 */
+	public synchronized long getMaxHandlerNanos(int hop) {
+		return maxHandlerNanos[hop];
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.join(" -> ", units)).append(": ").append(count).append(" traces");
+		if (dropped > 0) {
+			builder.append(", ").append(dropped).append(" dropped");
+		}
+		builder.append(", latency mean ").append(format(getMeanLatencyNanos())).append(" max ")
+				.append(format(maxLatencyNanos));
+		for (int i = 0; i < units.size(); i++) {
+			builder.append("\n  ").append(units.get(i)).append(": queued mean ").append(format(getMeanQueueNanos(i)))
+					.append(" max ").append(format(maxQueueNanos[i])).append(", handler mean ")
+					.append(format(getMeanHandlerNanos(i))).append(" max ").append(format(maxHandlerNanos[i]));
+		}
+		return builder.toString();
+	}
+
+	private static String format(long nanos) {
+		return String.format("%.3f ms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+/**
+ * The timings of one traced message, from being enqueued for a unit to the
+ * unit having handled it.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+final class TraceHop {
+	private final MessageTrace trace;
+	private final String unitId;
+	private final long enqueueNanos;
+	private volatile long dequeueNanos;
+	private volatile long handlerNanos;
+	private volatile boolean dropped;
+
+	TraceHop(MessageTrace trace, String unitId) {
+		this.trace = trace;
+		this.unitId = unitId;
+		this.enqueueNanos = System.nanoTime();
+	}
+
+	/**
+	 * Runs the delivery of the message, timing it. Messages sent by the
+	 * handler join the trace.
+	 */
+	void run(Runnable delivery) {
+		dequeueNanos = System.nanoTime();
+		TraceHop previous = MessageTracer.enter(this);
+		try {
+			delivery.run();
+		} finally {
+			handlerNanos = System.nanoTime() - dequeueNanos;
+			MessageTracer.exit(previous);
+			trace.hopDone(this);
+		}
+	}
+
+	/**
+	 * Called instead of {@link #run(Runnable)} if the message was never
+	 * delivered.
+	 */
+	void dropped() {
+		dropped = true;
+		trace.hopDone(this);
+	}
+
+	MessageTrace getTrace() {
+		return trace;
+	}
+
+	String getUnitId() {
+		return unitId;
+	}
+
+	long getEnqueueNanos() {
+		return enqueueNanos;
+	}
+
+	long getQueueNanos() {
+		return dequeueNanos - enqueueNanos;
+	}
+
+	long getHandlerNanos() {
+		return handlerNanos;
+	}
+
+	long getEndNanos() {
+		return dequeueNanos + handlerNanos;
+	}
+
+	boolean isDropped() {
+		return dropped;
+	}
+}
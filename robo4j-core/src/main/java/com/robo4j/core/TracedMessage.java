@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+/**
+ * A message queued together with its {@link TraceHop} and the time it was
+ * enqueued. Only messages sampled by the tracer, or enqueued while JFR
+ * dispatch events are recorded, are wrapped.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+final class TracedMessage {
+	private final Object message;
+	private final TraceHop hop;
+	private final long enqueueNanos;
+
+	/**
+	 * @param hop
+	 *            the hop, or null if the message is not traced.
+	 */
+	TracedMessage(Object message, TraceHop hop, long enqueueNanos) {
+		this.message = message;
+		this.hop = hop;
+		this.enqueueNanos = enqueueNanos;
+	}
+
+	Object getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the hop, or null if the message is not traced.
+	 */
+	TraceHop getHop() {
+		return hop;
+	}
+
+	long getEnqueueNanos() {
+		return enqueueNanos;
+	}
+
+	/**
+	 * Call if the message is never delivered.
+	 */
+	void dropped() {
+		if (hop != null) {
+			hop.dropped();
+		}
+	}
+
+	/**
+	 * @return the message, unwrapped if traced.
+	 */
+	static Object unwrap(Object queued) {
+		return queued instanceof TracedMessage ? ((TracedMessage) queued).message : queued;
+	}
+}
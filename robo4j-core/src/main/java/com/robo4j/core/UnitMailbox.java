@@ -0,0 +1,679 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import com.robo4j.core.configuration.Configuration;
+import com.robo4j.core.jfr.CoreEvents;
+import com.robo4j.core.logging.SimpleLoggingUtil;
+
+/**
+ * The message queue of a single unit, used when the {@link RoboSystem} is
+ * running in {@link DispatchMode#MAILBOX}.
+ *
+ * <p>
+ * Senders only append to a lock free queue. The first sender finding the
+ * mailbox idle schedules it with the executor, and the mailbox is then
+ * drained by that single thread until empty (or until the throughput limit is
+ * reached, at which point it is rescheduled to give other units a chance).
+ * This guarantees that messages are delivered to the unit one at a time, in
+ * the order they were enqueued.
+ *
+ * <p>
+ * Every {@link MessagePriority} has its own lane, and lanes are drained in
+ * strict priority order, so ordering is only guaranteed between messages of
+ * the same priority. The mailbox is scheduled with the priority of the most
+ * urgent message waiting. If a more urgent message arrives while the mailbox
+ * is waiting for a thread, an additional activation with the higher priority
+ * is submitted - whichever activation runs first drains the mailbox, and the
+ * others find it busy or empty and return.
+ *
+ * <p>
+ * A mailbox can be bounded (see {@link RoboUnit#CONFIG_MAILBOX_CAPACITY}),
+ * in which case the {@link OverflowPolicy} decides what happens when it is
+ * full. Dropped messages are counted, and dropped requests are cancelled.
+ *
+ * <p>
+ * Messages for which the unit declares a
+ * {@link RoboUnit#getCoalescingKey(Object) coalescing key} are queued in a
+ * holder, which later messages with the same key overwrite for as long as it
+ * is waiting. A message without a key seals the holders in its lane, so that
+ * a newer value never jumps ahead of it.
+ *
+ * <p>
+ * The mailbox reports its depth, drops and handler times to the
+ * {@link UnitMetrics} of the unit.
+ *
+ * <p>
+ * Messages sampled by the {@link MessageTracer} are queued wrapped in a
+ * {@link TracedMessage}, and timed when delivered. So are all messages while
+ * JFR dispatch events are recorded, see {@link CoreEvents}.
+ *
+ * <p>
+ * Units declaring a {@link RoboUnit#getMaxBatchSize()} larger than one get
+ * their one way messages handed over in bursts through
+ * {@link RoboUnit#onMessages(List)}.
+ *
+ * <p>
+ * Messages sent with {@link RoboReference#sendBatch(List)} are queued as one
+ * entry, and are delivered back to back when it is taken.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+final class UnitMailbox<T> {
+	static final int DEFAULT_THROUGHPUT = 32;
+	private static final int NOT_SCHEDULED = Integer.MAX_VALUE;
+	private static final int SPIN_TRIES = 64;
+	private static final int YIELD_TRIES = 128;
+	private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	private static final int DEFAULT_BLOCK_TIMEOUT_MILLIS = 100;
+
+	private final RoboUnit<T> unit;
+	private final MessageTracer tracer;
+	private volatile Executor executor;
+	private final int throughput;
+	private final Queue<Object>[] lanes;
+	// Ordinal of the most urgent pending activation, or NOT_SCHEDULED
+	private final AtomicInteger scheduledPriority = new AtomicInteger(NOT_SCHEDULED);
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicBoolean dropReported = new AtomicBoolean();
+	private volatile int capacity;
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	private volatile long blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BLOCK_TIMEOUT_MILLIS);
+	private volatile Thread drainingThread;
+	// The holders still accepting newer values, by coalescing key
+	private final ConcurrentHashMap<Object, Coalesced> coalescing = new ConcurrentHashMap<>();
+	// Only touched by the draining thread
+	private final List<Object> batch = new ArrayList<>();
+	private final List<Object> batchView = Collections.unmodifiableList(batch);
+	// When the first message of the batch was enqueued, or 0 if not known
+	private long batchEnqueueNanos;
+
+	private final class Activation extends PriorityTask {
+		Activation(MessagePriority priority) {
+			super(priority);
+		}
+
+		@Override
+		public void run() {
+			drainMailbox();
+		}
+	}
+
+	/**
+	 * Queued for the messages of {@link UnitMailbox#enqueueBatch(List)}.
+	 */
+	private static final class Batch {
+		private final List<Object> messages;
+
+		Batch(List<Object> messages) {
+			this.messages = messages;
+		}
+	}
+
+	/**
+	 * Queued in place of a message with a coalescing key.
+	 */
+	private static final class Coalesced {
+		private static final Object TAKEN = new Object();
+		private final Object key;
+		private final int lane;
+		private final AtomicReference<Object> value;
+
+		Coalesced(Object key, int lane, Object message) {
+			this.key = key;
+			this.lane = lane;
+			this.value = new AtomicReference<>(message);
+		}
+
+		/**
+		 * @return false if the holder has already been taken.
+		 */
+		boolean replace(Object message) {
+			for (;;) {
+				Object current = value.get();
+				if (current == TAKEN) {
+					return false;
+				}
+				if (value.compareAndSet(current, message)) {
+					if (current instanceof TracedMessage) {
+						((TracedMessage) current).dropped();
+					}
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * @return the latest value, or null if already taken.
+		 */
+		Object take() {
+			Object current = value.getAndSet(TAKEN);
+			return current == TAKEN ? null : current;
+		}
+
+		Object peek() {
+			Object current = value.get();
+			return current == TAKEN ? null : current;
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	UnitMailbox(RoboUnit<T> unit, Executor executor, int throughput, MessageTracer tracer) {
+		this.unit = unit;
+		this.tracer = tracer;
+		this.executor = executor;
+		this.throughput = throughput;
+		lanes = new Queue[MessagePriority.count()];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new ConcurrentLinkedQueue<>();
+		}
+		unit.getMetrics().setMailboxDepth(this::size);
+	}
+
+	/**
+	 * Sets up the bounds of the mailbox from the unit configuration.
+	 * 
+	 * @param configuration
+	 *            the unit configuration, may be null.
+	 */
+	void configure(Configuration configuration) {
+		if (configuration == null) {
+			return;
+		}
+		capacity = configuration.getInteger(RoboUnit.CONFIG_MAILBOX_CAPACITY, 0);
+		blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+				Math.max(0, configuration.getInteger(RoboUnit.CONFIG_MAILBOX_BLOCK_TIMEOUT, DEFAULT_BLOCK_TIMEOUT_MILLIS)));
+		String policy = configuration.getString(RoboUnit.CONFIG_MAILBOX_OVERFLOW, null);
+		if (policy != null) {
+			try {
+				overflowPolicy = OverflowPolicy.valueOf(policy.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				SimpleLoggingUtil.error(getClass(), "Unknown mailbox overflow policy " + policy + " for unit "
+						+ unit.getId() + ". Using " + overflowPolicy);
+			}
+		}
+	}
+
+	/**
+	 * Changes the executor draining the mailbox, for example to pin the unit
+	 * to a dedicated thread. Activations already submitted still run on the
+	 * old executor.
+	 */
+	void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Appends the message to the lane of its priority, and schedules the
+	 * mailbox for draining if it is not already scheduled with at least that
+	 * priority.
+	 */
+	void enqueue(Object message) {
+		enqueue(message, MessagePriority.of(message));
+	}
+
+	/**
+	 * Appends a request/response message.
+	 */
+	void enqueue(ReplyTask<?> task) {
+		enqueue(task, task.getPriority());
+	}
+
+	/**
+	 * Appends the messages as a single entry, to the lane of the most urgent
+	 * of them. The entry counts as one against the capacity, but all its
+	 * messages are counted if it is dropped.
+	 */
+	void enqueueBatch(List<?> messages) {
+		if (messages.isEmpty()) {
+			return;
+		}
+		MessagePriority priority = MessagePriority.of(messages.get(0));
+		for (Object message : messages) {
+			MessagePriority candidate = MessagePriority.of(message);
+			if (candidate.ordinal() < priority.ordinal()) {
+				priority = candidate;
+			}
+		}
+		enqueue(new Batch(new ArrayList<>(messages)), priority);
+	}
+
+	private void enqueue(Object message, MessagePriority priority) {
+		CoreEvents.messageEnqueued(unit.getId(), messageClassOf(message), priority);
+		TraceHop hop = tracer.startHop(unit);
+		Object queued = hop != null || CoreEvents.isDispatchEnabled()
+				? new TracedMessage(message, hop, System.nanoTime()) : message;
+		Object key = message instanceof ReplyTask || message instanceof Batch ? null : unit.getCoalescingKey(message);
+		if (key != null) {
+			enqueueCoalesced(key, message, queued, priority);
+			return;
+		}
+		if (!coalescing.isEmpty()) {
+			int ordinal = priority.ordinal();
+			coalescing.values().removeIf(pending -> pending.lane == ordinal);
+		}
+		if (!reserve(message, priority)) {
+			if (hop != null) {
+				hop.dropped();
+			}
+			return;
+		}
+		lanes[priority.ordinal()].offer(queued);
+		schedule(priority);
+	}
+
+	/**
+	 * @param queued
+	 *            the message to queue, which may be the message wrapped.
+	 */
+	private void enqueueCoalesced(Object key, Object message, Object queued, MessagePriority priority) {
+		int ordinal = priority.ordinal();
+		for (;;) {
+			Coalesced pending = coalescing.get(key);
+			if (pending == null) {
+				Coalesced entry = new Coalesced(key, ordinal, queued);
+				if (coalescing.putIfAbsent(key, entry) != null) {
+					continue;
+				}
+				if (!reserve(message, priority)) {
+					coalescing.remove(key, entry);
+					Object latest = entry.take();
+					if (latest != null) {
+						drop(latest);
+					}
+					return;
+				}
+				lanes[ordinal].offer(entry);
+				schedule(priority);
+				return;
+			}
+			if (pending.lane == ordinal && pending.replace(queued)) {
+				return;
+			}
+			if (pending.lane != ordinal) {
+				// The older value must not be applied after this one
+				Object withdrawn = pending.take();
+				if (withdrawn instanceof TracedMessage) {
+					((TracedMessage) withdrawn).dropped();
+				}
+			}
+			coalescing.remove(key, pending);
+		}
+	}
+
+	/**
+	 * @return the number of messages currently waiting in the mailbox.
+	 */
+	int size() {
+		return size.get();
+	}
+
+	/**
+	 * Makes room for the message, according to the overflow policy.
+	 * 
+	 * @return true if the message should be enqueued, false if it was
+	 *         dropped.
+	 */
+	private boolean reserve(Object message, MessagePriority priority) {
+		int max = capacity;
+		if (max <= 0) {
+			size.incrementAndGet();
+			return true;
+		}
+		long deadline = 0;
+		for (int tries = 0;; tries++) {
+			int current = size.get();
+			if (current < max) {
+				if (size.compareAndSet(current, current + 1)) {
+					return true;
+				}
+				continue;
+			}
+			switch (overflowPolicy) {
+			case DROP_NEWEST:
+				drop(message);
+				return false;
+			case DROP_OLDEST:
+				if (!dropOldest(priority)) {
+					drop(message);
+					return false;
+				}
+				break;
+			case COALESCE_LATEST:
+				if (!dropSameType(message, priority)) {
+					drop(message);
+					return false;
+				}
+				break;
+			case BLOCK:
+			default:
+				if (Thread.currentThread() == drainingThread) {
+					// Blocking on our own mailbox would dead lock
+					size.incrementAndGet();
+					return true;
+				}
+				if (tries == 0) {
+					deadline = System.nanoTime() + blockTimeoutNanos;
+				}
+				// Never hold a sender for long - it may be a system thread
+				// needed to drain this very mailbox
+				if (Thread.currentThread().isInterrupted() || deadline - System.nanoTime() <= 0) {
+					drop(message);
+					return false;
+				}
+				backOff(tries);
+				break;
+			}
+		}
+	}
+
+	private static void backOff(int tries) {
+		if (tries < SPIN_TRIES) {
+			return;
+		} else if (tries < YIELD_TRIES) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+		}
+	}
+
+	/**
+	 * Drops the oldest message from the least urgent lane not more urgent
+	 * than the priority.
+	 */
+	private boolean dropOldest(MessagePriority priority) {
+		for (int i = lanes.length - 1; i >= priority.ordinal(); i--) {
+			Object oldest = lanes[i].poll();
+			if (oldest != null) {
+				size.decrementAndGet();
+				oldest = takeQueued(oldest);
+				if (oldest != null) {
+					drop(oldest);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drops the queued messages of the same type as the message, in the lane
+	 * of the message.
+	 */
+	private boolean dropSameType(Object message, MessagePriority priority) {
+		if (message instanceof ReplyTask || message instanceof Batch) {
+			return false;
+		}
+		boolean droppedAny = false;
+		Queue<Object> lane = lanes[priority.ordinal()];
+		for (Object queued : lane) {
+			Object queuedMessage = TracedMessage
+					.unwrap(queued instanceof Coalesced ? ((Coalesced) queued).peek() : queued);
+			if (queuedMessage != null && queuedMessage.getClass() == message.getClass() && lane.remove(queued)) {
+				size.decrementAndGet();
+				queuedMessage = takeQueued(queued);
+				if (queuedMessage != null) {
+					drop(queuedMessage);
+				}
+				droppedAny = true;
+			}
+		}
+		return droppedAny;
+	}
+
+	/**
+	 * Call when removing an object from a lane.
+	 * 
+	 * @return the message, or null if it was a holder already withdrawn.
+	 */
+	private Object takeQueued(Object queued) {
+		if (queued instanceof Coalesced) {
+			Coalesced entry = (Coalesced) queued;
+			coalescing.remove(entry.key, entry);
+			return entry.take();
+		}
+		return queued;
+	}
+
+	private void drop(Object message) {
+		if (message instanceof TracedMessage) {
+			((TracedMessage) message).dropped();
+			message = ((TracedMessage) message).getMessage();
+		}
+		int count = message instanceof Batch ? ((Batch) message).messages.size() : 1;
+		for (int i = 0; i < count; i++) {
+			unit.getMetrics().messageDropped();
+		}
+		if (message instanceof ReplyTask) {
+			((ReplyTask<?>) message).cancel(false);
+		}
+		if (dropReported.compareAndSet(false, true)) {
+			SimpleLoggingUtil.error(getClass(), "Mailbox of unit " + unit.getId() + " is full (capacity " + capacity
+					+ "). Dropping messages according to policy " + overflowPolicy + ".");
+		}
+	}
+
+	private void drainMailbox() {
+		if (!running.compareAndSet(false, true)) {
+			// The thread already draining will pick up our messages
+			return;
+		}
+		drainingThread = Thread.currentThread();
+		try {
+			int batchSize = unit.getMaxBatchSize();
+			if (batchSize > 1) {
+				drainBatched(batchSize);
+			} else {
+				drain();
+			}
+		} finally {
+			drainingThread = null;
+			running.set(false);
+			scheduledPriority.set(NOT_SCHEDULED);
+			// Someone may have enqueued after the last poll, but before the
+			// mailbox was marked as not scheduled - they will not have
+			// scheduled us.
+			MessagePriority pending = getMostUrgentPending();
+			if (pending != null) {
+				schedule(pending);
+			}
+		}
+	}
+
+	private Object poll() {
+		for (Queue<Object> lane : lanes) {
+			Object queued;
+			while ((queued = lane.poll()) != null) {
+				size.decrementAndGet();
+				Object message = takeQueued(queued);
+				if (message != null) {
+					return message;
+				}
+			}
+		}
+		return null;
+	}
+
+	private MessagePriority getMostUrgentPending() {
+		for (int i = 0; i < lanes.length; i++) {
+			if (!lanes[i].isEmpty()) {
+				return MessagePriority.fromOrdinal(i);
+			}
+		}
+		return null;
+	}
+
+	private void drain() {
+		for (int i = 0; i < throughput; i++) {
+			Object message = poll();
+			if (message == null) {
+				break;
+			}
+			deliver(message);
+		}
+	}
+
+	private void drainBatched(int batchSize) {
+		int limit = Math.max(throughput, batchSize);
+		try {
+			for (int i = 0; i < limit; i++) {
+				Object message = poll();
+				if (message == null) {
+					break;
+				}
+				if (isDeliveredAlone(message)) {
+					// Keep the ordering - everything sent before the request
+					// must be processed before it. Traced messages are timed
+					// one by one.
+					flushBatch();
+					deliver(message);
+				} else {
+					if (batch.isEmpty()) {
+						batchEnqueueNanos = message instanceof TracedMessage
+								? ((TracedMessage) message).getEnqueueNanos() : 0;
+					}
+					batch.add(TracedMessage.unwrap(message));
+					if (batch.size() >= batchSize) {
+						flushBatch();
+					}
+				}
+			}
+		} finally {
+			flushBatch();
+		}
+	}
+
+	private static boolean isDeliveredAlone(Object message) {
+		if (message instanceof TracedMessage) {
+			TracedMessage stamped = (TracedMessage) message;
+			return stamped.getHop() != null || isDeliveredAlone(stamped.getMessage());
+		}
+		return message instanceof ReplyTask || message instanceof Batch;
+	}
+
+	private static Class<?> messageClassOf(Object message) {
+		return message instanceof Batch ? ((Batch) message).messages.get(0).getClass()
+				: ReplyTask.messageClassOf(message);
+	}
+
+	private void flushBatch() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		Object event = batchEnqueueNanos == 0 ? null
+				: CoreEvents.dispatchStarted(unit.getId(), batch.get(0).getClass(), batchEnqueueNanos, batch.size());
+		long start = System.nanoTime();
+		try {
+			unit.onMessages(batchView);
+		} catch (RuntimeException e) {
+			SimpleLoggingUtil.error(getClass(), "Unit " + unit.getId() + " failed to process a batch of " + batch.size()
+					+ " messages", e);
+		} finally {
+			unit.getMetrics().handledBatch(start, batch.size());
+			CoreEvents.dispatchEnded(event);
+			batch.clear();
+		}
+	}
+
+	private void schedule(MessagePriority priority) {
+		int ordinal = priority.ordinal();
+		for (;;) {
+			int current = scheduledPriority.get();
+			if (current <= ordinal) {
+				return;
+			}
+			if (scheduledPriority.compareAndSet(current, ordinal)) {
+				try {
+					executor.execute(new Activation(priority));
+				} catch (RejectedExecutionException e) {
+					scheduledPriority.compareAndSet(ordinal, current);
+					throw e;
+				}
+				return;
+			}
+		}
+	}
+
+	private void deliver(Object message) {
+		if (message instanceof TracedMessage) {
+			TracedMessage traced = (TracedMessage) message;
+			Object event = CoreEvents.dispatchStarted(unit.getId(), messageClassOf(traced.getMessage()),
+					traced.getEnqueueNanos(), 1);
+			try {
+				if (traced.getHop() == null) {
+					deliver(traced.getMessage());
+				} else {
+					traced.getHop().run(() -> deliver(traced.getMessage()));
+				}
+			} finally {
+				CoreEvents.dispatchEnded(event);
+			}
+			return;
+		}
+		if (message instanceof ReplyTask) {
+			((ReplyTask<?>) message).run();
+			return;
+		}
+		if (message instanceof Batch) {
+			deliverBatch(((Batch) message).messages);
+			return;
+		}
+		try {
+			unit.handle(message);
+		} catch (RuntimeException e) {
+			SimpleLoggingUtil.error(getClass(), "Unit " + unit.getId() + " failed to process " + message, e);
+		}
+	}
+
+	private void deliverBatch(List<Object> messages) {
+		int batchSize = unit.getMaxBatchSize();
+		if (batchSize <= 1) {
+			for (Object message : messages) {
+				deliver(message);
+			}
+			return;
+		}
+		for (int i = 0; i < messages.size(); i += batchSize) {
+			List<Object> chunk = Collections.unmodifiableList(messages.subList(i, Math.min(messages.size(), i + batchSize)));
+			long start = System.nanoTime();
+			try {
+				unit.onMessages(chunk);
+			} catch (RuntimeException e) {
+				SimpleLoggingUtil.error(getClass(), "Unit " + unit.getId() + " failed to process a batch of "
+						+ chunk.size() + " messages", e);
+			} finally {
+				unit.getMetrics().handledBatch(start, chunk.size());
+			}
+		}
+	}
+}
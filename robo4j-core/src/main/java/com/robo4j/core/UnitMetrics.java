@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Live runtime metrics of a unit, see {@link RoboContext#getMetrics(String)}.
+ *
+ * <p>
+ * Recording is lock free - counters are striped and latencies go into a
+ * {@link LatencyHistogram} - so the metrics are always on. The values are
+ * read without stopping the unit, and are therefore not a consistent
+ * snapshot.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public final class UnitMetrics {
+	private static final long MIN_RATE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	private final LongAdder handled = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	// Messages submitted but not yet started, when there is no mailbox
+	private final LongAdder pending = new LongAdder();
+	private final LatencyHistogram handlerLatency = new LatencyHistogram();
+	private volatile IntSupplier mailboxDepth;
+
+	private final LongAdder[] stateTimes = new LongAdder[LifecycleState.values().length];
+	private volatile LifecycleState state = LifecycleState.UNINITIALIZED;
+	private final AtomicLong stateSince = new AtomicLong(System.nanoTime());
+
+	// Guarded by this - only touched when reading the rate
+	private long rateSampleTime = System.nanoTime();
+	private long rateSampleCount;
+	private double rate;
+
+	UnitMetrics() {
+		for (int i = 0; i < stateTimes.length; i++) {
+			stateTimes[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @return the number of messages currently waiting to be handled by the
+	 *         unit.
+	 */
+	public int getMailboxDepth() {
+		IntSupplier depth = mailboxDepth;
+		return depth != null ? depth.getAsInt() : (int) Math.max(0, pending.sum());
+	}
+
+	/**
+	 * @return the number of messages handled by the unit.
+	 */
+	public long getMessageCount() {
+		return handled.sum();
+	}
+
+	/**
+	 * Returns the rate at which the unit handles messages, averaged over the
+	 * time since the rate was last read, but at least a second.
+	 * 
+	 * @return the number of messages handled per second.
+	 */
+	public synchronized double getMessagesPerSecond() {
+		long now = System.nanoTime();
+		long elapsed = now - rateSampleTime;
+		if (elapsed >= MIN_RATE_INTERVAL) {
+			long count = handled.sum();
+			rate = (count - rateSampleCount) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+			rateSampleTime = now;
+			rateSampleCount = count;
+		}
+		return rate;
+	}
+
+	/**
+	 * @return the histogram of the time spent in the message handlers of the
+	 *         unit. For batches, every message is counted with its share of
+	 *         the batch.
+	 */
+	public LatencyHistogram getHandlerLatency() {
+		return handlerLatency;
+	}
+
+	/**
+	 * @return the number of messages dropped by the mailbox of the unit, see
+	 *         {@link OverflowPolicy}.
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return the number of messages rejected because the unit does not
+	 *         accept their type.
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Returns the total time the unit has spent in a state, including the
+	 * time spent so far if it is the current state.
+	 * 
+	 * @param state
+	 *            the state of interest.
+	 * @param unit
+	 *            the unit of the returned time.
+	 * @return the time spent in the state.
+	 */
+	public long getTimeInState(LifecycleState state, TimeUnit unit) {
+		long nanos = stateTimes[state.ordinal()].sum();
+		if (this.state == state) {
+			nanos += Math.max(0, System.nanoTime() - stateSince.get());
+		}
+		return unit.convert(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("depth=%d msg/s=%.1f handled=%d dropped=%d rejected=%d latency[%s]", getMailboxDepth(),
+				getMessagesPerSecond(), getMessageCount(), getDroppedCount(), getRejectedCount(), handlerLatency);
+	}
+
+	void setMailboxDepth(IntSupplier mailboxDepth) {
+		this.mailboxDepth = mailboxDepth;
+	}
+
+	void messageQueued() {
+		pending.increment();
+	}
+
+	void messageDequeued() {
+		pending.decrement();
+	}
+
+	void messageDropped() {
+		dropped.increment();
+	}
+
+	void messageRejected() {
+		rejected.increment();
+	}
+
+	/**
+	 * @param start
+	 *            the {@link System#nanoTime()} when the handler was entered.
+	 */
+	void handled(long start) {
+		handlerLatency.record(System.nanoTime() - start);
+		handled.increment();
+	}
+
+	/**
+	 * @param start
+	 *            the {@link System#nanoTime()} when the batch handler was
+	 *            entered.
+	 */
+	void handledBatch(long start, int count) {
+		if (count > 0) {
+			handlerLatency.record((System.nanoTime() - start) / count, count);
+			handled.add(count);
+		}
+	}
+
+	void stateChanged(LifecycleState newState) {
+		long now = System.nanoTime();
+		LifecycleState old = state;
+		stateTimes[old.ordinal()].add(now - stateSince.getAndSet(now));
+		state = newState;
+	}
+}
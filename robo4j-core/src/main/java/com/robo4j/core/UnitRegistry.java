@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The units of a {@link RoboSystem}, with their references.
+ *
+ * <p>
+ * Every registered unit is given a dense integer handle, which indexes a
+ * copy-on-write array, so that hot paths can look units up without hashing.
+ * Handles of removed units are reused. Lookups by id or handle never block;
+ * registration and removal are serialized, and are expected to be rare.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+final class UnitRegistry {
+	static final int NO_HANDLE = -1;
+
+	/**
+	 * A registered unit.
+	 */
+	static final class Entry {
+		private final RoboUnit<?> unit;
+		private final RoboReference<?> reference;
+		private final int handle;
+
+		Entry(RoboUnit<?> unit, RoboReference<?> reference, int handle) {
+			this.unit = unit;
+			this.reference = reference;
+			this.handle = handle;
+		}
+
+		RoboUnit<?> getUnit() {
+			return unit;
+		}
+
+		RoboReference<?> getReference() {
+			return reference;
+		}
+
+		int getHandle() {
+			return handle;
+		}
+	}
+
+	private static final Entry[] EMPTY = new Entry[0];
+
+	private final ConcurrentHashMap<String, Entry> byId = new ConcurrentHashMap<>();
+	private volatile Entry[] byHandle = EMPTY;
+	// Guarded by this
+	private final Deque<Integer> freeHandles = new ArrayDeque<>();
+
+	/**
+	 * Registers the unit.
+	 * 
+	 * @return the new entry, or the existing entry if the unit is already
+	 *         registered.
+	 * @throws IllegalArgumentException
+	 *             if another unit with the same id is already registered.
+	 */
+	synchronized Entry add(RoboUnit<?> unit, RoboReference<?> reference) {
+		Entry existing = byId.get(unit.getId());
+		if (existing != null) {
+			if (existing.unit == unit) {
+				return existing;
+			}
+			throw new IllegalArgumentException("A unit with the id " + unit.getId() + " is already registered");
+		}
+		Entry[] current = byHandle;
+		int handle;
+		Entry[] updated;
+		if (freeHandles.isEmpty()) {
+			handle = current.length;
+			updated = Arrays.copyOf(current, current.length + 1);
+		} else {
+			handle = freeHandles.poll();
+			updated = current.clone();
+		}
+		Entry entry = new Entry(unit, reference, handle);
+		updated[handle] = entry;
+		byHandle = updated;
+		byId.put(unit.getId(), entry);
+		return entry;
+	}
+
+	/**
+	 * Unregisters the unit with the id.
+	 * 
+	 * @return the removed entry, or null if there was no such unit.
+	 */
+	synchronized Entry remove(String id) {
+		Entry entry = byId.remove(id);
+		if (entry == null) {
+			return null;
+		}
+		Entry[] updated = byHandle.clone();
+		updated[entry.handle] = null;
+		byHandle = updated;
+		freeHandles.push(entry.handle);
+		return entry;
+	}
+
+	/**
+	 * @return the entry for the id, or null if not registered.
+	 */
+	Entry get(String id) {
+		return byId.get(id);
+	}
+
+	/**
+	 * @return the entry for the handle, or null if not registered.
+	 */
+	Entry get(int handle) {
+		Entry[] entries = byHandle;
+		return handle >= 0 && handle < entries.length ? entries[handle] : null;
+	}
+
+	/**
+	 * @return a snapshot of the registered units.
+	 */
+	Collection<RoboUnit<?>> getUnits() {
+		Entry[] entries = byHandle;
+		List<RoboUnit<?>> units = new ArrayList<>(entries.length);
+		for (Entry entry : entries) {
+			if (entry != null) {
+				units.add(entry.unit);
+			}
+		}
+		return Collections.unmodifiableList(units);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This DedicatedThreadExecutor.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.concurrency;
+
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToIntFunction;
+
+import com.robo4j.core.logging.SimpleLoggingUtil;
+
+/**
+ * An executor running all its tasks, in order, on a single platform thread
+ * which is not shared with anything else. Used to pin latency critical units
+ * to a thread of their own, so that they are not delayed by slow units in
+ * the shared system pool. Tasks can be queued in priority lanes, see
+ * {@link PriorityLaneQueue}.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class DedicatedThreadExecutor implements Executor {
+	private final Queue<Runnable> tasks;
+	private final WaitStrategy waitStrategy;
+	private final Thread thread;
+	private volatile boolean parked;
+	private volatile boolean running = true;
+
+	/**
+	 * Creates and starts the executor.
+	 * 
+	 * @param name
+	 *            the name of the thread.
+	 * @param waitStrategy
+	 *            how to wait when there is nothing to do.
+	 */
+	public DedicatedThreadExecutor(String name, WaitStrategy waitStrategy) {
+		this(name, waitStrategy, 1, task -> 0);
+	}
+
+	/**
+	 * Creates and starts an executor running the tasks in priority lanes.
+	 * 
+	 * @param name
+	 *            the name of the thread.
+	 * @param waitStrategy
+	 *            how to wait when there is nothing to do.
+	 * @param laneCount
+	 *            the number of lanes.
+	 * @param laneOf
+	 *            returns the lane of a task, from 0 (run first) to laneCount
+	 *            - 1.
+	 */
+	public DedicatedThreadExecutor(String name, WaitStrategy waitStrategy, int laneCount,
+			ToIntFunction<? super Runnable> laneOf) {
+		this.waitStrategy = waitStrategy;
+		this.tasks = new PriorityLaneQueue<>(laneCount, laneOf);
+		// Always a platform thread, since the point is to own a carrier
+		thread = new RoboThreadFactory(name, true, false).newThread(this::runLoop);
+		thread.start();
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		if (!running) {
+			throw new RejectedExecutionException("Executor " + thread.getName() + " has been shut down");
+		}
+		tasks.offer(task);
+		if (parked) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * @return the wait strategy used when idle.
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Stops accepting tasks. Tasks already submitted are still run.
+	 */
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Waits for the executor thread to finish after {@link #shutdown()}.
+	 * 
+	 * @return true if the thread finished within the timeout.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		thread.join(unit.toMillis(timeout));
+		return !thread.isAlive();
+	}
+
+	private void runLoop() {
+		for (;;) {
+			Runnable task = tasks.poll();
+			if (task != null) {
+				runTask(task);
+			} else if (!running) {
+				return;
+			} else {
+				idle();
+			}
+		}
+	}
+
+	private void runTask(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			SimpleLoggingUtil.error(getClass(), "Task failed on " + thread.getName(), e);
+		}
+	}
+
+	private void idle() {
+		switch (waitStrategy) {
+		case BUSY_SPIN:
+			break;
+		case YIELD:
+			Thread.yield();
+			break;
+		case PARK:
+		default:
+			parked = true;
+			// Recheck after publishing that we are about to park, or we may
+			// miss the unpark from a task submitted in between
+			if (tasks.isEmpty() && running) {
+				LockSupport.park(this);
+			}
+			parked = false;
+			break;
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This PriorityLaneQueue.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.concurrency;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * Unbounded blocking queue made of a fixed number of FIFO lanes. Elements are
+ * always taken from the first non empty lane, so elements in a lower lane
+ * overtake the backlog in the higher ones, while each lane keeps its own
+ * order. Every lane is a separate lock free queue, so neither producers nor
+ * consumers take a lock, and no sequence numbers or comparisons are needed.
+ * Only consumers finding all lanes empty take a lock, to wait for an
+ * element.
+ *
+ * <p>
+ * The iterator is a snapshot.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class PriorityLaneQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+	private final List<ConcurrentLinkedQueue<E>> lanes;
+	private final ToIntFunction<? super E> laneOf;
+	private final AtomicInteger waitingConsumers = new AtomicInteger();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param laneCount
+	 *            the number of lanes.
+	 * @param laneOf
+	 *            returns the lane of an element, from 0 (taken first) to
+	 *            laneCount - 1.
+	 */
+	public PriorityLaneQueue(int laneCount, ToIntFunction<? super E> laneOf) {
+		if (laneCount < 1) {
+			throw new IllegalArgumentException("Need at least one lane, got " + laneCount);
+		}
+		this.laneOf = laneOf;
+		lanes = new ArrayList<>(laneCount);
+		for (int i = 0; i < laneCount; i++) {
+			lanes.add(new ConcurrentLinkedQueue<>());
+		}
+	}
+
+	/**
+	 * @return the number of lanes.
+	 */
+	public int getLaneCount() {
+		return lanes.size();
+	}
+
+	@Override
+	public boolean offer(E e) {
+		Objects.requireNonNull(e);
+		int lane = laneOf.applyAsInt(e);
+		if (lane < 0 || lane >= lanes.size()) {
+			throw new IllegalArgumentException("Lane " + lane + " of " + e + " is out of range");
+		}
+		lanes.get(lane).offer(e);
+		// Read after the offer, see awaitElement
+		if (waitingConsumers.get() > 0) {
+			signalNotEmpty();
+		}
+		return true;
+	}
+
+	@Override
+	public void put(E e) {
+		offer(e);
+	}
+
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit) {
+		return offer(e);
+	}
+
+	@Override
+	public E poll() {
+		for (int i = 0; i < lanes.size(); i++) {
+			E e = lanes.get(i).poll();
+			if (e != null) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		E e = poll();
+		return e != null ? e : awaitElement(false, 0L);
+	}
+
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		E e = poll();
+		return e != null ? e : awaitElement(true, unit.toNanos(timeout));
+	}
+
+	@Override
+	public E peek() {
+		for (int i = 0; i < lanes.size(); i++) {
+			E e = lanes.get(i).peek();
+			if (e != null) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (int i = 0; i < lanes.size(); i++) {
+			if (!lanes.get(i).isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Counts the elements in all the lanes. Not a constant time operation.
+	 */
+	@Override
+	public int size() {
+		int size = 0;
+		for (int i = 0; i < lanes.size(); i++) {
+			size += lanes.get(i).size();
+		}
+		return size;
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		for (int i = 0; i < lanes.size(); i++) {
+			if (lanes.get(i).remove(o)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		for (int i = 0; i < lanes.size(); i++) {
+			if (lanes.get(i).contains(o)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < lanes.size(); i++) {
+			lanes.get(i).clear();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c, int maxElements) {
+		Objects.requireNonNull(c);
+		if (c == this) {
+			throw new IllegalArgumentException("Cannot drain to self");
+		}
+		int count = 0;
+		E e;
+		while (count < maxElements && (e = poll()) != null) {
+			c.add(e);
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		List<E> snapshot = new ArrayList<>();
+		for (int i = 0; i < lanes.size(); i++) {
+			snapshot.addAll(lanes.get(i));
+		}
+		Iterator<E> elements = snapshot.iterator();
+		return new Iterator<E>() {
+			private E last;
+
+			@Override
+			public boolean hasNext() {
+				return elements.hasNext();
+			}
+
+			@Override
+			public E next() {
+				last = elements.next();
+				return last;
+			}
+
+			@Override
+			public void remove() {
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				PriorityLaneQueue.this.remove(last);
+				last = null;
+			}
+		};
+	}
+
+	/**
+	 * Waits for an element. The consumer registers as waiting before its
+	 * last poll, and producers check for waiting consumers after their
+	 * offer, so either the poll finds the element or the producer signals.
+	 */
+	private E awaitElement(boolean timed, long nanos) throws InterruptedException {
+		waitingConsumers.incrementAndGet();
+		try {
+			lock.lockInterruptibly();
+			try {
+				for (;;) {
+					E e = poll();
+					if (e != null) {
+						return e;
+					}
+					if (!timed) {
+						notEmpty.await();
+					} else if (nanos <= 0) {
+						return null;
+					} else {
+						nanos = notEmpty.awaitNanos(nanos);
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			waitingConsumers.decrementAndGet();
+		}
+	}
+
+	private void signalNotEmpty() {
+		lock.lock();
+		try {
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
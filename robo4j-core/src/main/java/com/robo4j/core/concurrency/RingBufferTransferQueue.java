@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This RingBufferTransferQueue.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.robo4j.core.concurrency;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TransferQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, multi producer / single consumer transfer queue backed by a ring
+ * buffer. Producers claim slots with a single CAS on the tail counter, and
+ * each slot carries a sequence number telling whether it is free or
+ * published, so neither side takes a lock on the fast path. Threads only
+ * park when the queue is empty (consumer) or full (producers), or when a
+ * producer waits for its element to be consumed in
+ * {@link #transfer(Object)}.
+ *
+ * <p>
+ * Only one thread may consume (take, poll, peek, drain) at a time. The
+ * iterator is a snapshot, and does not support removal.
+ *
+ * <p>
+ * {@link #tryTransfer(Object)} succeeds if the consumer is parked waiting
+ * for an element, in which case the element will be the next one it takes.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class RingBufferTransferQueue<E> extends AbstractQueue<E> implements TransferQueue<E> {
+	private static final int SPIN_TRIES = 64;
+	private static final int YIELD_TRIES = 128;
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	/*
+	 * Marks a slot whose element was withdrawn by a timed out or interrupted
+	 * transfer. Skipped by the consumer.
+	 */
+	private static final Object CANCELLED = new Object();
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<Object> buffer;
+	/*
+	 * Slot is free for position p when sequence == p, and holds the element
+	 * for position p when sequence == p + 1. While a transfer withdraws the
+	 * element for position p, the sequence is -p - 1.
+	 */
+	private final AtomicLongArray sequences;
+	private final AtomicReferenceArray<Thread> transferWaiters;
+	private final AtomicLong tail = new AtomicLong();
+	/* Only written by the consumer */
+	private volatile long head;
+	private volatile Thread waitingConsumer;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity
+	 *            the minimum capacity. Will be rounded up to the closest power
+	 *            of two.
+	 */
+	public RingBufferTransferQueue(int capacity) {
+		if (capacity < 1 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("Capacity out of range: " + capacity);
+		}
+		this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = this.capacity - 1;
+		buffer = new AtomicReferenceArray<>(this.capacity);
+		sequences = new AtomicLongArray(this.capacity);
+		transferWaiters = new AtomicReferenceArray<>(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @return the capacity of the queue.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public boolean offer(E e) {
+		return enqueue(e) >= 0;
+	}
+
+	@Override
+	public void put(E e) throws InterruptedException {
+		putAndGetPosition(e);
+	}
+
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+		return offerAndGetPosition(e, unit.toNanos(timeout)) >= 0;
+	}
+
+	@Override
+	public E poll() {
+		return dequeue();
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		E e = dequeue();
+		return e != null ? e : awaitElement(false, 0L);
+	}
+
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		E e = dequeue();
+		return e != null ? e : awaitElement(true, unit.toNanos(timeout));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public E peek() {
+		for (;;) {
+			long pos = head;
+			int index = index(pos);
+			if (sequences.get(index) != pos + 1) {
+				return null;
+			}
+			Object item = buffer.get(index);
+			if (item != CANCELLED) {
+				return (E) item;
+			}
+			// Skip over the withdrawn element
+			consume(pos, index);
+		}
+	}
+
+	@Override
+	public boolean tryTransfer(E e) {
+		Objects.requireNonNull(e);
+		if (waitingConsumer == null) {
+			return false;
+		}
+		return enqueue(e) >= 0;
+	}
+
+	@Override
+	public void transfer(E e) throws InterruptedException {
+		long pos = putAndGetPosition(e);
+		awaitConsumption(e, pos, false, 0L);
+	}
+
+	@Override
+	public boolean tryTransfer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long pos = offerAndGetPosition(e, unit.toNanos(timeout));
+		if (pos < 0) {
+			return false;
+		}
+		return awaitConsumption(e, pos, true, deadline - System.nanoTime());
+	}
+
+	@Override
+	public boolean hasWaitingConsumer() {
+		return waitingConsumer != null;
+	}
+
+	@Override
+	public int getWaitingConsumerCount() {
+		return waitingConsumer != null ? 1 : 0;
+	}
+
+	@Override
+	public int size() {
+		long size = tail.get() - head;
+		return (int) Math.max(0, Math.min(capacity, size));
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return capacity - size();
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c, int maxElements) {
+		Objects.requireNonNull(c);
+		if (c == this) {
+			throw new IllegalArgumentException("Cannot drain to self");
+		}
+		int count = 0;
+		E e;
+		while (count < maxElements && (e = dequeue()) != null) {
+			c.add(e);
+			count++;
+		}
+		return count;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Iterator<E> iterator() {
+		List<E> snapshot = new ArrayList<>();
+		long end = tail.get();
+		for (long pos = head; pos < end; pos++) {
+			int index = index(pos);
+			Object item = buffer.get(index);
+			if (sequences.get(index) == pos + 1 && item != null && item != CANCELLED) {
+				snapshot.add((E) item);
+			}
+		}
+		return Collections.unmodifiableList(snapshot).iterator();
+	}
+
+	private int index(long pos) {
+		return (int) pos & mask;
+	}
+
+	/**
+	 * @return the position of the element, or -1 if the queue was full.
+	 */
+	private long enqueue(E e) {
+		Objects.requireNonNull(e);
+		for (;;) {
+			long pos = tail.get();
+			int index = index(pos);
+			long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					buffer.lazySet(index, e);
+					// Volatile write, so that it cannot be reordered with the
+					// read of the waiting consumer below.
+					sequences.set(index, pos + 1);
+					Thread consumer = waitingConsumer;
+					if (consumer != null) {
+						LockSupport.unpark(consumer);
+					}
+					return pos;
+				}
+			} else if (diff < 0) {
+				return -1;
+			}
+			// Else another producer claimed the slot first - retry.
+		}
+	}
+
+	private long putAndGetPosition(E e) throws InterruptedException {
+		for (int tries = 0;; tries++) {
+			long pos = enqueue(e);
+			if (pos >= 0) {
+				return pos;
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			backOff(tries);
+		}
+	}
+
+	private long offerAndGetPosition(E e, long nanos) throws InterruptedException {
+		long deadline = System.nanoTime() + nanos;
+		for (int tries = 0;; tries++) {
+			long pos = enqueue(e);
+			if (pos >= 0) {
+				return pos;
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (deadline - System.nanoTime() <= 0) {
+				return -1;
+			}
+			backOff(tries);
+		}
+	}
+
+	private void backOff(int tries) {
+		if (tries < SPIN_TRIES) {
+			return;
+		} else if (tries < YIELD_TRIES) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(this, FULL_PARK_NANOS);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private E dequeue() {
+		for (;;) {
+			long pos = head;
+			int index = index(pos);
+			if (sequences.get(index) != pos + 1) {
+				return null;
+			}
+			Object item = consume(pos, index);
+			if (item != CANCELLED) {
+				return (E) item;
+			}
+		}
+	}
+
+	private Object consume(long pos, int index) {
+		Object item = buffer.getAndSet(index, null);
+		sequences.lazySet(index, pos + capacity);
+		head = pos + 1;
+		Thread transferrer = transferWaiters.get(index);
+		if (transferrer != null) {
+			LockSupport.unpark(transferrer);
+		}
+		return item;
+	}
+
+	private E awaitElement(boolean timed, long nanos) throws InterruptedException {
+		long deadline = timed ? System.nanoTime() + nanos : 0L;
+		for (int tries = 0;; tries++) {
+			E e = dequeue();
+			if (e != null) {
+				return e;
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (tries < SPIN_TRIES) {
+				continue;
+			}
+			waitingConsumer = Thread.currentThread();
+			try {
+				e = dequeue();
+				if (e != null) {
+					return e;
+				}
+				if (timed) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return null;
+					}
+					LockSupport.parkNanos(this, remaining);
+				} else {
+					LockSupport.park(this);
+				}
+			} finally {
+				waitingConsumer = null;
+			}
+		}
+	}
+
+	/**
+	 * Waits until the consumer has passed the position of the element. If
+	 * the wait times out, or is interrupted, the element is withdrawn unless
+	 * it was already consumed.
+	 */
+	private boolean awaitConsumption(E e, long pos, boolean timed, long nanos) throws InterruptedException {
+		int index = index(pos);
+		long deadline = timed ? System.nanoTime() + nanos : 0L;
+		Thread current = Thread.currentThread();
+		transferWaiters.set(index, current);
+		try {
+			while (head <= pos) {
+				if (Thread.interrupted()) {
+					if (withdraw(e, pos, index)) {
+						throw new InterruptedException();
+					}
+					// Already consumed - the transfer went through
+					current.interrupt();
+					return true;
+				}
+				long parkNanos = MAX_PARK_NANOS;
+				if (timed) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return !withdraw(e, pos, index);
+					}
+					parkNanos = Math.min(remaining, MAX_PARK_NANOS);
+				}
+				// Bounded park, since a wrapped around producer may have
+				// replaced our registration in the waiter slot.
+				LockSupport.parkNanos(this, parkNanos);
+			}
+			return true;
+		} finally {
+			transferWaiters.compareAndSet(index, current, null);
+		}
+	}
+
+	/**
+	 * Replaces the element with {@link #CANCELLED}, unless it was already
+	 * consumed. The sequence is held while doing so, since once the consumer
+	 * has passed, a wrapped around producer may put the same element into the
+	 * slot again.
+	 * 
+	 * @return true if the element was withdrawn.
+	 */
+	private boolean withdraw(E e, long pos, int index) {
+		long withdrawing = -pos - 1;
+		if (!sequences.compareAndSet(index, pos + 1, withdrawing)) {
+			return false;
+		}
+		// Fails if the consumer took the element before the sequence was held
+		boolean withdrawn = buffer.compareAndSet(index, e, CANCELLED);
+		// Unless the consumer has released the slot in the meantime
+		sequences.compareAndSet(index, withdrawing, pos + 1);
+		// The consumer may have found the slot held, and gone to sleep
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+		return withdrawn;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This RoboExecutors.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.robo4j.core.concurrency;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory methods for the thread pools used by Robo4J and its units. When
+ * running on virtual threads (see
+ * {@link RoboThreadFactory#PROPERTY_VIRTUAL_THREADS}), the pools create
+ * virtual threads. Worker pools keep the size and the work queue asked for,
+ * since callers rely on them for ordering and priorities - units blocking on
+ * I/O should use a {@link #newCachedPool(String) cached pool} instead.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public final class RoboExecutors {
+	private static final int KEEP_ALIVE_TIME = 10;
+
+	private RoboExecutors() {
+		// no instances
+	}
+
+	/**
+	 * Creates a worker pool.
+	 * 
+	 * @param prefix
+	 *            the thread name prefix.
+	 * @param numberOfThreads
+	 *            the number of threads to use.
+	 * @param workQueue
+	 *            the work queue, which decides the order in which waiting
+	 *            tasks are run.
+	 * @return the executor.
+	 */
+	public static ThreadPoolExecutor newWorkerPool(String prefix, int numberOfThreads,
+			BlockingQueue<Runnable> workQueue) {
+		return new ThreadPoolExecutor(numberOfThreads, numberOfThreads, KEEP_ALIVE_TIME, TimeUnit.SECONDS, workQueue,
+				new RoboThreadFactory(prefix, true));
+	}
+
+	/**
+	 * Creates a pool which grows as needed, for units doing blocking I/O.
+	 * 
+	 * @param prefix
+	 *            the thread name prefix.
+	 * @return the executor.
+	 */
+	public static ExecutorService newCachedPool(String prefix) {
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_TIME, TimeUnit.SECONDS, new SynchronousQueue<>(),
+				new RoboThreadFactory(prefix, true));
+	}
+}
@@ -18,17 +18,59 @@
  */
 package com.robo4j.core.concurrency;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.robo4j.core.logging.SimpleLoggingUtil;
+
 /**
  * Default Thread Factory
  *
+ * <p>
+ * If the system property {@value #PROPERTY_VIRTUAL_THREADS} is set to true,
+ * and the JVM supports virtual threads, the factory creates virtual threads.
+ * Otherwise platform threads are created. All Robo4J thread pools should be
+ * created through this factory (or {@link RoboExecutors}), so that the
+ * threading model can be switched in one place.
+ *
  * @author Marcus Hirt (@hirt)
  * @author Miroslav Wengner (@miragemiko)
  * @since 07.04.2016
  */
 public class RoboThreadFactory implements ThreadFactory {
+	/**
+	 * System property used to switch to virtual threads.
+	 */
+	public static final String PROPERTY_VIRTUAL_THREADS = "robo4j.threads.virtual";
+
+	private static final boolean VIRTUAL_THREADS_REQUESTED = Boolean.getBoolean(PROPERTY_VIRTUAL_THREADS);
+	private static final Method METHOD_OF_VIRTUAL;
+	private static final Method METHOD_BUILDER_NAME;
+	private static final Method METHOD_BUILDER_UNSTARTED;
+
+	// Virtual threads are looked up reflectively, since we still need to run
+	// on JDK 8 based platforms, such as the EV3.
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method unstarted = null;
+		if (VIRTUAL_THREADS_REQUESTED) {
+			try {
+				ofVirtual = Thread.class.getMethod("ofVirtual");
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				name = builderClass.getMethod("name", String.class);
+				unstarted = builderClass.getMethod("unstarted", Runnable.class);
+			} catch (ReflectiveOperationException e) {
+				SimpleLoggingUtil.error(RoboThreadFactory.class,
+						"Virtual threads requested, but not supported by this JVM. Using platform threads.");
+				ofVirtual = null;
+			}
+		}
+		METHOD_OF_VIRTUAL = ofVirtual;
+		METHOD_BUILDER_NAME = name;
+		METHOD_BUILDER_UNSTARTED = unstarted;
+	}
 
 	/**
 	 * Attribute to store the number of threads creates by the Factory
@@ -45,20 +87,67 @@ public class RoboThreadFactory implements ThreadFactory {
 	 */
 	private boolean isDaemon;
 
+	/**
+	 * Create virtual threads?
+	 */
+	private boolean isVirtual;
+
 	/**
 	 * Constructor that initiates attributes
 	 */
 	public RoboThreadFactory(String prefix, boolean isDaemon) {
+		this(prefix, isDaemon, isVirtualThreadsEnabled());
+	}
+
+	/**
+	 * Constructor that initiates attributes
+	 * 
+	 * @param isVirtual
+	 *            true to create virtual threads. Ignored if virtual threads
+	 *            are not available.
+	 */
+	public RoboThreadFactory(String prefix, boolean isDaemon, boolean isVirtual) {
 		this.threadBaseName = prefix;
 		this.isDaemon = isDaemon;
+		this.isVirtual = isVirtual && METHOD_OF_VIRTUAL != null;
 		counter = new AtomicInteger(1);
 	}
 
+	/**
+	 * @return true if Robo4J has been configured to use virtual threads, and
+	 *         they are supported by the JVM.
+	 */
+	public static boolean isVirtualThreadsEnabled() {
+		return METHOD_OF_VIRTUAL != null;
+	}
+
+	/**
+	 * @return true if this factory creates virtual threads.
+	 */
+	public boolean isVirtual() {
+		return isVirtual;
+	}
+
 	@Override
 	public Thread newThread(Runnable r) {
-		Thread thread = new Thread(r, threadBaseName + "-" + counter.getAndIncrement());
+		String name = threadBaseName + "-" + counter.getAndIncrement();
+		if (isVirtual) {
+			// Virtual threads are always daemon threads
+			return newVirtualThread(r, name);
+		}
+		Thread thread = new Thread(r, name);
 		thread.setDaemon(isDaemon);
 		return thread;
 	}
 
+	private static Thread newVirtualThread(Runnable r, String name) {
+		try {
+			Object builder = METHOD_OF_VIRTUAL.invoke(null);
+			builder = METHOD_BUILDER_NAME.invoke(builder, name);
+			return (Thread) METHOD_BUILDER_UNSTARTED.invoke(builder, r);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not create virtual thread " + name, e);
+		}
+	}
+
 }
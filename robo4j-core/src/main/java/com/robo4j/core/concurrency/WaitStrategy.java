@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This WaitStrategy.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.concurrency;
+
+/**
+ * How an idle {@link DedicatedThreadExecutor} waits for work. Trades CPU
+ * usage for wake up latency.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public enum WaitStrategy {
+	/**
+	 * Keeps polling for work. Lowest latency, but occupies a full core.
+	 */
+	BUSY_SPIN,
+
+	/**
+	 * Polls for work, yielding the processor in between.
+	 */
+	YIELD,
+
+	/**
+	 * Parks the thread until work arrives. Uses no CPU while idle.
+	 */
+	PARK
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.configuration;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Factory for writing configurations to a compact binary form and reading
+ * them back, with the types of the values preserved. Used for snapshots of
+ * configured systems.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class BinaryConfigurationFactory {
+	private static final byte TYPE_STRING = 0;
+	private static final byte TYPE_INT = 1;
+	private static final byte TYPE_LONG = 2;
+	private static final byte TYPE_FLOAT = 3;
+	private static final byte TYPE_DOUBLE = 4;
+	private static final byte TYPE_BOOLEAN = 5;
+	private static final byte TYPE_CHARACTER = 6;
+
+	public static void write(DataOutput out, Configuration configuration) throws IOException {
+		Set<String> valueNames = configuration.getValueNames();
+		out.writeInt(valueNames.size());
+		for (String name : valueNames) {
+			out.writeUTF(name);
+			writeValue(out, name, configuration.getValue(name, null));
+		}
+		Set<String> childNames = configuration.getChildNames();
+		out.writeInt(childNames.size());
+		for (String name : childNames) {
+			out.writeUTF(name);
+			write(out, configuration.getChildConfiguration(name));
+		}
+	}
+
+	public static Configuration read(DataInput in) throws IOException {
+		Configuration configuration = new DefaultConfiguration();
+		read(in, configuration);
+		return configuration;
+	}
+
+	private static void read(DataInput in, Configuration configuration) throws IOException {
+		for (int i = in.readInt(); i > 0; i--) {
+			String name = in.readUTF();
+			readValue(in, name, configuration);
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			read(in, configuration.createChildConfiguration(in.readUTF()));
+		}
+	}
+
+	private static void writeValue(DataOutput out, String name, Object value) throws IOException {
+		if (value instanceof String) {
+			out.writeByte(TYPE_STRING);
+			out.writeUTF((String) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(TYPE_INT);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Float) {
+			out.writeByte(TYPE_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Double) {
+			out.writeByte(TYPE_DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Character) {
+			out.writeByte(TYPE_CHARACTER);
+			out.writeChar((Character) value);
+		} else {
+			throw new IOException("Cannot write the value " + name + " of type "
+					+ (value == null ? null : value.getClass().getName()));
+		}
+	}
+
+	private static void readValue(DataInput in, String name, Configuration configuration) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case TYPE_STRING:
+			configuration.setString(name, in.readUTF());
+			break;
+		case TYPE_INT:
+			configuration.setInteger(name, in.readInt());
+			break;
+		case TYPE_LONG:
+			configuration.setLong(name, in.readLong());
+			break;
+		case TYPE_FLOAT:
+			configuration.setFloat(name, in.readFloat());
+			break;
+		case TYPE_DOUBLE:
+			configuration.setDouble(name, in.readDouble());
+			break;
+		case TYPE_BOOLEAN:
+			configuration.setBoolean(name, in.readBoolean());
+			break;
+		case TYPE_CHARACTER:
+			configuration.setCharacter(name, in.readChar());
+			break;
+		default:
+			throw new IOException("Unknown type " + type + " for the value " + name);
+		}
+	}
+}
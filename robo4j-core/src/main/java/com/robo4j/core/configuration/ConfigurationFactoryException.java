@@ -27,4 +27,8 @@ public class ConfigurationFactoryException extends Exception {
 	public ConfigurationFactoryException(String message, Throwable cause) {
 		super(message, cause);
 	}
+
+	public ConfigurationFactoryException(String message) {
+		super(message);
+	}
 }
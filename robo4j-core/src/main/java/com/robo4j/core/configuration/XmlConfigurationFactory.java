@@ -24,6 +24,9 @@ import java.util.Deque;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -45,12 +48,12 @@ public class XmlConfigurationFactory {
 	private static final String TYPE_FLOAT = "float";
 	private static final String TYPE_INT = "int";
 	private static final String TYPE_STRING = "String";
+	private static final String TYPE_BOOLEAN = "boolean";
 	private static final String ELEMENT_ROOT = "com.robo4j.core.root";
 	private static final String ELEMENT_VALUE = "value";
 
-	private static final Deque<Configuration> configStack = new ArrayDeque<>();
-
 	private static class ConfigurationHandler extends DefaultHandler {
+		private final Deque<Configuration> configStack = new ArrayDeque<>();
 		private Configuration currentConfig;
 		private String lastElement = "";
 
@@ -112,6 +115,9 @@ public class XmlConfigurationFactory {
 			case TYPE_DOUBLE:
 				currentConfig.setDouble(currentName, Double.parseDouble(currentValue));
 				break;
+			case TYPE_BOOLEAN:
+				currentConfig.setBoolean(currentName, Boolean.parseBoolean(currentValue.trim()));
+				break;
 			}
 		}
 
@@ -142,6 +148,73 @@ public class XmlConfigurationFactory {
 		return config;
 	}
 
+	/**
+	 * Reads a configuration directly from a StAX stream, in one pass. Used
+	 * when the configuration is part of a larger document, such as a system
+	 * descriptor.
+	 * 
+	 * @param reader
+	 *            the reader, positioned on the start of a config element.
+	 *            Left on the end of the same element.
+	 * @return the configuration.
+	 * @throws ConfigurationFactoryException
+	 *             if the configuration could not be read.
+	 */
+	public static Configuration fromXml(XMLStreamReader reader) throws ConfigurationFactoryException {
+		DefaultConfiguration config = new DefaultConfiguration();
+		String name = reader.getAttributeValue(null, ATTRIBUTE_NAME);
+		try {
+			readConfiguration(reader,
+					name == null || name.equals(ELEMENT_ROOT) ? config : config.createChildConfiguration(name));
+		} catch (XMLStreamException | NumberFormatException e) {
+			throw new ConfigurationFactoryException("Could not parse the configuration", e);
+		}
+		return config;
+	}
+
+	private static void readConfiguration(XMLStreamReader reader, Configuration config)
+			throws XMLStreamException, ConfigurationFactoryException {
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				String name = reader.getAttributeValue(null, ATTRIBUTE_NAME);
+				switch (reader.getLocalName()) {
+				case ELEMENT_CONFIG:
+					readConfiguration(reader, config.createChildConfiguration(name));
+					break;
+				case ELEMENT_VALUE:
+					String type = reader.getAttributeValue(null, ATTRIBUTE_TYPE);
+					if (name == null || type == null) {
+						throw new ConfigurationFactoryException(
+								"Values need a name and a type, line " + reader.getLocation().getLineNumber());
+					}
+					ConfigurationHandler.writeValue(config, reader.getElementText().trim(), type, name);
+					break;
+				default:
+					skipElement(reader);
+					break;
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				// The end of this config
+				return;
+			}
+		}
+	}
+
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		for (int depth = 1; depth > 0;) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				break;
+			}
+		}
+	}
+
 	public static String toXml(Configuration configuration) {
 		StringBuilder builder = new StringBuilder();
 		write(builder, configuration);
@@ -197,6 +270,9 @@ public class XmlConfigurationFactory {
 		if (value instanceof Long) {
 			return TYPE_LONG;
 		}
+		if (value instanceof Boolean) {
+			return TYPE_BOOLEAN;
+		}
 		return null;
 	}
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This CoreEvents.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.jfr;
+
+/**
+ * Emits the JFR events of the core runtime: messages being enqueued and
+ * dispatched, the scheduler firing and units changing lifecycle state.
+ *
+ * <p>
+ * The events use the JFR API of JDK 7 and 8 (see also the events of
+ * robo4j-math), and are built from the optional jfr source set of the core.
+ * If that API or those classes are not available, or if the system property
+ * {@value #PROPERTY_DISABLED} is true, all methods do nothing. The events
+ * are disabled by default, and are switched on in the JFR recording
+ * settings, under the Robo4J Core producer. Until then nothing is allocated.
+ *
+ * <p>
+ * Intended for the runtime only.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public final class CoreEvents {
+	/**
+	 * System property which, if true, keeps the core runtime from using JFR.
+	 */
+	public static final String PROPERTY_DISABLED = "robo4j.jfr.disabled";
+
+	private static final String RECORDER_CLASS = "com.robo4j.core.jfr.JfrRecorder";
+
+	private static final EventRecorder RECORDER = loadRecorder();
+
+	private CoreEvents() {
+		throw new UnsupportedOperationException("Toolkit! Do not instantiate!");
+	}
+
+	/**
+	 * @return true if dispatch events are being recorded, in which case
+	 *         messages should be time stamped when enqueued.
+	 */
+	public static boolean isDispatchEnabled() {
+		return RECORDER != null && RECORDER.isDispatchEnabled();
+	}
+
+	public static void messageEnqueued(String unitId, Class<?> messageClass, Enum<?> priority) {
+		if (RECORDER != null) {
+			RECORDER.messageEnqueued(unitId, messageClass, priority);
+		}
+	}
+
+	/**
+	 * Starts timing the dispatch of a message.
+	 * 
+	 * @param unitId
+	 *            the id of the unit handling the message.
+	 * @param messageClass
+	 *            the class of the message, or of the first message of a
+	 *            batch.
+	 * @param enqueueNanos
+	 *            the {@link System#nanoTime()} when the message was
+	 *            enqueued.
+	 * @param batchSize
+	 *            the number of messages handled together.
+	 * @return the event to pass to {@link #dispatchEnded(Object)}, or null
+	 *         if not recording.
+	 */
+	public static Object dispatchStarted(String unitId, Class<?> messageClass, long enqueueNanos, int batchSize) {
+		return RECORDER != null ? RECORDER.dispatchStarted(unitId, messageClass, enqueueNanos, batchSize) : null;
+	}
+
+	public static void dispatchEnded(Object event) {
+		if (event != null) {
+			RECORDER.end(event);
+		}
+	}
+
+	/**
+	 * @return true if scheduler events are being recorded.
+	 */
+	public static boolean isSchedulerEnabled() {
+		return RECORDER != null && RECORDER.isSchedulerEnabled();
+	}
+
+	/**
+	 * Starts timing the scheduler sending a message.
+	 * 
+	 * @return the event to pass to {@link #schedulerFireEnded(Object)}, or
+	 *         null if not recording.
+	 */
+	public static Object schedulerFireStarted(String unitId, Class<?> messageClass, long latenessNanos) {
+		return RECORDER != null ? RECORDER.schedulerFireStarted(unitId, messageClass, latenessNanos) : null;
+	}
+
+	public static void schedulerFireEnded(Object event) {
+		if (event != null) {
+			RECORDER.end(event);
+		}
+	}
+
+	public static void lifecycleChanged(String unitId, Enum<?> from, Enum<?> to) {
+		if (RECORDER != null) {
+			RECORDER.lifecycleChanged(unitId, from, to);
+		}
+	}
+
+	private static EventRecorder loadRecorder() {
+		if (Boolean.getBoolean(PROPERTY_DISABLED)) {
+			return null;
+		}
+		ClassLoader loader = CoreEvents.class.getClassLoader();
+		try {
+			Class.forName("com.oracle.jrockit.jfr.Producer", false, loader);
+			return (EventRecorder) Class.forName(RECORDER_CLASS, true, loader).newInstance();
+		} catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+			return null;
+		}
+	}
+}
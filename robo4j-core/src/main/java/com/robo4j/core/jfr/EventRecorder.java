@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2014, 2017. Miroslav Wengner, Marcus Hirt
+ * This EventRecorder.java  is part of robo4j.
+ * module: robo4j-core
+ *
+ * robo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * robo4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with robo4j .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.jfr;
+
+/**
+ * The recording side of {@link CoreEvents}. The JFR implementation lives in
+ * the optional jfr source set, and is loaded reflectively, so that the core
+ * compiles and runs on JDKs without the JFR API of JDK 7 and 8.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+interface EventRecorder {
+	boolean isDispatchEnabled();
+
+	boolean isSchedulerEnabled();
+
+	void messageEnqueued(String unitId, Class<?> messageClass, Enum<?> priority);
+
+	Object dispatchStarted(String unitId, Class<?> messageClass, long enqueueNanos, int batchSize);
+
+	Object schedulerFireStarted(String unitId, Class<?> messageClass, long latenessNanos);
+
+	void lifecycleChanged(String unitId, Enum<?> from, Enum<?> to);
+
+	/**
+	 * Ends and commits an event returned by one of the started methods.
+	 */
+	void end(Object event);
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ *
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.processing;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.robo4j.core.IndexedUnit;
+
+/**
+ * Generates the unit index read by
+ * {@link com.robo4j.core.RoboBuilder#add(ClassLoader)}, from the units
+ * annotated with {@link IndexedUnit}. The index is a system descriptor,
+ * stored as {@value #INDEX_RESOURCE} in the class output.
+ *
+ * <p>
+ * Registered as a service, so that it runs for every compilation with
+ * robo4j-core on the class path. The units are verified while compiling -
+ * a unit which could not be created from the index is a compile error.
+ * Since the index is written from the units of the current compilation,
+ * incremental compilations need to include all the indexed units.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+@SupportedAnnotationTypes(UnitIndexProcessor.INDEXED_UNIT)
+public class UnitIndexProcessor extends AbstractProcessor {
+	public static final String INDEX_RESOURCE = "META-INF/robo4j/units.xml";
+
+	static final String INDEXED_UNIT = "com.robo4j.core.IndexedUnit";
+	private static final String ROBO_UNIT = "com.robo4j.core.RoboUnit";
+	private static final String ROBO_CONTEXT = "com.robo4j.core.RoboContext";
+	private static final String ROOT_CONFIG = "com.robo4j.core.root";
+
+	// Sorted by class name, for a reproducible index
+	private final Map<String, String> entries = new TreeMap<>();
+	private final Map<String, String> classById = new HashMap<>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getElementsAnnotatedWith(IndexedUnit.class)) {
+			TypeElement unit = (TypeElement) element;
+			IndexedUnit indexed = unit.getAnnotation(IndexedUnit.class);
+			if (verify(unit, indexed)) {
+				String className = processingEnv.getElementUtils().getBinaryName(unit).toString();
+				entries.put(className, toXml(className, indexed));
+			}
+		}
+		if (roundEnv.processingOver() && !entries.isEmpty()) {
+			writeIndex();
+		}
+		return true;
+	}
+
+	private boolean verify(TypeElement unit, IndexedUnit indexed) {
+		Set<Modifier> modifiers = unit.getModifiers();
+		if (unit.getKind() != ElementKind.CLASS || !modifiers.contains(Modifier.PUBLIC)
+				|| modifiers.contains(Modifier.ABSTRACT)
+				|| (unit.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC))) {
+			return error(unit, "Indexed units must be public, concrete, top level or static classes");
+		}
+		TypeMirror roboUnit = processingEnv.getTypeUtils()
+				.erasure(processingEnv.getElementUtils().getTypeElement(ROBO_UNIT).asType());
+		if (!processingEnv.getTypeUtils().isAssignable(unit.asType(), roboUnit)) {
+			return error(unit, "Indexed units must extend " + ROBO_UNIT);
+		}
+		if (!hasUnitConstructor(unit)) {
+			return error(unit, "Indexed units need a public constructor taking a " + ROBO_CONTEXT + " and a String");
+		}
+		if (indexed.id().trim().isEmpty()) {
+			return error(unit, "The id of an indexed unit must not be empty");
+		}
+		String className = unit.getQualifiedName().toString();
+		String previous = classById.putIfAbsent(indexed.id(), className);
+		if (previous != null && !previous.equals(className)) {
+			return error(unit, "The id " + indexed.id() + " is already used by " + previous);
+		}
+		for (IndexedUnit.Value value : indexed.config()) {
+			String problem = checkValue(value);
+			if (problem != null) {
+				return error(unit, "Bad configuration value " + value.name() + ": " + problem);
+			}
+		}
+		return true;
+	}
+
+	private boolean hasUnitConstructor(TypeElement unit) {
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(unit.getEnclosedElements())) {
+			if (constructor.getModifiers().contains(Modifier.PUBLIC) && constructor.getParameters().size() == 2
+					&& isType(constructor.getParameters().get(0).asType(), ROBO_CONTEXT)
+					&& isType(constructor.getParameters().get(1).asType(), String.class.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isType(TypeMirror type, String className) {
+		return processingEnv.getTypeUtils().erasure(type).toString().equals(className);
+	}
+
+	private static String checkValue(IndexedUnit.Value value) {
+		try {
+			switch (value.type()) {
+			case "String":
+				return null;
+			case "int":
+				Integer.parseInt(value.value().trim());
+				return null;
+			case "long":
+				Long.parseLong(value.value().trim());
+				return null;
+			case "float":
+				Float.parseFloat(value.value().trim());
+				return null;
+			case "double":
+				Double.parseDouble(value.value().trim());
+				return null;
+			case "boolean":
+				String text = value.value().trim();
+				return "true".equalsIgnoreCase(text) || "false".equalsIgnoreCase(text) ? null
+						: "not a valid boolean";
+			default:
+				return "unknown type " + value.type();
+			}
+		} catch (NumberFormatException e) {
+			return "not a valid " + value.type();
+		}
+	}
+
+	private boolean error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Kind.ERROR, message, element);
+		return false;
+	}
+
+	private static String toXml(String className, IndexedUnit indexed) {
+		StringBuilder xml = new StringBuilder();
+		xml.append("\t<roboUnit id=\"").append(escape(indexed.id())).append("\">\n");
+		xml.append("\t\t<class>").append(className).append("</class>\n");
+		if (indexed.config().length > 0) {
+			xml.append("\t\t<config name=\"").append(ROOT_CONFIG).append("\">\n");
+			for (IndexedUnit.Value value : indexed.config()) {
+				xml.append("\t\t\t<value name=\"").append(escape(value.name())).append("\" type=\"")
+						.append(value.type()).append("\">").append(escape(value.value())).append("</value>\n");
+			}
+			xml.append("\t\t</config>\n");
+		}
+		return xml.append("\t</roboUnit>\n").toString();
+	}
+
+	private static String escape(String text) {
+		StringBuilder escaped = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '&':
+				escaped.append("&amp;");
+				break;
+			case '<':
+				escaped.append("&lt;");
+				break;
+			case '>':
+				escaped.append("&gt;");
+				break;
+			case '"':
+				escaped.append("&quot;");
+				break;
+			default:
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	private void writeIndex() {
+		try {
+			FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+					INDEX_RESOURCE);
+			try (Writer writer = new OutputStreamWriter(index.openOutputStream(), StandardCharsets.UTF_8)) {
+				writer.write("<!-- Generated by " + getClass().getName() + ". Do not edit. -->\n");
+				writer.write("<robo4j>\n");
+				for (String entry : entries.values()) {
+					writer.write(entry);
+				}
+				writer.write("</robo4j>\n");
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR, "Could not write " + INDEX_RESOURCE + ": " + e);
+		}
+	}
+}
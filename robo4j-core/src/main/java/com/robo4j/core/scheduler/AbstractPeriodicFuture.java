@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.scheduler;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import com.robo4j.core.RoboReference;
+import com.robo4j.core.logging.SimpleLoggingUtil;
+
+/**
+ * The state of a periodic schedule, shared by the scheduler
+ * implementations. The schedulers decide when to call {@link #fire()}.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+abstract class AbstractPeriodicFuture implements PeriodicFuture {
+	private static final int WAITING = 0;
+	private static final int CANCELLED = 1;
+	private static final int FAILED = 2;
+	private static final AtomicIntegerFieldUpdater<AbstractPeriodicFuture> STATE = AtomicIntegerFieldUpdater
+			.newUpdater(AbstractPeriodicFuture.class, "state");
+
+	private final ScheduledMessageWrapper<?> job;
+	private volatile int state = WAITING;
+	private volatile Throwable failure;
+
+	AbstractPeriodicFuture(ScheduledMessageWrapper<?> job) {
+		this.job = job;
+	}
+
+	/**
+	 * Fires the job once.
+	 * 
+	 * @return true if the job should fire again, at
+	 *         {@link #getIntendedNanos()}.
+	 */
+	final boolean fire() {
+		if (state != WAITING) {
+			return false;
+		}
+		try {
+			return advance(job.fire());
+		} catch (Throwable t) {
+			return failed(t);
+		}
+	}
+
+	/**
+	 * Accounts for a firing where the scheduler delivered the message itself,
+	 * together with the messages of other schedules.
+	 * 
+	 * @param start
+	 *            the {@link System#nanoTime()} when the delivery started.
+	 * @param end
+	 *            the {@link System#nanoTime()} when the delivery ended.
+	 * @return true if the job should fire again, at
+	 *         {@link #getIntendedNanos()}.
+	 */
+	final boolean fired(long start, long end) {
+		if (state != WAITING) {
+			return false;
+		}
+		try {
+			return advance(job.fired(start, end));
+		} catch (Throwable t) {
+			return failed(t);
+		}
+	}
+
+	/**
+	 * Fails the schedule, like a
+	 * {@link java.util.concurrent.ScheduledThreadPoolExecutor} does when
+	 * a periodic task throws.
+	 * 
+	 * @return false, never fire again.
+	 */
+	final boolean failed(Throwable t) {
+		failure = t;
+		if (complete(FAILED)) {
+			SimpleLoggingUtil.error(getClass(), job + " failed", new ExecutionException(t));
+		}
+		return false;
+	}
+
+	private boolean advance(boolean again) {
+		if (!again) {
+			// All invocations done
+			complete(CANCELLED);
+			return false;
+		}
+		return state == WAITING;
+	}
+
+	final RoboReference<?> getTarget() {
+		return job.getReference();
+	}
+
+	/**
+	 * @see ScheduledMessageWrapper#nextMessage()
+	 */
+	final Object nextMessage() {
+		return job.nextMessage();
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} at which the next firing is
+	 *         intended.
+	 */
+	final long getIntendedNanos() {
+		return job.getIntendedNanos();
+	}
+
+	/**
+	 * @see ScheduledMessageWrapper#getPeriodNanos()
+	 */
+	final long getPeriodNanos() {
+		return job.getPeriodNanos();
+	}
+
+	/**
+	 * Called once if the schedule is cancelled from the outside.
+	 */
+	void onCancel() {
+	}
+
+	/**
+	 * Called once when the schedule is done, for whatever reason, before
+	 * anyone waiting for it is woken up.
+	 */
+	void onDone() {
+	}
+
+	@Override
+	public ScheduleStatistics getStatistics() {
+		return job.getStatistics();
+	}
+
+	@Override
+	public OverrunPolicy getOverrunPolicy() {
+		return job.getOverrunPolicy();
+	}
+
+	@Override
+	public long getDelay(TimeUnit unit) {
+		return unit.convert(job.getIntendedNanos() - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public int compareTo(Delayed o) {
+		return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!complete(CANCELLED)) {
+			return false;
+		}
+		onCancel();
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return state == CANCELLED;
+	}
+
+	@Override
+	public boolean isDone() {
+		return state != WAITING;
+	}
+
+	@Override
+	public synchronized Void get() throws InterruptedException, ExecutionException {
+		while (!isDone()) {
+			wait();
+		}
+		return getResult();
+	}
+
+	@Override
+	public synchronized Void get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long end = System.nanoTime() + unit.toNanos(timeout);
+		while (!isDone()) {
+			long remaining = end - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return getResult();
+	}
+
+	private Void getResult() throws ExecutionException {
+		if (state == FAILED) {
+			throw new ExecutionException(failure);
+		}
+		throw new CancellationException();
+	}
+
+	private boolean complete(int finalState) {
+		if (!STATE.compareAndSet(this, WAITING, finalState)) {
+			return false;
+		}
+		onDone();
+		synchronized (this) {
+			notifyAll();
+		}
+		return true;
+	}
+}
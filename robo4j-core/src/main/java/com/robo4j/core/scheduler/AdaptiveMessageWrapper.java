@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.scheduler;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.robo4j.core.RoboContext;
+import com.robo4j.core.RoboReference;
+
+/**
+ * Used by the schedulers for adaptive polling schedules. Every firing polls
+ * the sensor, sends the reading, and adapts the period to how much the
+ * readings change.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+class AdaptiveMessageWrapper<R> extends ScheduledMessageWrapper<R> {
+	private final Callable<? extends R> sensor;
+	private final AdaptiveRate<R> rate;
+	// Only touched by the firing thread
+	private final List<R> readings;
+	private final List<R> readingsView;
+	private long periodNanos;
+
+	AdaptiveMessageWrapper(RoboContext context, RoboReference<R> reference, int numberOfInvocations,
+			Callable<? extends R> sensor, FinalInvocationListener listener, long delay, TimeUnit unit,
+			AdaptiveRate<R> rate) {
+		// A poll has no reason to catch up on missed readings
+		super(context, reference, numberOfInvocations, null, listener, unit.toNanos(delay), rate.getMinPeriodNanos(),
+				TimeUnit.NANOSECONDS, OverrunPolicy.SHIFT_PHASE);
+		this.sensor = sensor;
+		this.rate = rate;
+		this.readings = new ArrayList<>(rate.getWindow());
+		this.readingsView = Collections.unmodifiableList(readings);
+		this.periodNanos = rate.getMinPeriodNanos();
+	}
+
+	/**
+	 * @return the current period, in nanoseconds.
+	 */
+	@Override
+	long getPeriodNanos() {
+		return periodNanos;
+	}
+
+	@Override
+	R nextMessage() {
+		R reading;
+		try {
+			reading = sensor.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new UndeclaredThrowableException(e, "Failed to poll " + sensor);
+		}
+		if (reading != null) {
+			if (readings.size() == rate.getWindow()) {
+				readings.remove(0);
+			}
+			readings.add(reading);
+		}
+		return reading;
+	}
+
+	@Override
+	long nextPeriodNanos() {
+		if (readings.size() >= 2) {
+			if (rate.getMetric().change(readingsView) > rate.getThreshold()) {
+				periodNanos = rate.getMinPeriodNanos();
+			} else {
+				periodNanos = Math.min(rate.getMaxPeriodNanos(), (long) Math.ceil(periodNanos * rate.getBackoff()));
+			}
+		}
+		return periodNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "Adaptive poll of " + sensor + " with " + rate;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The rate of an adaptive polling schedule, see
+ * {@link Scheduler#schedule(com.robo4j.core.RoboReference, java.util.concurrent.Callable, long, TimeUnit, AdaptiveRate, int, FinalInvocationListener)}.
+ * 
+ * <p>
+ * The schedule starts at the minimum period. After every reading, the
+ * {@link ChangeMetric} is applied to the last readings. If the change is
+ * above the threshold, the schedule goes straight back to the minimum
+ * period, otherwise the period grows by the backoff factor, up to the
+ * maximum period. A robot standing still is thus polled rarely, and one
+ * starting to move is polled at full rate from the first changed reading.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public final class AdaptiveRate<R> {
+	public static final double DEFAULT_BACKOFF = 1.5;
+
+	private final long minPeriodNanos;
+	private final long maxPeriodNanos;
+	private final int window;
+	private final double threshold;
+	private final double backoff;
+	private final ChangeMetric<? super R> metric;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param minPeriod
+	 *            the period while the signal changes.
+	 * @param maxPeriod
+	 *            the period when the signal is static.
+	 * @param unit
+	 *            the time unit of the periods.
+	 * @param window
+	 *            the number of readings to hand to the metric, at least 2.
+	 * @param threshold
+	 *            the change above which the signal is considered changing.
+	 * @param metric
+	 *            the metric to apply to the readings.
+	 */
+	public AdaptiveRate(long minPeriod, long maxPeriod, TimeUnit unit, int window, double threshold,
+			ChangeMetric<? super R> metric) {
+		this(minPeriod, maxPeriod, unit, window, threshold, DEFAULT_BACKOFF, metric);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param minPeriod
+	 *            the period while the signal changes.
+	 * @param maxPeriod
+	 *            the period when the signal is static.
+	 * @param unit
+	 *            the time unit of the periods.
+	 * @param window
+	 *            the number of readings to hand to the metric, at least 2.
+	 * @param threshold
+	 *            the change above which the signal is considered changing.
+	 * @param backoff
+	 *            the factor to grow the period by after a reading without
+	 *            change, larger than 1.
+	 * @param metric
+	 *            the metric to apply to the readings.
+	 */
+	public AdaptiveRate(long minPeriod, long maxPeriod, TimeUnit unit, int window, double threshold, double backoff,
+			ChangeMetric<? super R> metric) {
+		if (minPeriod <= 0 || maxPeriod < minPeriod) {
+			throw new IllegalArgumentException(
+					"Need 0 < minimum period <= maximum period, got " + minPeriod + " and " + maxPeriod);
+		}
+		if (window < 2) {
+			throw new IllegalArgumentException("The window must hold at least two readings, was " + window);
+		}
+		if (!(backoff > 1)) {
+			throw new IllegalArgumentException("The backoff must be larger than 1, was " + backoff);
+		}
+		if (metric == null) {
+			throw new NullPointerException("metric");
+		}
+		this.minPeriodNanos = unit.toNanos(minPeriod);
+		this.maxPeriodNanos = unit.toNanos(maxPeriod);
+		this.window = window;
+		this.threshold = threshold;
+		this.backoff = backoff;
+		this.metric = metric;
+	}
+
+	public long getMinPeriod(TimeUnit unit) {
+		return unit.convert(minPeriodNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public long getMaxPeriod(TimeUnit unit) {
+		return unit.convert(maxPeriodNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	public double getBackoff() {
+		return backoff;
+	}
+
+	public ChangeMetric<? super R> getMetric() {
+		return metric;
+	}
+
+	long getMinPeriodNanos() {
+		return minPeriodNanos;
+	}
+
+	long getMaxPeriodNanos() {
+		return maxPeriodNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "AdaptiveRate [min=" + minPeriodNanos + "ns, max=" + maxPeriodNanos + "ns, window=" + window
+				+ ", threshold=" + threshold + ", backoff=" + backoff + "]";
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.scheduler;
+
+import java.util.List;
+
+/**
+ * Measures how much a polled signal changes, for an {@link AdaptiveRate}
+ * schedule.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+@FunctionalInterface
+public interface ChangeMetric<R> {
+	/**
+	 * @param readings
+	 *            the most recent readings, oldest first. Contains at least
+	 *            two readings. Only valid for the duration of the call.
+	 * @return how much the signal changed over the readings, in whatever
+	 *         unit the threshold of the {@link AdaptiveRate} is given in.
+	 */
+	double change(List<? extends R> readings);
+
+	/**
+	 * @return a metric giving the difference between the largest and the
+	 *         smallest of the readings.
+	 */
+	static ChangeMetric<Number> spread() {
+		return readings -> {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (Number reading : readings) {
+				min = Math.min(min, reading.doubleValue());
+				max = Math.max(max, reading.doubleValue());
+			}
+			return max - min;
+		};
+	}
+}
@@ -16,19 +16,46 @@
  */
 package com.robo4j.core.scheduler;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import com.robo4j.core.DispatchMode;
 import com.robo4j.core.RoboContext;
 import com.robo4j.core.RoboReference;
+import com.robo4j.core.RoboSystem;
 import com.robo4j.core.RoboUnit;
 import com.robo4j.core.concurrency.RoboThreadFactory;
+import com.robo4j.core.jfr.CoreEvents;
 
 /**
  * This is the default scheduler used in Robo4J.
  * 
+ * <p>
+ * Every periodic schedule is one fixed rate task of the executor. Firings
+ * skipped by the {@link OverrunPolicy} are passed over when the executor
+ * catches up on them. The task is only re-armed when the phase or the period
+ * of the schedule changes, that is after a {@link OverrunPolicy#SHIFT_PHASE}
+ * overrun, or when an adaptive schedule changes its rate.
+ * 
+ * <p>
+ * Optionally, firings can be fused: all firings aimed at the same target and
+ * falling into the same fusion window are delivered together, as one task,
+ * at the end of the window. A {@link RoboUnit} target gets the messages
+ * through {@link RoboUnit#onMessages(List)} if it accepts batches, or else
+ * through {@link RoboUnit#onMessage(Object)}, in the order the schedules
+ * joined the window. Units of a {@link DispatchMode#MAILBOX} system get them
+ * queued in their mailbox as one entry, see
+ * {@link RoboReference#sendBatch(List)}. This trades up to one window of lateness for one
+ * dispatch instead of many, when lots of schedules poll the same unit.
+ * 
  * @author Marcus Hirt (@hirt)
  * @author Miroslav Wengner (@miragemiko)
  */
@@ -37,6 +64,197 @@ public class DefaultScheduler implements Scheduler {
 
 	private final ScheduledExecutorService executor;
 	private final RoboContext context;
+	// 0 disables fusion
+	private final long fusionWindowNanos;
+	private final ConcurrentHashMap<FusionKey, FusedFiring> fusing = new ConcurrentHashMap<>();
+
+	private static final class FusionKey {
+		private final RoboReference<?> target;
+		private final long window;
+
+		FusionKey(RoboReference<?> target, long window) {
+			this.target = target;
+			this.window = window;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(target) + Long.hashCode(window);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof FusionKey)) {
+				return false;
+			}
+			FusionKey other = (FusionKey) obj;
+			return target == other.target && window == other.window;
+		}
+	}
+
+	/**
+	 * The firings to one target in one fusion window.
+	 */
+	private final class FusedFiring implements Runnable {
+		private final FusionKey key;
+		// Guarded by this
+		private final List<PeriodicTask> tasks = new ArrayList<>(4);
+		private boolean closed;
+
+		FusedFiring(FusionKey key) {
+			this.key = key;
+		}
+
+		synchronized boolean add(PeriodicTask task) {
+			if (closed) {
+				return false;
+			}
+			tasks.add(task);
+			return true;
+		}
+
+		@Override
+		public void run() {
+			fusing.remove(key, this);
+			List<PeriodicTask> firing = new ArrayList<>();
+			synchronized (this) {
+				closed = true;
+				for (PeriodicTask task : tasks) {
+					if (!task.isDone()) {
+						firing.add(task);
+					}
+				}
+			}
+			if (firing.size() == 1) {
+				firing.get(0).run();
+			} else if (!firing.isEmpty()) {
+				runFused(firing);
+			}
+		}
+
+		private void runFused(List<PeriodicTask> tasks) {
+			List<PeriodicTask> firing = new ArrayList<>(tasks.size());
+			List<Object> messages = new ArrayList<>(tasks.size());
+			long earliest = Long.MAX_VALUE;
+			long start = System.nanoTime();
+			for (PeriodicTask task : tasks) {
+				Object message;
+				try {
+					message = task.nextMessage();
+				} catch (Throwable t) {
+					task.failed(t);
+					continue;
+				}
+				if (message != null) {
+					messages.add(message);
+				}
+				firing.add(task);
+				earliest = Math.min(earliest, task.getIntendedNanos());
+			}
+			Object event = CoreEvents.isSchedulerEnabled() && !messages.isEmpty()
+					? CoreEvents.schedulerFireStarted(key.target.getId(), messages.get(0).getClass(),
+							Math.max(0, start - earliest))
+					: null;
+			Throwable failure = null;
+			try {
+				sendMessages(key.target, messages);
+			} catch (Throwable t) {
+				failure = t;
+			} finally {
+				CoreEvents.schedulerFireEnded(event);
+			}
+			long end = System.nanoTime();
+			for (PeriodicTask task : firing) {
+				if (failure != null) {
+					task.failed(failure);
+				} else if (task.fired(start, end)) {
+					task.rescheduleNext();
+				}
+			}
+		}
+	}
+
+	private final class PeriodicTask extends AbstractPeriodicFuture implements Runnable {
+		private volatile ScheduledFuture<?> next;
+		// The first firing and the period the executor is armed with. Only
+		// touched by the firing thread, once armed.
+		private long armedNanos;
+		private long armedPeriodNanos;
+
+		PeriodicTask(ScheduledMessageWrapper<?> job) {
+			super(job);
+		}
+
+		void scheduleNext() {
+			if (fusionWindowNanos > 0) {
+				fuse(this);
+			} else {
+				arm();
+			}
+		}
+
+		void rescheduleNext() {
+			try {
+				scheduleNext();
+			} catch (RejectedExecutionException e) {
+				// Shut down
+				cancel(false);
+			}
+		}
+
+		/**
+		 * Has the executor run the task at the intended start of the next
+		 * firing, and then once every period.
+		 */
+		private void arm() {
+			ScheduledFuture<?> previous = next;
+			if (previous != null) {
+				previous.cancel(false);
+			}
+			armedNanos = getIntendedNanos();
+			armedPeriodNanos = getPeriodNanos();
+			next = executor.scheduleAtFixedRate(this, armedNanos - System.nanoTime(), armedPeriodNanos,
+					TimeUnit.NANOSECONDS);
+			if (isDone()) {
+				// Raced with a cancel
+				next.cancel(false);
+			}
+		}
+
+		/**
+		 * @return true if the executor will run the task at the intended start
+		 *         of the next firing.
+		 */
+		private boolean isArmedForNext() {
+			return getPeriodNanos() == armedPeriodNanos && (getIntendedNanos() - armedNanos) % armedPeriodNanos == 0;
+		}
+
+		@Override
+		public void run() {
+			if (fusionWindowNanos > 0) {
+				// Run by the fusion window
+				if (fire()) {
+					rescheduleNext();
+				}
+				return;
+			}
+			if (System.nanoTime() - getIntendedNanos() < 0) {
+				// The executor catching up on firings skipped after an overrun
+				return;
+			}
+			if (fire() && !isArmedForNext()) {
+				rescheduleNext();
+			}
+		}
+
+		@Override
+		void onDone() {
+			ScheduledFuture<?> scheduled = next;
+			if (scheduled != null) {
+				scheduled.cancel(false);
+			}
+		}
+	}
 
 	/**
 	 * Default constructor.
@@ -57,51 +275,138 @@ public class DefaultScheduler implements Scheduler {
 	 *            the number of threads in the thread pool.
 	 */
 	public DefaultScheduler(RoboContext context, int numberOfThreads) {
+		this(context, numberOfThreads, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param context
+	 *            the context.
+	 * @param numberOfThreads
+	 *            the number of threads in the thread pool.
+	 * @param fusionWindow
+	 *            the length of the fusion window, or 0 to deliver every
+	 *            firing separately.
+	 * @param unit
+	 *            the time unit of the fusion window.
+	 */
+	public DefaultScheduler(RoboContext context, int numberOfThreads, long fusionWindow, TimeUnit unit) {
+		if (fusionWindow < 0) {
+			throw new IllegalArgumentException("The fusion window must not be negative, was " + fusionWindow);
+		}
 		this.context = context;
-		this.executor = new ScheduledThreadPoolExecutor(numberOfThreads,
+		this.fusionWindowNanos = unit.toNanos(fusionWindow);
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(numberOfThreads,
 				new RoboThreadFactory("Robo4J Scheduler ", true));
+		// Do not keep cancelled timers around until they would have expired
+		executor.setRemoveOnCancelPolicy(true);
+		this.executor = executor;
 	}
 
 	@Override
-	public <T> ScheduledFuture<?> schedule(RoboReference<T> target, T message, long delay, long interval, TimeUnit unit,
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long interval, TimeUnit unit,
 			int numberOfInvocations) {
 		return schedule(target, message, delay, interval, unit, numberOfInvocations, null);
 	}
 
 	@Override
-	public <T> ScheduledFuture<?> schedule(RoboReference<T> target, T message, long delay, long period, TimeUnit unit,
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long period, TimeUnit unit,
 			int numberOfInvocations, FinalInvocationListener listener) {
-		ScheduledMessageWrapper<T> command = createCommand(target, numberOfInvocations, message, listener);
-		ScheduledFuture<?> future = executor.scheduleAtFixedRate(command, delay, period, unit);
-		command.setFuture(future);
-		return future;
+		return schedule(target, message, delay, period, unit, numberOfInvocations, listener, OverrunPolicy.CATCH_UP);
+	}
+
+	@Override
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long period, TimeUnit unit,
+			int numberOfInvocations, FinalInvocationListener listener, OverrunPolicy policy) {
+		return schedule(new ScheduledMessageWrapper<>(context, target, numberOfInvocations, message, listener, delay,
+				period, unit, policy));
 	}
 
-	private <T> ScheduledMessageWrapper<T> createCommand(RoboReference<T> reference, int numberOfInvocations, T message,
-			FinalInvocationListener listener) {
-		return new ScheduledMessageWrapper<>(context, reference, numberOfInvocations, message, listener);
+	@Override
+	public <R> PeriodicFuture schedule(RoboReference<R> target, Callable<? extends R> sensor, long delay,
+			TimeUnit unit, AdaptiveRate<R> rate, int numberOfInvocations, FinalInvocationListener listener) {
+		return schedule(
+				new AdaptiveMessageWrapper<>(context, target, numberOfInvocations, sensor, listener, delay, unit, rate));
 	}
 
 	@Override
-	public <T> ScheduledFuture<?> schedule(RoboReference<T> target, T message, long delay, long interval,
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long interval,
 			TimeUnit unit) {
-		return executor.scheduleAtFixedRate(new Runnable() {
-			@Override
-			public void run() {
-				sendMessage(target, message);
+		return schedule(target, message, delay, interval, unit, 0);
+	}
+
+	private PeriodicFuture schedule(ScheduledMessageWrapper<?> wrapper) {
+		PeriodicTask task = new PeriodicTask(wrapper);
+		task.scheduleNext();
+		return task;
+	}
+
+	@Override
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Adds the next firing of the task to the fusion window it falls into.
+	 */
+	private void fuse(PeriodicTask task) {
+		// Windows end on multiples of the window length, so that the firing
+		// is never early
+		long window = Math.floorDiv(task.getIntendedNanos() - 1, fusionWindowNanos) + 1;
+		FusionKey key = new FusionKey(task.getTarget(), window);
+		for (;;) {
+			FusedFiring firing = fusing.computeIfAbsent(key, k -> {
+				FusedFiring created = new FusedFiring(k);
+				executor.schedule(created, k.window * fusionWindowNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+				return created;
+			});
+			if (firing.add(task)) {
+				return;
 			}
+			// Already running - make way for a new window
+			fusing.remove(key, firing);
+		}
+	}
 
-		}, delay, interval, unit);
+	static void sendMessages(final RoboReference<?> reference, final List<Object> messages) {
+		if (!isDeliveredDirectly(reference)) {
+			reference.sendBatch(messages);
+			return;
+		}
+		RoboUnit<?> unit = (RoboUnit<?>) reference;
+		int batchSize = unit.getMaxBatchSize();
+		if (batchSize <= 1) {
+			for (Object message : messages) {
+				unit.onMessage(message);
+			}
+			return;
+		}
+		for (int i = 0; i < messages.size(); i += batchSize) {
+			unit.onMessages(Collections.unmodifiableList(messages.subList(i, Math.min(messages.size(), i + batchSize))));
+		}
 	}
-	
+
 	static void sendMessage(final RoboReference<?> reference, final Object message) {
 		// Performance optimization - let the scheduling thread deliver the message directly
 		// if this is robo unit implementation, instead of enqueuing it with the message
 		// executor.
-		if (reference instanceof RoboUnit) {
+		if (isDeliveredDirectly(reference)) {
 			((RoboUnit<?>) reference).onMessage(message);
 		} else {
-			reference.sendMessage(message);
+			reference.sendOneWay(message);
+		}
+	}
+
+	/**
+	 * Units of a system in {@link DispatchMode#MAILBOX} must only be run by
+	 * their mailbox, or they could be running on two threads at once.
+	 */
+	private static boolean isDeliveredDirectly(RoboReference<?> reference) {
+		if (!(reference instanceof RoboUnit)) {
+			return false;
 		}
+		RoboContext context = ((RoboUnit<?>) reference).getContext();
+		return !(context instanceof RoboSystem) || ((RoboSystem) context).getDispatchMode() != DispatchMode.MAILBOX;
 	}
 }
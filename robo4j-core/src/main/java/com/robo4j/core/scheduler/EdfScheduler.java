@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.scheduler;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.robo4j.core.DispatchMode;
+import com.robo4j.core.RoboContext;
+import com.robo4j.core.RoboReference;
+import com.robo4j.core.RoboUnit;
+import com.robo4j.core.concurrency.RoboThreadFactory;
+
+/**
+ * An earliest deadline first {@link Scheduler}, for control loops which need
+ * bounded latency.
+ *
+ * <p>
+ * Every firing gets an absolute deadline when released - its intended start
+ * plus the relative deadline of its {@link TimingConstraint} - and the
+ * released firing with the earliest deadline runs next, ties broken by
+ * priority. Firings run one at a time on a dedicated high priority thread.
+ * Being non-preemptive, a firing which has started always runs to completion.
+ *
+ * <p>
+ * In a system sharing one queue, the messages are handled by the target unit
+ * straight on the scheduler thread, so they never queue behind other work in
+ * the system thread pool. Just as with the pool, the unit may then be handling
+ * other messages at the same time. In a {@link DispatchMode#MAILBOX} system the
+ * messages are put in the mailbox of the unit instead, keeping its messages
+ * handled one at a time, and the deadline only covers the hand over.
+ *
+ * <p>
+ * Schedules with a budget are checked for feasibility when registered: the
+ * sum of budget / min(deadline, period) over all schedules, plus the
+ * blocking caused by the largest budget, must not exceed 1. Schedules
+ * registered through the plain {@link Scheduler} methods get their period as
+ * deadline and no budget, and are not part of the check.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class EdfScheduler implements Scheduler {
+	public static final int DEFAULT_PRIORITY = 0;
+
+	// Compares differences, as nano times may wrap around
+	private static final Comparator<EdfJob> BY_RELEASE = (a, b) -> Long.compare(a.releaseNanos - b.releaseNanos, 0);
+	private static final Comparator<EdfJob> BY_DEADLINE = (a, b) -> {
+		int result = Long.compare(a.absoluteDeadlineNanos - b.absoluteDeadlineNanos, 0);
+		return result != 0 ? result : Integer.compare(b.constraint.getPriority(), a.constraint.getPriority());
+	};
+
+	private final RoboContext context;
+	private final Thread worker;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	// Guarded by lock
+	private final PriorityQueue<EdfJob> releases = new PriorityQueue<>(BY_RELEASE);
+	private final PriorityQueue<EdfJob> ready = new PriorityQueue<>(BY_DEADLINE);
+	private double density;
+	private long maxBudgetNanos;
+	private long minDeadlineNanos = Long.MAX_VALUE;
+	private boolean shutdown;
+
+	private final class EdfJob extends AbstractPeriodicFuture {
+		private final TimingConstraint constraint;
+		private final long periodNanos;
+		// Guarded by lock
+		private long releaseNanos;
+		private long absoluteDeadlineNanos;
+		private boolean registered = true;
+
+		EdfJob(ScheduledMessageWrapper<?> job, TimingConstraint constraint, long periodNanos) {
+			super(job);
+			this.constraint = constraint;
+			this.periodNanos = periodNanos;
+		}
+
+		double getDensity() {
+			return (double) constraint.getBudgetNanos()
+					/ Math.min(constraint.getRelativeDeadlineNanos(), periodNanos);
+		}
+
+		@Override
+		void onCancel() {
+			lock.lock();
+			try {
+				releases.remove(this);
+				ready.remove(this);
+				changed.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		void onDone() {
+			lock.lock();
+			try {
+				unregister(this);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param context
+	 *            the context.
+	 */
+	public EdfScheduler(RoboContext context) {
+		this.context = context;
+		// Timing does not mix well with virtual threads
+		worker = new RoboThreadFactory("Robo4J EDF Scheduler ", true, false).newThread(this::runJobs);
+		worker.setPriority(Thread.MAX_PRIORITY);
+		worker.start();
+	}
+
+	@Override
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long interval, TimeUnit unit,
+			int numberOfInvocations) {
+		return schedule(target, message, delay, interval, unit, numberOfInvocations, null);
+	}
+
+	@Override
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long period, TimeUnit unit,
+			int numberOfInvocations, FinalInvocationListener listener) {
+		return schedule(target, message, delay, period, unit, numberOfInvocations, listener, OverrunPolicy.CATCH_UP);
+	}
+
+	@Override
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long period, TimeUnit unit,
+			int numberOfInvocations, FinalInvocationListener listener, OverrunPolicy policy) {
+		return schedule(target, message, delay, period, unit, numberOfInvocations, listener, policy,
+				new TimingConstraint(period, 0, unit, DEFAULT_PRIORITY));
+	}
+
+	@Override
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long interval,
+			TimeUnit unit) {
+		return schedule(target, message, delay, interval, unit, 0);
+	}
+
+	/**
+	 * Schedules a message to the target, with a deadline for every firing.
+	 * 
+	 * @param target
+	 *            the reference to schedule the reference to.
+	 * @param message
+	 *            the message to send.
+	 * @param delay
+	 *            the time to delay first execution
+	 * @param period
+	 *            the period between successive executions
+	 * @param unit
+	 *            the time unit of the initialDelay and period parameters
+	 * @param numberOfInvocations
+	 *            the number of times to repeat the execution, or 0 to repeat
+	 *            until cancelled.
+	 * @param listener
+	 *            a listener which will be called after the final execution,
+	 *            may be null.
+	 * @param policy
+	 *            what to do when a firing has not finished by the time the
+	 *            next one is due.
+	 * @param constraint
+	 *            the deadline, budget and priority of the firings.
+	 * @return a PeriodicFuture representing pending completion of the task.
+	 * @throws InfeasibleScheduleException
+	 *             if the deadlines of the registered schedules could no
+	 *             longer be guaranteed.
+	 */
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long period, TimeUnit unit,
+			int numberOfInvocations, FinalInvocationListener listener, OverrunPolicy policy,
+			TimingConstraint constraint) {
+		return schedule(new ScheduledMessageWrapper<>(context, resolve(target), numberOfInvocations, message, listener,
+				delay, period, unit, policy), constraint, unit.toNanos(period));
+	}
+
+	/**
+	 * Schedules an adaptive poll, with the minimum period of the rate as the
+	 * deadline of every firing.
+	 */
+	@Override
+	public <R> PeriodicFuture schedule(RoboReference<R> target, Callable<? extends R> sensor, long delay,
+			TimeUnit unit, AdaptiveRate<R> rate, int numberOfInvocations, FinalInvocationListener listener) {
+		long minPeriod = rate.getMinPeriodNanos();
+		return schedule(new AdaptiveMessageWrapper<>(context, resolve(target), numberOfInvocations, sensor, listener,
+				delay, unit, rate), new TimingConstraint(minPeriod, 0, TimeUnit.NANOSECONDS, DEFAULT_PRIORITY),
+				minPeriod);
+	}
+
+	private PeriodicFuture schedule(ScheduledMessageWrapper<?> wrapper, TimingConstraint constraint,
+			long periodNanos) {
+		EdfJob job = new EdfJob(wrapper, constraint, periodNanos);
+		lock.lock();
+		try {
+			if (shutdown) {
+				throw new RejectedExecutionException("The scheduler has been shut down");
+			}
+			checkFeasibility(job);
+			density += job.getDensity();
+			if (constraint.getBudgetNanos() > 0) {
+				maxBudgetNanos = Math.max(maxBudgetNanos, constraint.getBudgetNanos());
+				minDeadlineNanos = Math.min(minDeadlineNanos, constraint.getRelativeDeadlineNanos());
+			}
+			release(job);
+		} finally {
+			lock.unlock();
+		}
+		return job;
+	}
+
+	/**
+	 * @return the share of the scheduler thread reserved by the budgets of
+	 *         the registered schedules, between 0 and 1.
+	 */
+	public double getDensity() {
+		lock.lock();
+		try {
+			return density;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Looks up the unit behind the reference, so that the messages can be
+	 * handled on the scheduler thread instead of in the system thread pool.
+	 * Units of a {@link DispatchMode#MAILBOX} system are still sent the
+	 * messages through their mailbox when the firing is run.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> RoboReference<T> resolve(RoboReference<T> target) {
+		if (target instanceof RoboUnit) {
+			return target;
+		}
+		for (RoboUnit<?> unit : context.getUnits()) {
+			if (unit.getId().equals(target.getId())) {
+				return (RoboReference<T>) unit;
+			}
+		}
+		return target;
+	}
+
+	// Guarded by lock
+	private void checkFeasibility(EdfJob job) {
+		long budget = job.constraint.getBudgetNanos();
+		if (budget == 0) {
+			return;
+		}
+		long deadline = job.constraint.getRelativeDeadlineNanos();
+		if (budget > deadline || budget > job.periodNanos) {
+			throw new InfeasibleScheduleException("The budget of " + job.constraint + " exceeds its deadline or period");
+		}
+		double total = density + job.getDensity();
+		// Non-preemptive - any firing may have to wait for the longest one
+		double blocking = (double) Math.max(maxBudgetNanos, budget) / Math.min(minDeadlineNanos, deadline);
+		if (total + blocking > 1.0) {
+			throw new InfeasibleScheduleException(String.format(
+					"Schedule with %s is not feasible: density would be %.3f, plus %.3f blocking", job.constraint,
+					total, blocking));
+		}
+	}
+
+	// Guarded by lock
+	private void release(EdfJob job) {
+		job.releaseNanos = job.getIntendedNanos();
+		releases.add(job);
+		changed.signal();
+	}
+
+	// Guarded by lock
+	private void unregister(EdfJob job) {
+		if (!job.registered) {
+			return;
+		}
+		job.registered = false;
+		density = Math.max(0, density - job.getDensity());
+		if (job.constraint.getBudgetNanos() > 0) {
+			// Recalculate the worst case from the remaining schedules
+			maxBudgetNanos = 0;
+			minDeadlineNanos = Long.MAX_VALUE;
+			forEachRegistered(releases);
+			forEachRegistered(ready);
+		}
+	}
+
+	private void forEachRegistered(PriorityQueue<EdfJob> jobs) {
+		for (EdfJob registered : jobs) {
+			if (registered.registered && registered.constraint.getBudgetNanos() > 0) {
+				maxBudgetNanos = Math.max(maxBudgetNanos, registered.constraint.getBudgetNanos());
+				minDeadlineNanos = Math.min(minDeadlineNanos, registered.constraint.getRelativeDeadlineNanos());
+			}
+		}
+	}
+
+	private void runJobs() {
+		for (;;) {
+			EdfJob job;
+			lock.lock();
+			try {
+				job = nextJob();
+				if (job == null) {
+					break;
+				}
+			} finally {
+				lock.unlock();
+			}
+			boolean again = job.fire();
+			boolean missed = System.nanoTime() - job.absoluteDeadlineNanos > 0;
+			if (missed) {
+				job.getStatistics().deadlineMissed();
+			}
+			if (again) {
+				lock.lock();
+				try {
+					release(job);
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+		cancelAll();
+	}
+
+	/**
+	 * Waits for the next firing to run.
+	 * 
+	 * @return the job with the earliest deadline, or null on shutdown.
+	 */
+	// Guarded by lock
+	private EdfJob nextJob() {
+		for (;;) {
+			if (shutdown) {
+				return null;
+			}
+			long now = System.nanoTime();
+			while (!releases.isEmpty() && releases.peek().releaseNanos - now <= 0) {
+				EdfJob released = releases.poll();
+				released.absoluteDeadlineNanos = released.releaseNanos
+						+ released.constraint.getRelativeDeadlineNanos();
+				ready.add(released);
+			}
+			EdfJob job = ready.poll();
+			if (job != null) {
+				return job;
+			}
+			try {
+				if (releases.isEmpty()) {
+					changed.await();
+				} else {
+					changed.awaitNanos(releases.peek().releaseNanos - now);
+				}
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+	}
+
+	private void cancelAll() {
+		lock.lock();
+		EdfJob[] remaining;
+		try {
+			shutdown = true;
+			remaining = releases.toArray(new EdfJob[0]);
+		} finally {
+			lock.unlock();
+		}
+		for (EdfJob job : remaining) {
+			job.cancel(false);
+		}
+	}
+}
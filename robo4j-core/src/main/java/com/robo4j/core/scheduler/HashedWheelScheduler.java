@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.robo4j.core.RoboContext;
+import com.robo4j.core.RoboReference;
+import com.robo4j.core.concurrency.RoboThreadFactory;
+
+/**
+ * A {@link Scheduler} based on a hashed timing wheel. Scheduling and
+ * cancelling are O(1), and all the timers expiring in the same tick are
+ * collected and fired as a batch. The price is resolution - timers fire on
+ * the first tick at or after their deadline.
+ *
+ * <p>
+ * The wheel is turned by a single thread, which also sends the scheduled
+ * messages. New timers are handed to it through a lock free queue, so only
+ * that thread ever touches the wheel. Cancelling only marks the timer, which
+ * is unlinked the next time its slot comes around.
+ *
+ * <p>
+ * Select it when creating the system, for example
+ * <code>new RoboSystem(4, DispatchMode.MAILBOX, HashedWheelScheduler::new)</code>.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class HashedWheelScheduler implements Scheduler {
+	public static final long DEFAULT_TICK_MICROS = 1000;
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private final RoboContext context;
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Queue<WheelTimeout> pending = new ConcurrentLinkedQueue<>();
+	private final Thread worker;
+	private final long startNanos;
+	private volatile boolean shutdown;
+
+	// Only touched by the worker
+	private long tick;
+	private final List<WheelTimeout> expired = new ArrayList<>();
+
+	/**
+	 * A doubly linked list of the timers hashed to a slot of the wheel.
+	 */
+	private static final class Bucket {
+		private WheelTimeout head;
+		private WheelTimeout tail;
+
+		void add(WheelTimeout timeout) {
+			timeout.bucket = this;
+			timeout.previous = tail;
+			timeout.next = null;
+			if (tail == null) {
+				head = timeout;
+			} else {
+				tail.next = timeout;
+			}
+			tail = timeout;
+		}
+
+		void remove(WheelTimeout timeout) {
+			if (timeout.previous == null) {
+				head = timeout.next;
+			} else {
+				timeout.previous.next = timeout.next;
+			}
+			if (timeout.next == null) {
+				tail = timeout.previous;
+			} else {
+				timeout.next.previous = timeout.previous;
+			}
+			timeout.bucket = null;
+			timeout.previous = null;
+			timeout.next = null;
+		}
+	}
+
+	private static final class WheelTimeout extends AbstractPeriodicFuture {
+		// Only touched by the worker
+		private long remainingRounds;
+		private Bucket bucket;
+		private WheelTimeout previous;
+		private WheelTimeout next;
+
+		WheelTimeout(ScheduledMessageWrapper<?> job) {
+			super(job);
+		}
+	}
+
+	/**
+	 * Creates a scheduler with the default tick and wheel size.
+	 * 
+	 * @param context
+	 *            the context.
+	 */
+	public HashedWheelScheduler(RoboContext context) {
+		this(context, DEFAULT_TICK_MICROS, TimeUnit.MICROSECONDS, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param context
+	 *            the context.
+	 * @param tick
+	 *            the resolution of the wheel.
+	 * @param unit
+	 *            the time unit of the tick.
+	 * @param wheelSize
+	 *            the number of slots in the wheel, rounded up to a power of
+	 *            two. Timers further away than a full turn wait for more
+	 *            turns.
+	 */
+	public HashedWheelScheduler(RoboContext context, long tick, TimeUnit unit, int wheelSize) {
+		if (tick <= 0) {
+			throw new IllegalArgumentException("The tick must be positive, was " + tick);
+		}
+		if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+			throw new IllegalArgumentException("Illegal wheel size " + wheelSize);
+		}
+		this.context = context;
+		this.tickNanos = Math.max(1, unit.toNanos(tick));
+		int size = Integer.highestOneBit(wheelSize);
+		if (size < wheelSize) {
+			size <<= 1;
+		}
+		wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		mask = size - 1;
+		startNanos = System.nanoTime();
+		// Timing does not mix well with virtual threads
+		worker = new RoboThreadFactory("Robo4J Timer Wheel ", true, false).newThread(this::turnWheel);
+		worker.start();
+	}
+
+	@Override
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long interval, TimeUnit unit,
+			int numberOfInvocations) {
+		return schedule(target, message, delay, interval, unit, numberOfInvocations, null);
+	}
+
+	@Override
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long period, TimeUnit unit,
+			int numberOfInvocations, FinalInvocationListener listener) {
+		return schedule(target, message, delay, period, unit, numberOfInvocations, listener, OverrunPolicy.CATCH_UP);
+	}
+
+	@Override
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long period, TimeUnit unit,
+			int numberOfInvocations, FinalInvocationListener listener, OverrunPolicy policy) {
+		return schedule(new ScheduledMessageWrapper<>(context, target, numberOfInvocations, message, listener, delay,
+				period, unit, policy));
+	}
+
+	@Override
+	public <R> PeriodicFuture schedule(RoboReference<R> target, Callable<? extends R> sensor, long delay,
+			TimeUnit unit, AdaptiveRate<R> rate, int numberOfInvocations, FinalInvocationListener listener) {
+		return schedule(
+				new AdaptiveMessageWrapper<>(context, target, numberOfInvocations, sensor, listener, delay, unit, rate));
+	}
+
+	private PeriodicFuture schedule(ScheduledMessageWrapper<?> wrapper) {
+		if (shutdown) {
+			throw new RejectedExecutionException("The scheduler has been shut down");
+		}
+		WheelTimeout timeout = new WheelTimeout(wrapper);
+		pending.offer(timeout);
+		if (shutdown) {
+			// Raced with the shutdown, and may have missed the final clean up
+			timeout.cancel(false);
+		}
+		return timeout;
+	}
+
+	@Override
+	public <T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long interval,
+			TimeUnit unit) {
+		return schedule(target, message, delay, interval, unit, 0);
+	}
+
+	/**
+	 * Stops the wheel. Timers not yet expired are cancelled.
+	 */
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		LockSupport.unpark(worker);
+	}
+
+	private void turnWheel() {
+		while (!shutdown) {
+			waitForTick();
+			if (shutdown) {
+				break;
+			}
+			transferPending();
+			expireBucket(wheel[(int) (tick & mask)]);
+			tick++;
+		}
+		cancelAll();
+	}
+
+	private void waitForTick() {
+		long deadline = startNanos + (tick + 1) * tickNanos;
+		for (;;) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0 || shutdown) {
+				return;
+			}
+			LockSupport.parkNanos(this, remaining);
+		}
+	}
+
+	private void transferPending() {
+		WheelTimeout timeout;
+		while ((timeout = pending.poll()) != null) {
+			if (!timeout.isDone()) {
+				place(timeout, tick);
+			}
+		}
+	}
+
+	/**
+	 * @param nextVisit
+	 *            the first tick at which the worker will visit a bucket.
+	 */
+	private void place(WheelTimeout timeout, long nextVisit) {
+		// Tick t is processed once start + (t + 1) * tick has passed
+		long targetTick = Math.max(nextVisit,
+				(timeout.getIntendedNanos() - startNanos + tickNanos - 1) / tickNanos - 1);
+		timeout.remainingRounds = (targetTick - nextVisit) / wheel.length;
+		wheel[(int) (targetTick & mask)].add(timeout);
+	}
+
+	private void expireBucket(Bucket bucket) {
+		WheelTimeout timeout = bucket.head;
+		while (timeout != null) {
+			WheelTimeout next = timeout.next;
+			if (timeout.isDone()) {
+				bucket.remove(timeout);
+			} else if (timeout.remainingRounds <= 0) {
+				bucket.remove(timeout);
+				expired.add(timeout);
+			} else {
+				timeout.remainingRounds--;
+			}
+			timeout = next;
+		}
+		try {
+			for (WheelTimeout due : expired) {
+				if (due.fire()) {
+					place(due, tick + 1);
+				}
+			}
+		} finally {
+			expired.clear();
+		}
+	}
+
+	private void cancelAll() {
+		for (Bucket bucket : wheel) {
+			while (bucket.head != null) {
+				WheelTimeout timeout = bucket.head;
+				bucket.remove(timeout);
+				timeout.cancel(false);
+			}
+		}
+		WheelTimeout timeout;
+		while ((timeout = pending.poll()) != null) {
+			timeout.cancel(false);
+		}
+	}
+}
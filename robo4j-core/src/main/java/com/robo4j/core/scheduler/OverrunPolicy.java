@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.scheduler;
+
+/**
+ * What a periodic schedule does when a firing overruns, that is when it has
+ * not finished by the time the next firing is due - because it started late,
+ * or because delivering the message took longer than the period.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public enum OverrunPolicy {
+	/**
+	 * The missed firings are made up for as soon as possible, back to back,
+	 * keeping both the number of firings and the phase. This is how a fixed
+	 * rate schedule behaves.
+	 */
+	CATCH_UP,
+
+	/**
+	 * The missed firings are skipped, and the schedule continues at the next
+	 * intended start time still ahead, keeping the phase. Skipped firings do
+	 * not count as invocations.
+	 */
+	SKIP,
+
+	/**
+	 * The schedule is re-anchored to the late firing - the next firing is one
+	 * period after the late one started, or right away if that has already
+	 * passed. No firings are made up for.
+	 */
+	SHIFT_PHASE
+}
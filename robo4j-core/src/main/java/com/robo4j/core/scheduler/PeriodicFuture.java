@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.scheduler;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * The future of a periodic schedule. The delay is the time left until the
+ * next intended firing. Like for any periodic {@link ScheduledFuture},
+ * get() only returns by throwing - a
+ * {@link java.util.concurrent.CancellationException} once cancelled or once
+ * all the invocations are done, or an
+ * {@link java.util.concurrent.ExecutionException} if sending failed.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public interface PeriodicFuture extends ScheduledFuture<Void> {
+	/**
+	 * @return the live timing statistics of the schedule.
+	 */
+	ScheduleStatistics getStatistics();
+
+	/**
+	 * @return what the schedule does when a firing overruns.
+	 */
+	OverrunPolicy getOverrunPolicy();
+}
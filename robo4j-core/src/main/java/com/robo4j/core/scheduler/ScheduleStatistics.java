@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.scheduler;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.robo4j.core.LatencyHistogram;
+
+/**
+ * Timing statistics of a periodic schedule, for tuning loop rates. Every
+ * firing is measured against its intended start time.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public final class ScheduleStatistics {
+	// Created on the first firing, as most timers never fire
+	private volatile LatencyHistogram jitter;
+	private volatile LatencyHistogram executionTime;
+	private final LongAdder firings = new LongAdder();
+	private final LongAdder overruns = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder deadlineMisses = new LongAdder();
+
+	/**
+	 * @return the histogram of how late the firings started, compared to
+	 *         their intended start time, in nanoseconds.
+	 */
+	public LatencyHistogram getJitter() {
+		LatencyHistogram histogram = jitter;
+		return histogram != null ? histogram : new LatencyHistogram();
+	}
+
+	/**
+	 * @return the histogram of the time taken to deliver the message, in
+	 *         nanoseconds. When the scheduler delivers directly to a unit, this
+	 *         includes the time spent in the handler.
+	 */
+	public LatencyHistogram getExecutionTime() {
+		LatencyHistogram histogram = executionTime;
+		return histogram != null ? histogram : new LatencyHistogram();
+	}
+
+	/**
+	 * @return the number of firings so far.
+	 */
+	public long getFiringCount() {
+		return firings.sum();
+	}
+
+	/**
+	 * @return the number of firings which had not finished by the time the
+	 *         next firing was due.
+	 */
+	public long getOverrunCount() {
+		return overruns.sum();
+	}
+
+	/**
+	 * @return the number of firings skipped, see {@link OverrunPolicy#SKIP}.
+	 */
+	public long getSkippedCount() {
+		return skipped.sum();
+	}
+
+	/**
+	 * @return the number of firings which finished after their deadline. Only
+	 *         counted for schedules with a {@link TimingConstraint}.
+	 */
+	public long getDeadlineMissCount() {
+		return deadlineMisses.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("firings=%d overruns=%d skipped=%d deadlineMisses=%d jitter[%s] execution[%s]",
+				getFiringCount(), getOverrunCount(), getSkippedCount(), getDeadlineMissCount(), getJitter(),
+				getExecutionTime());
+	}
+
+	/**
+	 * Only called by the firing thread.
+	 */
+	void fired(long latenessNanos, long executionNanos, boolean overrun) {
+		if (jitter == null) {
+			executionTime = new LatencyHistogram();
+			jitter = new LatencyHistogram();
+		}
+		jitter.record(latenessNanos);
+		executionTime.record(executionNanos);
+		firings.increment();
+		if (overrun) {
+			overruns.increment();
+		}
+	}
+
+	void deadlineMissed() {
+		deadlineMisses.increment();
+	}
+
+	void skipped(long count) {
+		skipped.add(count);
+	}
+}
@@ -16,37 +16,60 @@
  */
 package com.robo4j.core.scheduler;
 
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 import com.robo4j.core.RoboContext;
 import com.robo4j.core.RoboReference;
+import com.robo4j.core.jfr.CoreEvents;
 
 /**
- * Used by the scheduler.
+ * Used by the schedulers. Sends the message of a periodic schedule, keeps
+ * track of the intended start time of every firing, and applies the
+ * {@link OverrunPolicy} when a firing overruns.
+ *
+ * <p>
+ * Firings of the same schedule never overlap - the scheduler only arranges
+ * the next firing once the previous one is done.
  * 
  * @author Marcus Hirt (@hirt)
  * @author Miroslav Wengner (@miragemiko)
  */
-class ScheduledMessageWrapper<T> implements Runnable {
-	private final AtomicInteger counter;
+class ScheduledMessageWrapper<T> {
+	private final RoboContext context;
 	private final RoboReference<T> reference;
 	private final T message;
-	private final RoboContext context;
 	private final FinalInvocationListener listener;
-	private ScheduledFuture<?> future;
+	private final long periodNanos;
+	private final OverrunPolicy policy;
+	private final ScheduleStatistics statistics = new ScheduleStatistics();
+	// Only changed by the firing thread, but read by others
+	private volatile long intendedNanos;
+	// Left to fire, or 0 for no limit. Firings are handed over through the
+	// scheduler, which orders them.
+	private int remaining;
 
+	/**
+	 * @param numberOfInvocations
+	 *            the number of times to send the message, or 0 or less to
+	 *            send it until cancelled.
+	 */
 	public ScheduledMessageWrapper(RoboContext context, RoboReference<T> reference, int numberOfInvocations, T message,
-			FinalInvocationListener listener) {
+			FinalInvocationListener listener, long delay, long period, TimeUnit unit, OverrunPolicy policy) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("The period must be positive, was " + period);
+		}
 		this.context = context;
 		this.reference = reference;
 		this.message = message;
 		this.listener = listener;
-		counter = new AtomicInteger(numberOfInvocations);
+		this.periodNanos = unit.toNanos(period);
+		this.policy = policy == null ? OverrunPolicy.CATCH_UP : policy;
+		this.remaining = Math.max(0, numberOfInvocations);
+		this.intendedNanos = System.nanoTime() + unit.toNanos(Math.max(0, delay));
 	}
 
-	private void cancel() {
-		future.cancel(true);
+	RoboReference<T> getReference() {
+		return reference;
 	}
 
 	public T getMessage() {
@@ -54,23 +77,112 @@ class ScheduledMessageWrapper<T> implements Runnable {
 	}
 
 	public void onFinalInvocation(RoboContext context) {
-		listener.onFinalInvocation(context);
+		if (listener != null) {
+			listener.onFinalInvocation(context);
+		}
 	}
 
-	public void setFuture(ScheduledFuture<?> future) {
-		this.future = future;
+	ScheduleStatistics getStatistics() {
+		return statistics;
 	}
 
-	@Override
-	public void run() {
-		sendMessage();
-		if (counter.decrementAndGet() == 0) {
+	OverrunPolicy getOverrunPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the {@link System#nanoTime()} at which the next firing is
+	 *         intended.
+	 */
+	long getIntendedNanos() {
+		return intendedNanos;
+	}
+
+	/**
+	 * @return the current period, in nanoseconds.
+	 */
+	long getPeriodNanos() {
+		return periodNanos;
+	}
+
+	/**
+	 * Sends the message, and works out when to fire next.
+	 * 
+	 * @return false if that was the final invocation.
+	 */
+	boolean fire() {
+		long intended = intendedNanos;
+		long start = System.nanoTime();
+		Object payload = nextMessage();
+		Object event = CoreEvents.isSchedulerEnabled() && payload != null
+				? CoreEvents.schedulerFireStarted(reference.getId(), payload.getClass(), Math.max(0, start - intended))
+				: null;
+		try {
+			if (payload != null) {
+				DefaultScheduler.sendMessage(reference, payload);
+			}
+		} finally {
+			CoreEvents.schedulerFireEnded(event);
+		}
+		return fired(start, System.nanoTime());
+	}
+
+	/**
+	 * Works out when to fire next, after the message has been delivered by
+	 * the scheduler.
+	 * 
+	 * @return false if that was the final invocation.
+	 */
+	boolean fired(long start, long end) {
+		long intended = intendedNanos;
+		long period = nextPeriodNanos();
+		long next = intended + period;
+		boolean overrun = end - next > 0;
+		statistics.fired(start - intended, end - start, overrun);
+		if (remaining > 0 && --remaining == 0) {
 			onFinalInvocation(context);
-			cancel();
+			return false;
+		}
+		if (overrun) {
+			next = applyOverrunPolicy(next, period, start, end);
+		}
+		intendedNanos = next;
+		return true;
+	}
+
+	/**
+	 * @return the message to deliver in this firing, or null to deliver
+	 *         nothing this time.
+	 */
+	Object nextMessage() {
+		return message;
+	}
+
+	/**
+	 * Called once per firing, after the delivery.
+	 * 
+	 * @return the time from the intended start of this firing to the next.
+	 */
+	long nextPeriodNanos() {
+		return periodNanos;
+	}
+
+	private long applyOverrunPolicy(long next, long period, long start, long end) {
+		switch (policy) {
+		case SKIP:
+			long missed = (end - next) / period + 1;
+			statistics.skipped(missed);
+			return next + missed * period;
+		case SHIFT_PHASE:
+			return Math.max(start + period, end);
+		case CATCH_UP:
+		default:
+			return next;
 		}
 	}
 
-	private void sendMessage() {
-		DefaultScheduler.sendMessage(reference, message);
+	@Override
+	public String toString() {
+		return "Scheduled message " + message + " to " + reference.getId();
 	}
 }
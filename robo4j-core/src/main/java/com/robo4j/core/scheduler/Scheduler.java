@@ -16,7 +16,7 @@
  */
 package com.robo4j.core.scheduler;
 
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 import com.robo4j.core.RoboReference;
@@ -45,13 +45,43 @@ public interface Scheduler {
 	 *            the number of times to repeat the execution
 	 * @param listener
 	 *            a listener which will be called after the final execution
-	 * @return a ScheduledFuture representing pending completion of the task,
+	 * @return a PeriodicFuture representing pending completion of the task,
 	 *         and whose get() method will throw an exception upon completing
 	 *         the number of invocations.
 	 */
-	<T> ScheduledFuture<?> schedule(RoboReference<T> target, T message, long delay, long period, TimeUnit unit,
+	<T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long period, TimeUnit unit,
 			int numberOfInvocations, FinalInvocationListener listener);
 
+	/**
+	 * Schedules a message to the target, with a policy for firings which
+	 * overrun. The timing of every firing is recorded in the
+	 * {@link PeriodicFuture#getStatistics() statistics} of the schedule.
+	 * 
+	 * @param target
+	 *            the reference to schedule the reference to.
+	 * @param message
+	 *            the message to send.
+	 * @param delay
+	 *            the time to delay first execution
+	 * @param period
+	 *            the period between successive executions
+	 * @param unit
+	 *            the time unit of the initialDelay and period parameters
+	 * @param numberOfInvocations
+	 *            the number of times to repeat the execution
+	 * @param listener
+	 *            a listener which will be called after the final execution,
+	 *            may be null.
+	 * @param policy
+	 *            what to do when a firing has not finished by the time the
+	 *            next one is due.
+	 * @return a PeriodicFuture representing pending completion of the task,
+	 *         and whose get() method will throw an exception upon completing
+	 *         the number of invocations.
+	 */
+	<T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long period, TimeUnit unit,
+			int numberOfInvocations, FinalInvocationListener listener, OverrunPolicy policy);
+
 	/**
 	 * Schedules a message to the target.
 	 * 
@@ -67,11 +97,11 @@ public interface Scheduler {
 	 *            the time unit of the initialDelay and period parameters
 	 * @param numberOfInvocations
 	 *            the number of times to repeat the execution
-	 * @return a ScheduledFuture representing pending completion of the task,
+	 * @return a PeriodicFuture representing pending completion of the task,
 	 *         and whose get() method will throw an exception upon completing
 	 *         the number of invocations.
 	 */
-	<T> ScheduledFuture<?> schedule(RoboReference<T> target, T message, long delay, long interval, TimeUnit unit,
+	<T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long interval, TimeUnit unit,
 			int numberOfInvocations);
 	
 	/**
@@ -87,9 +117,41 @@ public interface Scheduler {
 	 *            the period between successive executions
 	 * @param unit
 	 *            the time unit of the initialDelay and period parameters
-	 * @return a ScheduledFuture representing pending completion of the task,
+	 * @return a PeriodicFuture representing pending completion of the task,
 	 *         and whose get() method will throw an exception upon completing
 	 *         the number of invocations.
 	 */
-	<T> ScheduledFuture<?> schedule(RoboReference<T> target, T message, long delay, long interval, TimeUnit unit);
+	<T> PeriodicFuture schedule(RoboReference<T> target, T message, long delay, long interval, TimeUnit unit);
+
+	/**
+	 * Schedules an adaptive poll. Every firing calls the sensor and sends
+	 * the reading to the target, and the period adapts to how much the
+	 * readings change, as described by the {@link AdaptiveRate}. Null
+	 * readings are not sent. If the sensor throws, the schedule stops.
+	 * 
+	 * @param target
+	 *            the reference to send the readings to.
+	 * @param sensor
+	 *            polls the sensor for a reading.
+	 * @param delay
+	 *            the time to delay the first poll.
+	 * @param unit
+	 *            the time unit of the delay.
+	 * @param rate
+	 *            how to adapt the period to the readings.
+	 * @param numberOfInvocations
+	 *            the number of times to poll, or 0 to poll until cancelled.
+	 * @param listener
+	 *            a listener which will be called after the final execution,
+	 *            may be null.
+	 * @return a PeriodicFuture representing pending completion of the task.
+	 */
+	<R> PeriodicFuture schedule(RoboReference<R> target, Callable<? extends R> sensor, long delay, TimeUnit unit,
+			AdaptiveRate<R> rate, int numberOfInvocations, FinalInvocationListener listener);
+
+	/**
+	 * Stops the scheduler. Called when the system is shut down. Messages not
+	 * yet sent are never sent.
+	 */
+	void shutdown();
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The real time requirements of a periodic schedule, used by the
+ * {@link EdfScheduler}.
+ *
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public final class TimingConstraint {
+	private final long relativeDeadlineNanos;
+	private final long budgetNanos;
+	private final int priority;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param relativeDeadline
+	 *            how long after its intended start a firing must be done.
+	 * @param budget
+	 *            the worst case time needed to deliver the message, used for
+	 *            the feasibility check. 0 if not known, in which case the
+	 *            schedule is not part of the check.
+	 * @param unit
+	 *            the time unit of the deadline and the budget.
+	 * @param priority
+	 *            breaks ties between firings with the same deadline - higher
+	 *            goes first.
+	 */
+	public TimingConstraint(long relativeDeadline, long budget, TimeUnit unit, int priority) {
+		if (relativeDeadline <= 0) {
+			throw new IllegalArgumentException("The deadline must be positive, was " + relativeDeadline);
+		}
+		if (budget < 0) {
+			throw new IllegalArgumentException("The budget must not be negative, was " + budget);
+		}
+		this.relativeDeadlineNanos = unit.toNanos(relativeDeadline);
+		this.budgetNanos = unit.toNanos(budget);
+		this.priority = priority;
+	}
+
+	public long getRelativeDeadline(TimeUnit unit) {
+		return unit.convert(relativeDeadlineNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public long getBudget(TimeUnit unit) {
+		return unit.convert(budgetNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	long getRelativeDeadlineNanos() {
+		return relativeDeadlineNanos;
+	}
+
+	long getBudgetNanos() {
+		return budgetNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "TimingConstraint [deadline=" + relativeDeadlineNanos + "ns, budget=" + budgetNanos + "ns, priority="
+				+ priority + "]";
+	}
+}
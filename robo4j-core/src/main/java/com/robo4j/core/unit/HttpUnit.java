@@ -24,10 +24,9 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.EnumSet;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import com.robo4j.core.ConfigurationException;
 import com.robo4j.core.LifecycleState;
@@ -36,6 +35,7 @@ import com.robo4j.core.RoboReference;
 import com.robo4j.core.RoboUnit;
 import com.robo4j.core.client.request.RoboRequestCallable;
 import com.robo4j.core.client.request.RoboRequestFactory;
+import com.robo4j.core.concurrency.RoboExecutors;
 import com.robo4j.core.configuration.Configuration;
 import com.robo4j.core.logging.SimpleLoggingUtil;
 
@@ -74,7 +74,7 @@ public class HttpUnit extends RoboUnit<Object> {
 		if (target == null) {
 			throw ConfigurationException.createMissingConfigNameException("target");
 		}
-		executor = Executors.newCachedThreadPool();
+		executor = RoboExecutors.newCachedPool("Robo4J Http ");
 		setState(LifecycleState.INITIALIZED);
 	}
 
@@ -100,14 +100,37 @@ public class HttpUnit extends RoboUnit<Object> {
 			SimpleLoggingUtil.debug(getClass(), "started port: " + port);
 			while (activeStates.contains(getState())) {
 				Socket request = server.accept();
-				Future<String> result = executor.submit(new RoboRequestCallable(request, new RoboRequestFactory()));
-				SimpleLoggingUtil.debug(getClass(), "RESULT result: " + result.get());
-				targetRef.sendMessage(result.get());
+				// Do not hold up the accept loop waiting for the request to be
+				// processed
+				process(request).whenComplete((result, error) -> {
+					if (error != null) {
+						SimpleLoggingUtil.error(getClass(), "request failed: ", asException(error));
+					} else {
+						SimpleLoggingUtil.debug(getClass(), "RESULT result: " + result);
+						targetRef.sendOneWay(result);
+					}
+				});
 			}
 			setState(LifecycleState.STOPPED);
-		} catch (InterruptedException | ExecutionException | IOException e) {
+		} catch (IOException e) {
 			SimpleLoggingUtil.debug(getClass(), "SERVER CLOSED");
 		}
 	}
 
+	private CompletableFuture<String> process(Socket request) {
+		final RoboRequestCallable callable = new RoboRequestCallable(request, new RoboRequestFactory());
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return callable.call();
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	private static Exception asException(Throwable error) {
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+		return cause instanceof Exception ? (Exception) cause : new Exception(cause);
+	}
+
 }
@@ -61,4 +61,18 @@ public final class SystemUtil {
 		}
 		return builder.toString();
 	}
+
+	public static String generateMetricsReport(RoboContext ctx) {
+		StringBuilder builder = new StringBuilder();
+		List<RoboUnit<?>> units = new ArrayList<>(ctx.getUnits());
+		units.sort(ID_COMPARATOR);
+		builder.append("RoboSystem metrics")
+				.append("\n================================================")
+				.append(BREAK);
+		for (RoboUnit<?> unit : units) {
+			builder.append(String.format("    %-25s   %s", unit.getId(), unit.getMetrics()))
+				.append(BREAK);
+		}
+		return builder.toString();
+	}
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.robo4j.core.configuration.Configuration;
+
+/**
+ * Tests for {@link MessageHandler} based dispatch.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class MessageDispatchTests {
+	private static class HandlerUnit extends RoboUnit<Object> {
+		private final List<String> received = new ArrayList<>();
+
+		public HandlerUnit(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@MessageHandler
+		void onText(String text) {
+			received.add("text:" + text);
+		}
+
+		@MessageHandler
+		Integer onNumber(Number number) {
+			received.add("number:" + number);
+			return number.intValue() * 2;
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		}
+	}
+
+	private static class OverridingUnit extends RoboUnit<Object> {
+		private final List<Object> received = new ArrayList<>();
+
+		public OverridingUnit(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@Override
+		public synchronized <R> RoboResult<Object, R> onMessage(Object message) {
+			received.add(message);
+			return null;
+		}
+
+		@Override
+		public Collection<Class<?>> getAcceptedMessageTypes() {
+			return Collections.singleton(CharSequence.class);
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		}
+	}
+
+	@Test
+	public void testDispatchByType() {
+		RoboSystem system = new RoboSystem();
+		HandlerUnit unit = new HandlerUnit(system, "unit");
+
+		Assert.assertNull(unit.onMessage("hello"));
+		RoboResult<Object, Integer> result = unit.onMessage(Long.valueOf(21));
+		Assert.assertEquals(Integer.valueOf(42), result.getResult());
+		// Resolved through the cache this time
+		unit.onMessage(Long.valueOf(1));
+		Assert.assertEquals(3, unit.received.size());
+		Assert.assertEquals("number:21", unit.received.get(1));
+		Assert.assertTrue(unit.getAcceptedMessageTypes().contains(String.class));
+		Assert.assertTrue(unit.getAcceptedMessageTypes().contains(Number.class));
+	}
+
+	@Test(expected = UnsupportedMessageException.class)
+	public void testRejectedAtReference() {
+		RoboSystem system = new RoboSystem(1, DispatchMode.MAILBOX);
+		HandlerUnit unit = new HandlerUnit(system, "unit");
+		system.addUnits(unit);
+		system.getReference("unit").sendOneWay(Boolean.TRUE);
+	}
+
+	@Test
+	public void testRejectedByAcceptedTypes() throws Exception {
+		RoboSystem system = new RoboSystem(1, DispatchMode.MAILBOX);
+		OverridingUnit unit = new OverridingUnit(system, "unit");
+		system.addUnits(unit);
+		system.start();
+		RoboReference<Object> reference = system.getReference("unit");
+		boolean gotException = false;
+		try {
+			reference.sendOneWay(Boolean.TRUE);
+		} catch (UnsupportedMessageException e) {
+			gotException = true;
+		}
+		Assert.assertTrue(gotException);
+		reference.sendMessage(new StringBuilder("hello")).get();
+		system.shutdown();
+		Assert.assertEquals(1, unit.received.size());
+		Assert.assertEquals("hello", unit.received.get(0).toString());
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.robo4j.core.configuration.Configuration;
+
+/**
+ * Tests for {@link RoboReference#ask(Object)}.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class RoboAskTests {
+	private static class Doubler extends RoboUnit<Object> {
+		private final CountDownLatch gate = new CountDownLatch(1);
+		private volatile int handled;
+
+		public Doubler(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@MessageHandler
+		Integer onNumber(Integer number) throws InterruptedException {
+			if (number < 0) {
+				gate.await(5, TimeUnit.SECONDS);
+			}
+			handled++;
+			return number * 2;
+		}
+
+		@MessageHandler
+		CompletableFuture<String> onText(String text) {
+			return CompletableFuture.supplyAsync(() -> text + text);
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		}
+	}
+
+	@Test
+	public void testAsk() throws Exception {
+		RoboSystem system = new RoboSystem(1, DispatchMode.MAILBOX);
+		Doubler unit = new Doubler(system, "doubler");
+		system.addUnits(unit);
+		system.start();
+
+		RoboResult<Object, Integer> number = unit.<Integer> ask(21).toCompletableFuture().get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(Integer.valueOf(42), number.getResult());
+		// Stages returned by the unit are flattened
+		RoboResult<Object, String> text = unit.<String> ask("ab").toCompletableFuture().get(5, TimeUnit.SECONDS);
+		Assert.assertEquals("abab", text.getResult());
+		system.shutdown();
+	}
+
+	@Test
+	public void testAskTimeout() throws Exception {
+		RoboSystem system = new RoboSystem(1, DispatchMode.MAILBOX);
+		Doubler unit = new Doubler(system, "doubler");
+		system.addUnits(unit);
+		system.start();
+
+		// Blocks the unit, so that the second ask stays queued
+		CompletableFuture<RoboResult<Object, Integer>> blocking = unit.<Integer> ask(-1).toCompletableFuture();
+		CompletableFuture<RoboResult<Object, Integer>> queued = unit.<Integer> ask(1, 50, TimeUnit.MILLISECONDS)
+				.toCompletableFuture();
+		try {
+			queued.get(5, TimeUnit.SECONDS);
+			Assert.fail("Expected a timeout");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		unit.gate.countDown();
+		Assert.assertEquals(Integer.valueOf(-2), blocking.get(5, TimeUnit.SECONDS).getResult());
+		system.shutdown();
+		// The timed out message was never processed
+		Assert.assertEquals(1, unit.handled);
+	}
+}
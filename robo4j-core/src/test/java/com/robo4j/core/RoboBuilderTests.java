@@ -17,10 +17,34 @@
  */
 package com.robo4j.core;
 
+import com.robo4j.core.RoboBuilder.UnitDefinition;
 import com.robo4j.core.client.util.ClientClassLoader;
+import com.robo4j.core.configuration.Configuration;
+import com.robo4j.core.configuration.ConfigurationFactory;
+import com.robo4j.core.processing.UnitIndexProcessor;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -71,5 +95,419 @@ public class RoboBuilderTests {
 		Assert.assertTrue(gotException);
 	}
 
+	@Test
+	public void testNestedConfiguration() throws RoboBuilderException {
+		String xml = "<robo4j><roboUnit id=\"producer\"><class>com.robo4j.core.StringProducer</class>"
+				+ "<config name=\"com.robo4j.core.root\"><value name=\"target\" type=\"String\"> consumer </value>"
+				+ "<config name=\"child\"><value name=\"rate\" type=\"int\">10</value>"
+				+ "<config name=\"grandchild\"><value name=\"gain\" type=\"double\">0.5</value></config>"
+				+ "</config><value name=\"after\" type=\"long\">7</value></config></roboUnit>"
+				+ "<roboUnit id=\"consumer\"><class>com.robo4j.core.StringConsumer</class></roboUnit></robo4j>";
+		RoboBuilder builder = new RoboBuilder();
+		builder.add(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		RoboContext context = builder.build();
+
+		RoboUnit<?> producer = null;
+		for (RoboUnit<?> unit : context.getUnits()) {
+			if (unit.getId().equals("producer")) {
+				producer = unit;
+			}
+		}
+		Assert.assertNotNull(producer);
+		Assert.assertEquals(LifecycleState.INITIALIZED, producer.getState());
+		Configuration configuration = producer.getConfiguration();
+		Assert.assertEquals("consumer", configuration.getString("target", null));
+		Assert.assertEquals(7L, (long) configuration.getLong("after", null));
+		Configuration child = configuration.getChildConfiguration("child");
+		Assert.assertEquals(10, (int) child.getInteger("rate", null));
+		Assert.assertEquals(0.5, child.getChildConfiguration("grandchild").getDouble("gain", null), 0.0);
+		Assert.assertNotNull(context.getReference("consumer"));
+		context.shutdown();
+	}
+
+	@Test
+	public void testDedicatedThreadFromDescriptor() throws Exception {
+		String unit = "<roboUnit id=\"%s\"><class>" + ThreadNameUnit.class.getName() + "</class>"
+				+ "<config name=\"com.robo4j.core.root\">"
+				+ "<value name=\"dedicatedThread\" type=\"%s\">true</value></config></roboUnit>";
+		String xml = "<robo4j>" + String.format(unit, "pinned", "boolean") + String.format(unit, "legacy", "String")
+				+ "</robo4j>";
+		RoboBuilder builder = new RoboBuilder();
+		builder.add(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		RoboContext context = builder.build();
+		context.start();
+		for (String id : new String[] { "pinned", "legacy" }) {
+			RoboReference<Object> reference = context.getReference(id);
+			RoboResult<Object, String> result = reference.<String> ask("name").toCompletableFuture().get(5,
+					TimeUnit.SECONDS);
+			Assert.assertTrue(result.getResult(), result.getResult().startsWith("Robo4J Unit " + id));
+			Assert.assertEquals(id.equals("pinned") ? Boolean.TRUE : "true",
+					reference.getConfiguration().getValue(RoboUnit.CONFIG_DEDICATED_THREAD, null));
+		}
+		context.shutdown();
+	}
+
+	@Test
+	public void testMailboxCapacityFromDescriptor() throws Exception {
+		GatedUnit unit = buildGatedUnit("<value name=\"mailboxCapacity\" type=\"int\">5</value>"
+				+ "<value name=\"mailboxOverflow\" type=\"String\">DROP_NEWEST</value>");
+		unit.sendOneWay("first");
+		Assert.assertTrue(unit.started.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 20; i++) {
+			unit.sendOneWay("v" + i);
+		}
+		unit.gate.countDown();
+		unit.getContext().shutdown();
+
+		Assert.assertEquals(15, unit.getMetrics().getDroppedCount());
+		Assert.assertEquals(6, unit.received.size());
+	}
+
+	@Test
+	public void testCoalescingFromDescriptor() throws Exception {
+		GatedUnit unit = buildGatedUnit("<value name=\"coalesce\" type=\"boolean\">true</value>");
+		unit.sendOneWay("first");
+		Assert.assertTrue(unit.started.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 20; i++) {
+			unit.sendOneWay("v" + i);
+		}
+		unit.gate.countDown();
+		unit.getContext().shutdown();
+
+		// The stale values waiting behind the first message were replaced
+		Assert.assertEquals(Arrays.asList("first", "v19"), unit.received);
+	}
+
+	@Test
+	public void testDispatchModeMustBeSetFirst() throws RoboBuilderException {
+		RoboBuilder builder = new RoboBuilder();
+		builder.add(new ByteArrayInputStream(("<robo4j><roboUnit id=\"consumer\"><class>"
+				+ StringConsumer.class.getName() + "</class></roboUnit></robo4j>").getBytes(StandardCharsets.UTF_8)));
+		try {
+			builder.setDispatchMode(DispatchMode.MAILBOX);
+			Assert.fail("Expected the late dispatch mode to be rejected");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		builder.build().shutdown();
+	}
+
+	@Test
+	public void testSnapshot() throws RoboBuilderException, IOException {
+		String xml = "<robo4j><roboUnit id=\"producer\"><class>com.robo4j.core.StringProducer</class>"
+				+ "<config name=\"com.robo4j.core.root\"><value name=\"target\" type=\"String\">consumer</value>"
+				+ "<config name=\"child\"><value name=\"rate\" type=\"float\">2.5</value></config></config>"
+				+ "</roboUnit><roboUnit id=\"consumer\"><class>com.robo4j.core.StringConsumer</class></roboUnit>"
+				+ "</robo4j>";
+		byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+		Path snapshot = Files.createTempFile("robo4j", ".snapshot");
+		Files.delete(snapshot);
+		try {
+			// No snapshot yet - parses the xml and writes one
+			Configuration parsed = loadProducerConfiguration(bytes, snapshot);
+			Assert.assertTrue(Files.exists(snapshot));
+			List<UnitDefinition> definitions = SystemSnapshot.read(snapshot, SystemSnapshot.hash(bytes));
+			Assert.assertNotNull(definitions);
+			Assert.assertEquals(2, definitions.size());
+			Assert.assertNull(definitions.get(1).getConfiguration());
+
+			// Loads from the snapshot
+			Configuration loaded = loadProducerConfiguration(bytes, snapshot);
+			Assert.assertEquals(parsed.getString("target", null), loaded.getString("target", null));
+			Assert.assertEquals(2.5f, loaded.getChildConfiguration("child").getFloat("rate", null), 0.0f);
+
+			// Proves the xml is not parsed while the hash matches
+			Configuration replaced = ConfigurationFactory.createEmptyConfiguration();
+			replaced.setString("target", "fromSnapshot");
+			SystemSnapshot.write(snapshot, SystemSnapshot.hash(bytes), Collections
+					.singletonList(new UnitDefinition("producer", StringProducer.class.getName(), replaced)));
+			Assert.assertEquals("fromSnapshot", loadProducerConfiguration(bytes, snapshot).getString("target", null));
+
+			// A changed descriptor falls back to parsing
+			byte[] changed = xml.replace(">consumer<", ">other<").getBytes(StandardCharsets.UTF_8);
+			Assert.assertEquals("other", loadProducerConfiguration(changed, snapshot).getString("target", null));
+			Assert.assertNotNull(SystemSnapshot.read(snapshot, SystemSnapshot.hash(changed)));
+		} finally {
+			Files.deleteIfExists(snapshot);
+		}
+	}
+
+	@Test
+	public void testBrokenSnapshot() throws RoboBuilderException, IOException {
+		String xml = "<robo4j><roboUnit id=\"producer\"><class>com.robo4j.core.StringProducer</class>"
+				+ "<config name=\"com.robo4j.core.root\"><value name=\"target\" type=\"String\">consumer</value>"
+				+ "</config></roboUnit></robo4j>";
+		byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+		Path snapshot = Files.createTempFile("robo4j", ".snapshot");
+		Files.delete(snapshot);
+		try {
+			loadProducerConfiguration(bytes, snapshot);
+			byte[] written = Files.readAllBytes(snapshot);
+			// Header: magic, version, hash length and hash
+			int countOffset = 4 + 2 + 1 + written[6];
+
+			// Truncated
+			Files.write(snapshot, Arrays.copyOf(written, written.length - 3));
+			Assert.assertNull(SystemSnapshot.read(snapshot, SystemSnapshot.hash(bytes)));
+			Assert.assertEquals("consumer", loadProducerConfiguration(bytes, snapshot).getString("target", null));
+
+			// Unit count out of range
+			for (byte value : new byte[] { (byte) 0x80, 0x7f }) {
+				byte[] corrupted = written.clone();
+				corrupted[countOffset] = value;
+				Files.write(snapshot, corrupted);
+				Assert.assertNull(SystemSnapshot.read(snapshot, SystemSnapshot.hash(bytes)));
+			}
+
+			// Unknown value type
+			byte[] corrupted = written.clone();
+			int typeOffset = new String(written, StandardCharsets.ISO_8859_1).indexOf("target") + "target".length();
+			corrupted[typeOffset] = 42;
+			Files.write(snapshot, corrupted);
+			Assert.assertNull(SystemSnapshot.read(snapshot, SystemSnapshot.hash(bytes)));
+			Assert.assertEquals("consumer", loadProducerConfiguration(bytes, snapshot).getString("target", null));
+			Assert.assertNotNull(SystemSnapshot.read(snapshot, SystemSnapshot.hash(bytes)));
+		} finally {
+			Files.deleteIfExists(snapshot);
+		}
+	}
+
+	@Test
+	public void testParallelInitialization() throws RoboBuilderException {
+		StringBuilder xml = new StringBuilder("<robo4j>");
+		for (int i = 0; i < 4; i++) {
+			xml.append("<roboUnit id=\"slow").append(i).append("\"><class>").append(SlowUnit.class.getName())
+					.append("</class><config name=\"com.robo4j.core.root\">")
+					.append("<value name=\"handshake\" type=\"int\">300</value></config></roboUnit>");
+		}
+		xml.append("</robo4j>");
+		RoboBuilder builder = new RoboBuilder().setParallelism(4);
+		long start = System.nanoTime();
+		builder.add(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8)));
+		long millis = (System.nanoTime() - start) / 1000000;
+		RoboContext context = builder.build();
+		Assert.assertEquals(4, context.getUnits().size());
+		for (RoboUnit<?> unit : context.getUnits()) {
+			Assert.assertEquals(LifecycleState.INITIALIZED, unit.getState());
+		}
+		// One after the other would take at least 1200 ms
+		Assert.assertTrue("Took " + millis + " ms", millis < 1000);
+		context.shutdown();
+	}
+
+	@Test
+	public void testParallelInitializationFollowsTargets() throws RoboBuilderException {
+		String unit = "<roboUnit id=\"%s\"><class>" + SlowUnit.class.getName()
+				+ "</class><config name=\"com.robo4j.core.root\">"
+				+ "<value name=\"handshake\" type=\"int\">%d</value>%s</config></roboUnit>";
+		String target = "<value name=\"target\" type=\"String\">%s</value>";
+		String xml = "<robo4j>" + String.format(unit, "source", 0, String.format(target, "relay"))
+				+ String.format(unit, "relay", 100, String.format(target, "sink"))
+				+ String.format(unit, "free", 0, "") + String.format(unit, "sink", 300, "") + "</robo4j>";
+		SlowUnit.INITIALIZED.clear();
+		RoboBuilder builder = new RoboBuilder().setParallelism(4);
+		builder.add(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		RoboContext context = builder.build();
+		context.shutdown();
+
+		List<String> order = SlowUnit.INITIALIZED;
+		Assert.assertEquals(4, order.size());
+		Assert.assertTrue(order.toString(), order.indexOf("sink") < order.indexOf("relay"));
+		Assert.assertTrue(order.toString(), order.indexOf("relay") < order.indexOf("source"));
+	}
+
+	@Test
+	public void testAllFailuresReported() {
+		String xml = "<robo4j><roboUnit id=\"missing1\"><class>com.robo4j.core.Missing</class></roboUnit>"
+				+ "<roboUnit id=\"consumer\"><class>com.robo4j.core.StringConsumer</class></roboUnit>"
+				+ "<roboUnit id=\"missing2\"><class>com.robo4j.core.AlsoMissing</class></roboUnit></robo4j>";
+		for (int parallelism : new int[] { 1, 4 }) {
+			RoboBuilder builder = new RoboBuilder().setParallelism(parallelism);
+			try {
+				builder.add(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+				Assert.fail("Expected the missing classes to be reported");
+			} catch (RoboBuilderException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains("missing1, missing2"));
+				Assert.assertEquals(1, e.getSuppressed().length);
+			}
+			// The units which could be created are still added
+			RoboContext context = builder.build();
+			Assert.assertNotNull(context.getReference("consumer"));
+			context.shutdown();
+		}
+	}
+
+	@Test
+	public void testUnitIndex() throws IOException, RoboBuilderException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		Assert.assertNotNull("Needs a JDK", compiler);
+		Path sources = Files.createTempDirectory("robo4j-sources");
+		Path classes = Files.createTempDirectory("robo4j-classes");
+		try {
+			Path pkg = Files.createDirectories(sources.resolve("indexed"));
+			List<String> indexedUnit = Arrays.asList("package indexed;", "import com.robo4j.core.*;",
+					"import com.robo4j.core.configuration.Configuration;", "@IndexedUnit(id = \"gps\", config = {",
+					"		@IndexedUnit.Value(name = \"port\", value = \"/dev/tty<0>\"),",
+					"		@IndexedUnit.Value(name = \"baud\", type = \"int\", value = \"9600\") })",
+					"public class IndexedTestUnit extends RoboUnit<Object> {",
+					"	public IndexedTestUnit(RoboContext context, String id) { super(context, id); }",
+					"	protected void onInitialization(Configuration configuration) {}", "}");
+			List<String> withNotPublicUnit = new ArrayList<>(indexedUnit);
+			withNotPublicUnit.add("@IndexedUnit(id = \"lcd\") class NotPublicUnit {}");
+			Files.write(pkg.resolve("IndexedTestUnit.java"), withNotPublicUnit);
+			// The second unit breaks the rules
+			Assert.assertTrue(compile(compiler, pkg, classes) != 0);
+			Files.write(pkg.resolve("IndexedTestUnit.java"), indexedUnit);
+			Files.write(pkg.resolve("OtherUnit.java"), Arrays.asList("package indexed;",
+					"@com.robo4j.core.IndexedUnit(id = \"lcd\")",
+					"public class OtherUnit extends com.robo4j.core.StringConsumer {",
+					"	public OtherUnit(com.robo4j.core.RoboContext context, String id) {", "		super(context, id);",
+					"	}", "}"));
+			Assert.assertEquals(0, compile(compiler, pkg, classes));
+			Assert.assertTrue(Files.exists(classes.resolve(UnitIndexProcessor.INDEX_RESOURCE)));
+
+			try (URLClassLoader loader = new URLClassLoader(new URL[] { classes.toUri().toURL() },
+					getClass().getClassLoader())) {
+				RoboContext all = new RoboBuilder().add(loader).build();
+				Assert.assertEquals(2, all.getUnits().size());
+				all.shutdown();
+
+				RoboContext matching = new RoboBuilder().add(loader, "gps").build();
+				Assert.assertEquals(1, matching.getUnits().size());
+				RoboUnit<?> gps = matching.getUnits().iterator().next();
+				Assert.assertEquals(LifecycleState.INITIALIZED, gps.getState());
+				Assert.assertEquals("/dev/tty<0>", gps.getConfiguration().getString("port", null));
+				Assert.assertEquals(9600, (int) gps.getConfiguration().getInteger("baud", null));
+				matching.shutdown();
+			}
+		} finally {
+			delete(sources);
+			delete(classes);
+		}
+	}
+
+	private static int compile(JavaCompiler compiler, Path sources, Path classes) throws IOException {
+		String[] files;
+		try (Stream<Path> list = Files.list(sources)) {
+			files = list.map(Path::toString).toArray(String[]::new);
+		}
+		String[] arguments = new String[files.length + 6];
+		arguments[0] = "-classpath";
+		arguments[1] = System.getProperty("java.class.path");
+		arguments[2] = "-processor";
+		arguments[3] = UnitIndexProcessor.class.getName();
+		arguments[4] = "-d";
+		arguments[5] = classes.toString();
+		System.arraycopy(files, 0, arguments, 6, files.length);
+		return compiler.run(null, null, null, arguments);
+	}
+
+	private static void delete(Path directory) throws IOException {
+		Files.walk(directory).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+	}
+
+	public static class ThreadNameUnit extends RoboUnit<Object> {
+		public ThreadNameUnit(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@Override
+		public <R> RoboResult<Object, R> onMessage(Object message) {
+			@SuppressWarnings("unchecked")
+			R name = (R) Thread.currentThread().getName();
+			return new RoboResult<>(this, name);
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		}
+	}
+
+	/**
+	 * Holds up the first message until the gate is opened.
+	 */
+	public static class GatedUnit extends RoboUnit<Object> {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch gate = new CountDownLatch(1);
+		final List<Object> received = new CopyOnWriteArrayList<>();
+		private volatile boolean coalesce;
+
+		public GatedUnit(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@Override
+		public <R> RoboResult<Object, R> onMessage(Object message) {
+			if (received.isEmpty()) {
+				started.countDown();
+				try {
+					gate.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			received.add(message);
+			return null;
+		}
+
+		@Override
+		public Object getCoalescingKey(Object message) {
+			return coalesce ? String.class : null;
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+			coalesce = configuration.getBoolean("coalesce", false);
+		}
+	}
+
+	/**
+	 * Builds and starts a mailbox system with a single gated unit.
+	 */
+	private static GatedUnit buildGatedUnit(String values) throws RoboBuilderException {
+		String xml = "<robo4j><roboUnit id=\"gated\"><class>" + GatedUnit.class.getName()
+				+ "</class><config name=\"com.robo4j.core.root\">" + values + "</config></roboUnit></robo4j>";
+		RoboBuilder builder = new RoboBuilder().setDispatchMode(DispatchMode.MAILBOX);
+		builder.add(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		RoboContext context = builder.build();
+		context.start();
+		return (GatedUnit) context.getUnits().iterator().next();
+	}
+
+	public static class SlowUnit extends RoboUnit<Object> {
+		static final List<String> INITIALIZED = new CopyOnWriteArrayList<>();
+
+		public SlowUnit(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+			try {
+				// Simulates a hardware handshake
+				Thread.sleep(configuration.getInteger("handshake", 0));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			INITIALIZED.add(getId());
+		}
+	}
+
+	private Configuration loadProducerConfiguration(byte[] xml, Path snapshot) throws RoboBuilderException {
+		RoboBuilder builder = new RoboBuilder();
+		builder.add(new ByteArrayInputStream(xml), snapshot);
+		RoboContext context = builder.build();
+		try {
+			for (RoboUnit<?> unit : context.getUnits()) {
+				if (unit.getId().equals("producer")) {
+					return unit.getConfiguration();
+				}
+			}
+			return null;
+		} finally {
+			context.shutdown();
+		}
+	}
+
 
 }
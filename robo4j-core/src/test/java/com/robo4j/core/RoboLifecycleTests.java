@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.robo4j.core.configuration.Configuration;
+import com.robo4j.core.configuration.ConfigurationFactory;
+
+/**
+ * Tests for the dependency ordered life cycle of a {@link RoboSystem}.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class RoboLifecycleTests {
+	private static class RecordingUnit extends RoboUnit<Object> {
+		private final List<String> events;
+		private final CountDownLatch started = new CountDownLatch(1);
+		private volatile CountDownLatch awaitOnStart;
+
+		public RecordingUnit(RoboContext context, String id, List<String> events) {
+			super(context, id);
+			this.events = events;
+		}
+
+		@Override
+		public void start() {
+			if (awaitOnStart != null) {
+				try {
+					Assert.assertTrue(awaitOnStart.await(5, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			events.add("start " + getId());
+			started.countDown();
+		}
+
+		@Override
+		public void stop() {
+			events.add("stop " + getId());
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		}
+	}
+
+	private static RecordingUnit createUnit(RoboSystem system, String id, String target, List<String> events)
+			throws ConfigurationException {
+		RecordingUnit unit = new RecordingUnit(system, id, events);
+		Configuration configuration = ConfigurationFactory.createEmptyConfiguration();
+		if (target != null) {
+			configuration.setString("target", target);
+		}
+		unit.initialize(configuration);
+		return unit;
+	}
+
+	@Test
+	public void testTargetsStartFirstAndStopLast() throws Exception {
+		List<String> events = new CopyOnWriteArrayList<>();
+		RoboSystem system = new RoboSystem();
+		RecordingUnit producer = createUnit(system, "producer", "consumer", events);
+		RecordingUnit consumer = createUnit(system, "consumer", null, events);
+		RecordingUnit independent = createUnit(system, "independent", null, events);
+		// Only possible if the independent unit is started concurrently
+		consumer.awaitOnStart = independent.started;
+		system.addUnits(producer, consumer, independent);
+
+		system.start();
+		Assert.assertEquals(3, events.size());
+		Assert.assertTrue(events.indexOf("start consumer") < events.indexOf("start producer"));
+		Assert.assertTrue(events.indexOf("start independent") < events.indexOf("start consumer"));
+
+		events.clear();
+		system.stop();
+		Assert.assertEquals(3, events.size());
+		Assert.assertTrue(events.indexOf("stop producer") < events.indexOf("stop consumer"));
+		system.shutdown();
+	}
+
+	@Test
+	public void testAddAndRemoveWhileRunning() throws Exception {
+		List<String> events = new CopyOnWriteArrayList<>();
+		RoboSystem system = new RoboSystem();
+		system.addUnits(createUnit(system, "first", null, events));
+		system.start();
+
+		RecordingUnit late = createUnit(system, "late", null, events);
+		system.addUnits(late);
+		Assert.assertTrue(events.contains("start late"));
+		int handle = system.getHandle("late");
+		Assert.assertEquals(1, handle);
+		Assert.assertSame(system.getReference("late"), system.getReference(handle));
+		Assert.assertEquals(2, system.getUnits().size());
+
+		late.setState(LifecycleState.STARTED);
+		Assert.assertSame(late, system.removeUnit("late"));
+		Assert.assertTrue(events.contains("stop late"));
+		Assert.assertNull(system.getReference("late"));
+		Assert.assertEquals(-1, system.getHandle("late"));
+
+		// Handles are reused
+		system.addUnits(createUnit(system, "later", null, events));
+		Assert.assertEquals(handle, system.getHandle("later"));
+		system.shutdown();
+	}
+}
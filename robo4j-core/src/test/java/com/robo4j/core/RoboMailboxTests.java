@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.robo4j.core.configuration.Configuration;
+import com.robo4j.core.configuration.ConfigurationFactory;
+
+/**
+ * Tests for the mailbox dispatch mode and the priority lanes.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class RoboMailboxTests {
+	private static class PriorityMessage implements PrioritizedMessage {
+		private final String text;
+		private final MessagePriority priority;
+
+		PriorityMessage(String text, MessagePriority priority) {
+			this.text = text;
+			this.priority = priority;
+		}
+
+		@Override
+		public MessagePriority getPriority() {
+			return priority;
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
+	/**
+	 * Records the messages, and blocks on the first one until released.
+	 */
+	private static class GatedConsumer extends RoboUnit<Object> {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch gate = new CountDownLatch(1);
+		private final List<String> received = new ArrayList<>();
+
+		public GatedConsumer(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@Override
+		public synchronized <R> RoboResult<Object, R> onMessage(Object message) {
+			if (received.isEmpty()) {
+				started.countDown();
+				try {
+					gate.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			received.add(message.toString());
+			return null;
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		}
+	}
+
+	@Test
+	public void testEmergencyOvertakesTelemetry() throws Exception {
+		RoboSystem system = new RoboSystem(1, DispatchMode.MAILBOX);
+		GatedConsumer consumer = new GatedConsumer(system, "consumer");
+		assertEmergencyOvertakesTelemetry(system, consumer);
+	}
+
+	@Test
+	public void testEmergencyOvertakesTelemetryInSharedQueue() throws Exception {
+		RoboSystem system = new RoboSystem(1, DispatchMode.SHARED_QUEUE);
+		GatedConsumer consumer = new GatedConsumer(system, "consumer");
+		assertEmergencyOvertakesTelemetry(system, consumer);
+	}
+
+	@Test
+	public void testEmergencyOvertakesTelemetryOnDedicatedThread() throws Exception {
+		RoboSystem system = new RoboSystem(1, DispatchMode.SHARED_QUEUE);
+		GatedConsumer consumer = new GatedConsumer(system, "consumer");
+		Configuration configuration = ConfigurationFactory.createEmptyConfiguration();
+		configuration.setBoolean(RoboUnit.CONFIG_DEDICATED_THREAD, true);
+		consumer.initialize(configuration);
+		assertEmergencyOvertakesTelemetry(system, consumer);
+	}
+
+	/**
+	 * Sends telemetry and then an emergency stop to the consumer, while it is
+	 * busy with the first message.
+	 */
+	private void assertEmergencyOvertakesTelemetry(RoboSystem system, GatedConsumer consumer) throws Exception {
+		system.addUnits(consumer);
+		system.start();
+
+		consumer.sendOneWay("first");
+		Assert.assertTrue(consumer.started.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 10; i++) {
+			consumer.sendOneWay(new PriorityMessage("telemetry", MessagePriority.TELEMETRY));
+		}
+		consumer.sendOneWay(new PriorityMessage("stop", MessagePriority.EMERGENCY));
+		consumer.gate.countDown();
+		system.shutdown();
+
+		Assert.assertEquals(12, consumer.received.size());
+		Assert.assertEquals("first", consumer.received.get(0));
+		Assert.assertEquals("stop", consumer.received.get(1));
+	}
+
+	@Test
+	public void testBoundedMailboxDropsNewest() throws Exception {
+		GatedConsumer consumer = sendToBoundedMailbox(OverflowPolicy.DROP_NEWEST, 20);
+		Assert.assertEquals(6, consumer.received.size());
+		Assert.assertEquals("0", consumer.received.get(0));
+		Assert.assertEquals("5", consumer.received.get(5));
+	}
+
+	@Test
+	public void testBoundedMailboxDropsOldest() throws Exception {
+		GatedConsumer consumer = sendToBoundedMailbox(OverflowPolicy.DROP_OLDEST, 20);
+		Assert.assertEquals(6, consumer.received.size());
+		Assert.assertEquals("0", consumer.received.get(0));
+		Assert.assertEquals("15", consumer.received.get(1));
+		Assert.assertEquals("19", consumer.received.get(5));
+	}
+
+	@Test
+	public void testBlockedSendersDoNotStarveMailbox() throws Exception {
+		RoboSystem system = new RoboSystem(2, DispatchMode.MAILBOX);
+		RoboUnit<Object> sink = new RoboUnit<Object>(system, "sink") {
+			@Override
+			public <R> RoboResult<Object, R> onMessage(Object message) {
+				return null;
+			}
+
+			@Override
+			protected void onInitialization(Configuration configuration) throws ConfigurationException {
+			}
+		};
+		Configuration configuration = ConfigurationFactory.createEmptyConfiguration();
+		configuration.setInteger(RoboUnit.CONFIG_MAILBOX_CAPACITY, 1);
+		configuration.setString(RoboUnit.CONFIG_MAILBOX_OVERFLOW, OverflowPolicy.BLOCK.name());
+		configuration.setInteger(RoboUnit.CONFIG_MAILBOX_BLOCK_TIMEOUT, 20);
+		sink.initialize(configuration);
+		CountDownLatch fed = new CountDownLatch(2);
+		List<RoboUnit<Object>> feeders = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			feeders.add(new RoboUnit<Object>(system, "feeder" + i) {
+				@Override
+				public <R> RoboResult<Object, R> onMessage(Object message) {
+					// Both system threads end up blocked on the full sink
+					for (int j = 0; j < 50; j++) {
+						sink.sendOneWay(j);
+					}
+					fed.countDown();
+					return null;
+				}
+
+				@Override
+				protected void onInitialization(Configuration configuration) throws ConfigurationException {
+				}
+			});
+		}
+		system.addUnits(sink, feeders.get(0), feeders.get(1));
+		system.start();
+
+		// Fill the sink, so the feeders block right away
+		sink.sendOneWay("fill");
+		for (RoboUnit<Object> feeder : feeders) {
+			feeder.sendOneWay("feed");
+		}
+		Assert.assertTrue(fed.await(10, TimeUnit.SECONDS));
+		UnitMetrics metrics = sink.getMetrics();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (metrics.getMessageCount() + metrics.getDroppedCount() < 101 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		system.shutdown();
+		Assert.assertEquals(101, metrics.getMessageCount() + metrics.getDroppedCount());
+	}
+
+	@Test
+	public void testCoalescingKeepsLatestState() throws Exception {
+		RoboSystem system = new RoboSystem(1, DispatchMode.MAILBOX);
+		GatedConsumer consumer = new GatedConsumer(system, "consumer") {
+			@Override
+			public Object getCoalescingKey(Object message) {
+				return message.toString().startsWith("state") ? "state" : null;
+			}
+		};
+		system.addUnits(consumer);
+		system.start();
+
+		consumer.sendOneWay("first");
+		Assert.assertTrue(consumer.started.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i <= 5; i++) {
+			consumer.sendOneWay("state" + i);
+		}
+		consumer.sendOneWay("barrier");
+		consumer.sendOneWay("state6");
+		consumer.sendOneWay("state7");
+		consumer.gate.countDown();
+		system.shutdown();
+
+		Assert.assertEquals(4, consumer.received.size());
+		Assert.assertEquals("state5", consumer.received.get(1));
+		Assert.assertEquals("barrier", consumer.received.get(2));
+		Assert.assertEquals("state7", consumer.received.get(3));
+	}
+
+	@Test
+	public void testDedicatedThreadNotBlockedBySystemPool() throws Exception {
+		RoboSystem system = new RoboSystem(1, DispatchMode.MAILBOX);
+		GatedConsumer slow = new GatedConsumer(system, "slow");
+		CountDownLatch delivered = new CountDownLatch(1);
+		List<String> threadNames = new ArrayList<>();
+		RoboUnit<Object> pinned = new RoboUnit<Object>(system, "pinned") {
+			@Override
+			public <R> RoboResult<Object, R> onMessage(Object message) {
+				threadNames.add(Thread.currentThread().getName());
+				delivered.countDown();
+				return null;
+			}
+
+			@Override
+			protected void onInitialization(Configuration configuration) throws ConfigurationException {
+			}
+		};
+		Configuration configuration = ConfigurationFactory.createEmptyConfiguration();
+		configuration.setBoolean(RoboUnit.CONFIG_DEDICATED_THREAD, true);
+		configuration.setString(RoboUnit.CONFIG_WAIT_STRATEGY, "yield");
+		pinned.initialize(configuration);
+		system.addUnits(slow, pinned);
+		system.start();
+
+		// Occupies the only system thread
+		slow.sendOneWay("block");
+		Assert.assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+		pinned.sendOneWay("hello");
+		Assert.assertTrue(delivered.await(1, TimeUnit.SECONDS));
+		slow.gate.countDown();
+		system.shutdown();
+
+		Assert.assertTrue(threadNames.get(0).startsWith("Robo4J Unit pinned"));
+	}
+
+	@Test
+	public void testRemovingUnitStopsDedicatedThread() throws Exception {
+		RoboSystem system = new RoboSystem(1, DispatchMode.MAILBOX);
+		AtomicReference<Thread> thread = new AtomicReference<>();
+		CountDownLatch delivered = new CountDownLatch(1);
+		RoboUnit<Object> pinned = new RoboUnit<Object>(system, "pinned") {
+			@Override
+			public <R> RoboResult<Object, R> onMessage(Object message) {
+				thread.set(Thread.currentThread());
+				delivered.countDown();
+				return null;
+			}
+
+			@Override
+			protected void onInitialization(Configuration configuration) throws ConfigurationException {
+			}
+		};
+		Configuration configuration = ConfigurationFactory.createEmptyConfiguration();
+		configuration.setBoolean(RoboUnit.CONFIG_DEDICATED_THREAD, true);
+		pinned.initialize(configuration);
+		system.addUnits(pinned);
+		system.start();
+
+		pinned.sendOneWay("hello");
+		Assert.assertTrue(delivered.await(1, TimeUnit.SECONDS));
+		system.removeUnit("pinned");
+
+		Assert.assertFalse(thread.get().isAlive());
+		system.shutdown();
+	}
+
+	/**
+	 * Sends the messages "0".."count-1" to a consumer with a mailbox capacity
+	 * of 5, while it is busy with the first one.
+	 */
+	private GatedConsumer sendToBoundedMailbox(OverflowPolicy policy, int count) throws Exception {
+		RoboSystem system = new RoboSystem(1, DispatchMode.MAILBOX);
+		GatedConsumer consumer = new GatedConsumer(system, "consumer");
+		Configuration configuration = ConfigurationFactory.createEmptyConfiguration();
+		configuration.setInteger(RoboUnit.CONFIG_MAILBOX_CAPACITY, 5);
+		configuration.setString(RoboUnit.CONFIG_MAILBOX_OVERFLOW, policy.name());
+		consumer.initialize(configuration);
+		system.addUnits(consumer);
+		system.start();
+
+		consumer.sendOneWay("0");
+		Assert.assertTrue(consumer.started.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i < count; i++) {
+			consumer.sendOneWay(String.valueOf(i));
+		}
+		Assert.assertEquals(count - 6, system.getDroppedMessageCount("consumer"));
+		consumer.gate.countDown();
+		system.shutdown();
+		return consumer;
+	}
+}
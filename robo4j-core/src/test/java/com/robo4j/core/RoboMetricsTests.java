@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.robo4j.core.configuration.Configuration;
+
+/**
+ * Tests for {@link UnitMetrics}.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class RoboMetricsTests {
+	private static class Sleeper extends RoboUnit<Object> {
+		public Sleeper(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@MessageHandler
+		Integer onMillis(Integer millis) throws InterruptedException {
+			Thread.sleep(millis);
+			return millis;
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		}
+	}
+
+	@Test
+	public void testHandlerMetrics() throws Exception {
+		RoboSystem system = new RoboSystem(1, DispatchMode.MAILBOX);
+		Sleeper unit = new Sleeper(system, "sleeper");
+		system.addUnits(unit);
+		system.start();
+
+		for (int i = 0; i < 9; i++) {
+			unit.sendOneWay(0);
+		}
+		unit.ask(20).toCompletableFuture().get(5, TimeUnit.SECONDS);
+		try {
+			unit.sendOneWay("not accepted");
+			Assert.fail("Expected the message to be rejected");
+		} catch (UnsupportedMessageException e) {
+			// Expected
+		}
+
+		UnitMetrics metrics = system.getMetrics("sleeper");
+		Assert.assertSame(unit.getMetrics(), metrics);
+		Assert.assertEquals(10, metrics.getMessageCount());
+		Assert.assertEquals(1, metrics.getRejectedCount());
+		Assert.assertEquals(0, metrics.getDroppedCount());
+		Assert.assertEquals(0, metrics.getMailboxDepth());
+		LatencyHistogram latency = metrics.getHandlerLatency();
+		Assert.assertEquals(10, latency.getCount());
+		Assert.assertTrue(latency.getMax() >= TimeUnit.MILLISECONDS.toNanos(20));
+		Assert.assertTrue(latency.getValueAtPercentile(50) < TimeUnit.MILLISECONDS.toNanos(20));
+		Assert.assertTrue(latency.getValueAtPercentile(99) >= TimeUnit.MILLISECONDS.toNanos(20));
+		Assert.assertTrue(metrics.getTimeInState(LifecycleState.STARTED, TimeUnit.NANOSECONDS) > 0);
+		Assert.assertNull(system.getMetrics("nonexistent"));
+		system.shutdown();
+	}
+
+	@Test
+	public void testHistogramPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 1000; value++) {
+			histogram.record(value * 1000);
+		}
+		Assert.assertEquals(1000, histogram.getCount());
+		Assert.assertEquals(1000000, histogram.getMax());
+		long p50 = histogram.getValueAtPercentile(50);
+		Assert.assertTrue(p50 >= 500000 && p50 <= 500000 * 1.125);
+		long p99 = histogram.getValueAtPercentile(99);
+		Assert.assertTrue(p99 >= 990000 && p99 <= 1000000);
+	}
+}
@@ -16,16 +16,35 @@
  */
 package com.robo4j.core;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.robo4j.core.configuration.Configuration;
+import com.robo4j.core.scheduler.AdaptiveRate;
+import com.robo4j.core.scheduler.ChangeMetric;
+import com.robo4j.core.scheduler.DefaultScheduler;
+import com.robo4j.core.scheduler.EdfScheduler;
 import com.robo4j.core.scheduler.FinalInvocationListener;
+import com.robo4j.core.scheduler.HashedWheelScheduler;
+import com.robo4j.core.scheduler.InfeasibleScheduleException;
+import com.robo4j.core.scheduler.OverrunPolicy;
+import com.robo4j.core.scheduler.PeriodicFuture;
+import com.robo4j.core.scheduler.ScheduleStatistics;
 import com.robo4j.core.scheduler.Scheduler;
+import com.robo4j.core.scheduler.TimingConstraint;
 
 /**
  * Testing scheduling messages.
@@ -82,6 +101,315 @@ public class RoboSchedulerTests {
 		system.shutdown();
 	}
 
+	@Test
+	public void testScheduledMessagesUseMailbox() throws InterruptedException, ExecutionException {
+		assertScheduledMessagesUseMailbox(new RoboSystem(2, DispatchMode.MAILBOX));
+	}
+
+	@Test
+	public void testEdfMessagesUseMailbox() throws InterruptedException, ExecutionException {
+		assertScheduledMessagesUseMailbox(new RoboSystem(2, DispatchMode.MAILBOX, EdfScheduler::new));
+	}
+
+	private void assertScheduledMessagesUseMailbox(RoboSystem system)
+			throws InterruptedException, ExecutionException {
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger maxActive = new AtomicInteger();
+		Set<String> threadNames = ConcurrentHashMap.newKeySet();
+		CountDownLatch handled = new CountDownLatch(100);
+		RoboUnit<Object> unit = new RoboUnit<Object>(system, "unit") {
+			@Override
+			public <R> RoboResult<Object, R> onMessage(Object message) {
+				maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+				threadNames.add(Thread.currentThread().getName());
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				active.decrementAndGet();
+				handled.countDown();
+				return null;
+			}
+
+			@Override
+			protected void onInitialization(Configuration configuration) throws ConfigurationException {
+			}
+		};
+		system.addUnits(unit);
+		system.start();
+
+		PeriodicFuture future = system.getScheduler().schedule(unit, "tick", 0, 1, TimeUnit.MILLISECONDS, 50);
+		for (int i = 0; i < 50; i++) {
+			unit.sendOneWay("sent");
+		}
+		get(future);
+		Assert.assertTrue(handled.await(5, TimeUnit.SECONDS));
+		system.shutdown();
+
+		// The scheduler hands the messages to the mailbox, which runs the
+		// unit on one system thread at a time
+		Assert.assertEquals(1, maxActive.get());
+		for (String name : threadNames) {
+			Assert.assertTrue(name, name.startsWith("Robo4J System"));
+		}
+	}
+
+	@Test
+	public void testHashedWheelScheduler() throws InterruptedException, ExecutionException {
+		RoboSystem system = new RoboSystem(2, DispatchMode.SHARED_QUEUE, HashedWheelScheduler::new);
+		Assert.assertTrue(system.getScheduler() instanceof HashedWheelScheduler);
+		StringConsumer consumer = new StringConsumer(system, "consumer");
+		system.addUnits(consumer);
+
+		SchedulerListener listener = new SchedulerListener();
+		ScheduledFuture<?> f1 = system.getScheduler().schedule(consumer, "Lalalala", 0, 2, TimeUnit.MILLISECONDS, 500,
+				listener);
+		ScheduledFuture<?> f2 = system.getScheduler().schedule(consumer, "bläblä", 1, 2, TimeUnit.MILLISECONDS, 500);
+		ScheduledFuture<?> cancelled = system.getScheduler().schedule(consumer, "never", 1, 1, TimeUnit.SECONDS);
+		Assert.assertTrue(cancelled.cancel(false));
+
+		get(f1);
+		get(f2);
+
+		Assert.assertEquals(1000, consumer.getReceivedMessages().size());
+		Assert.assertTrue(listener.wasFinalCalled);
+		Assert.assertTrue(cancelled.isCancelled());
+		system.shutdown();
+	}
+
+	@Test
+	public void testOverrunPolicies() throws InterruptedException, ExecutionException {
+		RoboSystem system = new RoboSystem(2);
+		RoboUnit<Object> slow = new RoboUnit<Object>(system, "slow") {
+			@Override
+			public <R> RoboResult<Object, R> onMessage(Object message) {
+				try {
+					Thread.sleep(30);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return null;
+			}
+
+			@Override
+			protected void onInitialization(Configuration configuration) throws ConfigurationException {
+			}
+		};
+		system.addUnits(slow);
+
+		// The scheduler delivers directly to the unit, which overruns every
+		// period
+		ScheduleStatistics catchUp = runToCompletion(system, slow, OverrunPolicy.CATCH_UP);
+		ScheduleStatistics skip = runToCompletion(system, slow, OverrunPolicy.SKIP);
+		ScheduleStatistics shift = runToCompletion(system, slow, OverrunPolicy.SHIFT_PHASE);
+
+		Assert.assertEquals(5, catchUp.getFiringCount());
+		Assert.assertEquals(5, catchUp.getOverrunCount());
+		Assert.assertEquals(0, catchUp.getSkippedCount());
+		// Falls further and further behind
+		Assert.assertTrue(catchUp.getJitter().getMax() >= TimeUnit.MILLISECONDS.toNanos(40));
+
+		Assert.assertEquals(5, skip.getFiringCount());
+		Assert.assertTrue(skip.getSkippedCount() >= 4);
+
+		Assert.assertEquals(5, shift.getFiringCount());
+		Assert.assertEquals(0, shift.getSkippedCount());
+		Assert.assertTrue(shift.getJitter().getMax() < TimeUnit.MILLISECONDS.toNanos(40));
+		system.shutdown();
+	}
+
+	@Test
+	public void testEdfScheduler() throws InterruptedException, ExecutionException {
+		RoboSystem system = new RoboSystem(2, DispatchMode.SHARED_QUEUE, EdfScheduler::new);
+		EdfScheduler scheduler = (EdfScheduler) system.getScheduler();
+		StringConsumer motor = new StringConsumer(system, "motor");
+		StringConsumer logger = new StringConsumer(system, "logger");
+		system.addUnits(motor, logger);
+
+		PeriodicFuture control = scheduler.schedule(motor, "control", 0, 2, TimeUnit.MILLISECONDS, 200, null,
+				OverrunPolicy.CATCH_UP, new TimingConstraint(2000, 400, TimeUnit.MICROSECONDS, 10));
+		Assert.assertEquals(0.2, scheduler.getDensity(), 0.0001);
+		try {
+			// 0.2 + 0.5, plus 2.5 blocking from the largest budget
+			scheduler.schedule(logger, "log", 0, 10, TimeUnit.MILLISECONDS, 100, null, OverrunPolicy.CATCH_UP,
+					new TimingConstraint(10000, 5000, TimeUnit.MICROSECONDS, 0));
+			Assert.fail("Expected the schedule to be rejected");
+		} catch (InfeasibleScheduleException e) {
+			// Expected
+		}
+		PeriodicFuture log = scheduler.schedule(logger, "log", 0, 10, TimeUnit.MILLISECONDS, 40, null,
+				OverrunPolicy.CATCH_UP, new TimingConstraint(10000, 1000, TimeUnit.MICROSECONDS, 0));
+		Assert.assertEquals(0.3, scheduler.getDensity(), 0.0001);
+
+		get(control);
+		get(log);
+		Assert.assertEquals(200, motor.getReceivedMessages().size());
+		Assert.assertEquals(40, logger.getReceivedMessages().size());
+		Assert.assertEquals(200, control.getStatistics().getFiringCount());
+		// Finished schedules give back their share
+		Assert.assertEquals(0, scheduler.getDensity(), 0.0001);
+		system.shutdown();
+	}
+
+	@Test
+	public void testFusedFirings() throws InterruptedException, ExecutionException {
+		RoboSystem system = new RoboSystem(2, DispatchMode.SHARED_QUEUE,
+				context -> new DefaultScheduler(context, 2, 20, TimeUnit.MILLISECONDS));
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+		List<Object> received = Collections.synchronizedList(new ArrayList<>());
+		RoboUnit<Object> aggregator = new RoboUnit<Object>(system, "aggregator") {
+			@Override
+			public <R> RoboResult<Object, R> onMessage(Object message) {
+				received.add(message);
+				return null;
+			}
+
+			@Override
+			public void onMessages(List<Object> messages) {
+				batchSizes.add(messages.size());
+				super.onMessages(messages);
+			}
+
+			@Override
+			public int getMaxBatchSize() {
+				return 16;
+			}
+
+			@Override
+			protected void onInitialization(Configuration configuration) throws ConfigurationException {
+			}
+		};
+		system.addUnits(aggregator);
+
+		List<PeriodicFuture> polls = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			polls.add(system.getScheduler().schedule(aggregator, "poll" + i, 0, 40, TimeUnit.MILLISECONDS, 5));
+		}
+		for (PeriodicFuture poll : polls) {
+			get(poll);
+		}
+
+		Assert.assertEquals(40, received.size());
+		// At most two windows per round, if the schedules straddle a window
+		// boundary
+		Assert.assertTrue("Expected fused firings, got " + batchSizes, batchSizes.size() <= 10);
+		// Messages keep the order in which the schedules joined
+		for (int i = 0; i < 8; i++) {
+			Assert.assertEquals("poll" + i, received.get(i));
+		}
+		system.shutdown();
+	}
+
+	@Test
+	public void testFusedFiringsUseMailbox() throws InterruptedException, ExecutionException {
+		RoboSystem system = new RoboSystem(2, DispatchMode.MAILBOX,
+				context -> new DefaultScheduler(context, 2, 20, TimeUnit.MILLISECONDS));
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+		List<Object> received = Collections.synchronizedList(new ArrayList<>());
+		Set<String> threadNames = ConcurrentHashMap.newKeySet();
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger maxActive = new AtomicInteger();
+		CountDownLatch handled = new CountDownLatch(40);
+		RoboUnit<Object> aggregator = new RoboUnit<Object>(system, "aggregator") {
+			@Override
+			public <R> RoboResult<Object, R> onMessage(Object message) {
+				received.add(message);
+				handled.countDown();
+				return null;
+			}
+
+			@Override
+			public void onMessages(List<Object> messages) {
+				maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+				threadNames.add(Thread.currentThread().getName());
+				batchSizes.add(messages.size());
+				super.onMessages(messages);
+				active.decrementAndGet();
+			}
+
+			@Override
+			public int getMaxBatchSize() {
+				return 16;
+			}
+
+			@Override
+			protected void onInitialization(Configuration configuration) throws ConfigurationException {
+			}
+		};
+		system.addUnits(aggregator);
+		system.start();
+
+		List<PeriodicFuture> polls = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			polls.add(system.getScheduler().schedule(aggregator, "poll" + i, 0, 40, TimeUnit.MILLISECONDS, 5));
+		}
+		for (PeriodicFuture poll : polls) {
+			get(poll);
+		}
+		Assert.assertTrue(handled.await(5, TimeUnit.SECONDS));
+		system.shutdown();
+
+		// Every fused firing is one mailbox entry, handled by a system thread
+		Assert.assertTrue("Expected fused firings, got " + batchSizes, batchSizes.size() <= 10);
+		Assert.assertEquals(1, maxActive.get());
+		for (String name : threadNames) {
+			Assert.assertTrue(name, name.startsWith("Robo4J System"));
+		}
+		for (int i = 0; i < 8; i++) {
+			Assert.assertEquals("poll" + i, received.get(i));
+		}
+	}
+
+	@Test
+	public void testAdaptivePolling() throws InterruptedException {
+		RoboSystem system = new RoboSystem(2);
+		List<Object> received = Collections.synchronizedList(new ArrayList<>());
+		RoboUnit<Integer> gyro = new RoboUnit<Integer>(system, "gyro") {
+			@Override
+			public <R> RoboResult<Integer, R> onMessage(Object message) {
+				received.add(message);
+				return null;
+			}
+
+			@Override
+			protected void onInitialization(Configuration configuration) throws ConfigurationException {
+			}
+		};
+		system.addUnits(gyro);
+
+		AtomicBoolean moving = new AtomicBoolean();
+		AtomicInteger polls = new AtomicInteger();
+		AdaptiveRate<Integer> rate = new AdaptiveRate<>(5, 80, TimeUnit.MILLISECONDS, 3, 0.5, ChangeMetric.spread());
+		PeriodicFuture future = system.getScheduler().schedule(gyro, () -> {
+			int poll = polls.incrementAndGet();
+			return moving.get() ? poll : 0;
+		}, 0, TimeUnit.MILLISECONDS, rate, 0, null);
+
+		// Standing still - backs off to the maximum period
+		Thread.sleep(600);
+		int idlePolls = polls.get();
+		Assert.assertTrue("Polled " + idlePolls + " times while idle", idlePolls < 30);
+
+		// Moving - back to the minimum period
+		moving.set(true);
+		Thread.sleep(300);
+		int movingPolls = polls.get() - idlePolls;
+		Assert.assertTrue("Polled " + movingPolls + " times while moving", movingPolls > 25);
+
+		Assert.assertTrue(future.cancel(false));
+		Assert.assertEquals(polls.get(), received.size(), 1);
+		system.shutdown();
+	}
+
+	private ScheduleStatistics runToCompletion(RoboSystem system, RoboUnit<Object> target, OverrunPolicy policy)
+			throws InterruptedException, ExecutionException {
+		PeriodicFuture future = system.getScheduler().schedule(target, "tick", 0, 10, TimeUnit.MILLISECONDS, 5, null,
+				policy);
+		get(future);
+		return future.getStatistics();
+	}
+
 	private void get(ScheduledFuture<?> f) throws InterruptedException, ExecutionException {
 		try {
 			f.get();
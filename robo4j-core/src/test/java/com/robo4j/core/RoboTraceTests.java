@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.robo4j.core.configuration.Configuration;
+
+/**
+ * Tests for the {@link MessageTracer}.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class RoboTraceTests {
+	private static final int MESSAGES = 10;
+
+	private static class Relay extends RoboUnit<Object> {
+		public Relay(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@Override
+		public <R> RoboResult<Object, R> onMessage(Object message) {
+			getContext().getReference("sink").sendOneWay(message);
+			return null;
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		}
+	}
+
+	private static class Sink extends RoboUnit<Object> {
+		private final CountDownLatch received = new CountDownLatch(MESSAGES);
+
+		public Sink(RoboContext context, String id) {
+			super(context, id);
+		}
+
+		@Override
+		public <R> RoboResult<Object, R> onMessage(Object message) {
+			received.countDown();
+			return null;
+		}
+
+		@Override
+		protected void onInitialization(Configuration configuration) throws ConfigurationException {
+		}
+	}
+
+	@Test
+	public void testChainIsTraced() throws Exception {
+		for (DispatchMode mode : DispatchMode.values()) {
+			RoboSystem system = new RoboSystem(2, mode);
+			system.getTracer().setSamplingRate(1);
+			Relay relay = new Relay(system, "relay");
+			Sink sink = new Sink(system, "sink");
+			system.addUnits(relay, sink);
+			system.start();
+			for (int i = 0; i < MESSAGES; i++) {
+				relay.sendOneWay(i);
+			}
+			Assert.assertTrue(sink.received.await(5, TimeUnit.SECONDS));
+			TraceChainStatistics statistics = awaitChain(system.getTracer(), "relay -> sink");
+			Assert.assertEquals(2, statistics.getUnits().size());
+			Assert.assertTrue(statistics.getMaxLatencyNanos() >= statistics.getMaxHandlerNanos(1));
+			Assert.assertTrue(system.getTracer().generateReport().contains("relay -> sink"));
+			system.shutdown();
+		}
+	}
+
+	@Test
+	public void testNothingTracedWhenOff() throws Exception {
+		RoboSystem system = new RoboSystem(2, DispatchMode.MAILBOX);
+		Relay relay = new Relay(system, "relay");
+		Sink sink = new Sink(system, "sink");
+		system.addUnits(relay, sink);
+		system.start();
+		for (int i = 0; i < MESSAGES; i++) {
+			relay.sendOneWay(i);
+		}
+		Assert.assertTrue(sink.received.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(system.getTracer().getChainStatistics().isEmpty());
+		system.shutdown();
+	}
+
+	private static TraceChainStatistics awaitChain(MessageTracer tracer, String chain) throws InterruptedException {
+		// The trace completes just after the last handler returns
+		for (int i = 0; i < 100; i++) {
+			TraceChainStatistics statistics = tracer.getChainStatistics().get(chain);
+			if (statistics != null && statistics.getCount() == MESSAGES) {
+				return statistics;
+			}
+			Thread.sleep(20);
+		}
+		Assert.fail("Chain " + chain + " not completed: " + tracer.generateReport());
+		return null;
+	}
+}
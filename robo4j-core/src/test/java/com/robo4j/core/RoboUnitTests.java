@@ -16,6 +16,9 @@
  */
 package com.robo4j.core;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -68,4 +71,64 @@ public class RoboUnitTests {
 		system.shutdown();
 		Assert.assertEquals(2, consumer.getReceivedMessages().size());		
 	}
+
+	@Test
+	public void testMailboxKeepsMessageOrder() throws Exception {
+		RoboSystem system = new RoboSystem(4, DispatchMode.MAILBOX);
+		StringConsumer consumer = new StringConsumer(system, "consumer");
+		system.addUnits(consumer);
+		system.start();
+
+		RoboReference<String> ref = system.getReference(consumer.getId());
+		for (int i = 0; i < 1000; i++) {
+			ref.sendMessage(String.valueOf(i));
+		}
+		system.shutdown();
+		Assert.assertEquals(1000, consumer.getReceivedMessages().size());
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals(String.valueOf(i), consumer.getReceivedMessages().get(i));
+		}
+	}
+
+	@Test
+	public void testMailboxBatchDelivery() throws Exception {
+		RoboSystem system = new RoboSystem(2, DispatchMode.MAILBOX);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		CountDownLatch handled = new CountDownLatch(1000);
+		StringBatchConsumer consumer = new StringBatchConsumer(system, "consumer") {
+			@Override
+			public synchronized RoboResult<String, Integer> onMessage(Object message) {
+				if (started.getCount() > 0) {
+					started.countDown();
+					try {
+						gate.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				RoboResult<String, Integer> result = super.onMessage(message);
+				handled.countDown();
+				return result;
+			}
+		};
+		system.addUnits(consumer);
+		system.start();
+
+		// Hold the consumer on the first message, so that the rest queue up
+		consumer.sendOneWay("0");
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i < 1000; i++) {
+			consumer.sendOneWay(String.valueOf(i));
+		}
+		gate.countDown();
+		Assert.assertTrue(handled.await(5, TimeUnit.SECONDS));
+		system.shutdown();
+		Assert.assertEquals(1000, consumer.getReceivedMessages().size());
+		for (int i = 0; i < 1000; i++) {
+			Assert.assertEquals(String.valueOf(i), consumer.getReceivedMessages().get(i));
+		}
+		// The backlog is delivered in full batches
+		Assert.assertEquals(StringBatchConsumer.BATCH_SIZE, consumer.getLargestBatch());
+	}
 }
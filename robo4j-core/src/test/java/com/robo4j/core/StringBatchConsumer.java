@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core;
+
+import java.util.List;
+
+/**
+ * A {@link StringConsumer} receiving its messages in batches.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class StringBatchConsumer extends StringConsumer {
+	public static final int BATCH_SIZE = 10;
+	private volatile int largestBatch;
+
+	public StringBatchConsumer(RoboContext context, String id) {
+		super(context, id);
+	}
+
+	@Override
+	public void onMessages(List<Object> messages) {
+		largestBatch = Math.max(largestBatch, messages.size());
+		super.onMessages(messages);
+	}
+
+	@Override
+	public int getMaxBatchSize() {
+		return BATCH_SIZE;
+	}
+
+	public int getLargestBatch() {
+		return largestBatch;
+	}
+}
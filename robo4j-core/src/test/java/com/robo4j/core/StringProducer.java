@@ -35,7 +35,7 @@ public class StringProducer extends RoboUnit<String> {
 	}
 
 	public void sendRandomMessage() {
-		getContext().getReference(target).sendMessage(StringToolkit.getRandomMessage(10));
+		getContext().getReference(target).sendOneWay(StringToolkit.getRandomMessage(10));
 	}
 
 	@SuppressWarnings("unchecked")
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the priority lane queue.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class PriorityLaneQueueTest {
+	private static final int CONSUMERS = 4;
+	private static final int MESSAGES = 20000;
+
+	@Test
+	public void testLanesTakenInOrder() {
+		// Lane is the tens digit
+		PriorityLaneQueue<Integer> queue = new PriorityLaneQueue<>(3, i -> i / 10);
+		for (int i : new int[] { 20, 10, 21, 0, 11, 1 }) {
+			Assert.assertTrue(queue.offer(i));
+		}
+		Assert.assertEquals(6, queue.size());
+		Assert.assertEquals(0, (int) queue.peek());
+		List<Integer> taken = new ArrayList<>();
+		queue.drainTo(taken);
+		Assert.assertEquals("[0, 1, 10, 11, 20, 21]", taken.toString());
+		Assert.assertTrue(queue.isEmpty());
+		Assert.assertNull(queue.poll());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLaneOutOfRange() {
+		new PriorityLaneQueue<Integer>(2, i -> i).offer(2);
+	}
+
+	@Test
+	public void testTimedPollExpires() throws InterruptedException {
+		PriorityLaneQueue<Integer> queue = new PriorityLaneQueue<>(2, i -> 0);
+		long start = System.nanoTime();
+		Assert.assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+	}
+
+	@Test
+	public void testWorkerPoolRunsEverything() throws InterruptedException {
+		PriorityLaneQueue<Runnable> queue = new PriorityLaneQueue<>(2, task -> 0);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(CONSUMERS, CONSUMERS, 10, TimeUnit.SECONDS, queue);
+		AtomicInteger done = new AtomicInteger();
+		for (int i = 0; i < MESSAGES; i++) {
+			executor.execute(done::incrementAndGet);
+			if (i % 1000 == 0) {
+				// Let the workers catch up and block in take
+				Thread.sleep(1);
+			}
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertEquals(MESSAGES, done.get());
+	}
+}
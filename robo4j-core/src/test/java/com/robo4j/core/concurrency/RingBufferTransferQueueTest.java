@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.concurrency;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the ring buffer based transfer queue.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class RingBufferTransferQueueTest {
+	private static final int PRODUCERS = 4;
+	private static final int MESSAGES_PER_PRODUCER = 20000;
+
+	@Test
+	public void testCapacity() {
+		RingBufferTransferQueue<Integer> queue = new RingBufferTransferQueue<>(5);
+		Assert.assertEquals(8, queue.getCapacity());
+		for (int i = 0; i < 8; i++) {
+			Assert.assertTrue(queue.offer(i));
+		}
+		Assert.assertFalse(queue.offer(8));
+		Assert.assertEquals(8, queue.size());
+		Assert.assertEquals(0, (int) queue.peek());
+		Assert.assertEquals(0, (int) queue.poll());
+		Assert.assertTrue(queue.offer(8));
+		for (int i = 1; i < 9; i++) {
+			Assert.assertEquals(i, (int) queue.poll());
+		}
+		Assert.assertNull(queue.poll());
+	}
+
+	@Test
+	public void testMultipleProducersKeepOrder() throws InterruptedException {
+		RingBufferTransferQueue<int[]> queue = new RingBufferTransferQueue<>(64);
+		for (int p = 0; p < PRODUCERS; p++) {
+			final int producer = p;
+			Thread t = new Thread(() -> {
+				try {
+					for (int i = 0; i < MESSAGES_PER_PRODUCER; i++) {
+						queue.put(new int[] { producer, i });
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			t.setDaemon(true);
+			t.start();
+		}
+
+		int[] expected = new int[PRODUCERS];
+		for (int i = 0; i < PRODUCERS * MESSAGES_PER_PRODUCER; i++) {
+			int[] message = queue.poll(5, TimeUnit.SECONDS);
+			Assert.assertNotNull(message);
+			Assert.assertEquals(expected[message[0]]++, message[1]);
+		}
+		Assert.assertNull(queue.poll());
+	}
+
+	@Test
+	public void testTransferWaitsForConsumer() throws InterruptedException {
+		RingBufferTransferQueue<String> queue = new RingBufferTransferQueue<>(16);
+		AtomicBoolean transferred = new AtomicBoolean();
+		CountDownLatch done = new CountDownLatch(1);
+		Thread producer = new Thread(() -> {
+			try {
+				queue.transfer("Lalalala");
+				transferred.set(true);
+				done.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.setDaemon(true);
+		producer.start();
+
+		Assert.assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+		Assert.assertFalse(transferred.get());
+		Assert.assertEquals("Lalalala", queue.take());
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(transferred.get());
+	}
+
+	@Test
+	public void testTimedOutTransferIsWithdrawn() throws InterruptedException {
+		RingBufferTransferQueue<String> queue = new RingBufferTransferQueue<>(16);
+		Assert.assertFalse(queue.tryTransfer("first", 10, TimeUnit.MILLISECONDS));
+		Assert.assertTrue(queue.offer("second"));
+		Assert.assertEquals("second", queue.poll());
+		Assert.assertNull(queue.poll());
+		Assert.assertFalse(queue.tryTransfer("third"));
+	}
+
+	@Test
+	public void testInterruptedTransferIsWithdrawn() throws InterruptedException {
+		RingBufferTransferQueue<String> queue = new RingBufferTransferQueue<>(16);
+		AtomicBoolean interrupted = new AtomicBoolean();
+		Thread producer = new Thread(() -> {
+			try {
+				queue.transfer("first");
+			} catch (InterruptedException e) {
+				interrupted.set(true);
+			}
+		});
+		producer.setDaemon(true);
+		producer.start();
+		while (queue.isEmpty()) {
+			Thread.yield();
+		}
+		producer.interrupt();
+		producer.join(5000);
+		Assert.assertTrue(interrupted.get());
+		Assert.assertTrue(queue.offer("second"));
+		Assert.assertEquals("second", queue.poll());
+		Assert.assertNull(queue.poll());
+	}
+
+	@Test
+	public void testTimedOutTransferAfterWrapAround() throws InterruptedException {
+		RingBufferTransferQueue<String> queue = new RingBufferTransferQueue<>(2);
+		String element = "same";
+		for (int i = 0; i < 5; i++) {
+			// Puts the same element in the slot of an earlier transfer
+			Assert.assertFalse(queue.tryTransfer(element, 1, TimeUnit.MILLISECONDS));
+			Assert.assertTrue(queue.offer(element));
+			Assert.assertSame(element, queue.poll());
+			Assert.assertNull(queue.poll());
+		}
+	}
+
+	@Test
+	public void testConcurrentTimedOutTransfers() throws InterruptedException {
+		RingBufferTransferQueue<Integer> queue = new RingBufferTransferQueue<>(2);
+		Set<Integer> transferred = ConcurrentHashMap.newKeySet();
+		CountDownLatch done = new CountDownLatch(PRODUCERS);
+		for (int p = 0; p < PRODUCERS; p++) {
+			final int producer = p;
+			Thread t = new Thread(() -> {
+				try {
+					for (int i = 0; i < 2000; i++) {
+						Integer element = producer * 2000 + i;
+						if (queue.tryTransfer(element, 20, TimeUnit.MICROSECONDS)) {
+							transferred.add(element);
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					done.countDown();
+				}
+			});
+			t.setDaemon(true);
+			t.start();
+		}
+
+		Set<Integer> taken = new HashSet<>();
+		while (done.getCount() > 0 || !queue.isEmpty()) {
+			Integer element = queue.poll(1, TimeUnit.MILLISECONDS);
+			if (element != null) {
+				Assert.assertTrue("Taken twice: " + element, taken.add(element));
+			}
+		}
+		// Successful transfers were consumed, withdrawn ones were not
+		Assert.assertEquals(transferred, taken);
+	}
+}
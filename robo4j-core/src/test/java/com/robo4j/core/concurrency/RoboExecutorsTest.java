@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2014, 2017, Miroslav Wengner, Marcus Hirt
+ * 
+ * Robo4J is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Robo4J is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Robo4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.robo4j.core.concurrency;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the thread pools created by {@link RoboExecutors}.
+ * 
+ * @author Marcus Hirt (@hirt)
+ * @author Miroslav Wengner (@miragemiko)
+ */
+public class RoboExecutorsTest {
+	private static final int TASKS = 10;
+
+	private static final class LaneTask implements Runnable {
+		private final int lane;
+		private final String name;
+		private final List<String> log;
+
+		LaneTask(int lane, String name, List<String> log) {
+			this.lane = lane;
+			this.name = name;
+			this.log = log;
+		}
+
+		@Override
+		public void run() {
+			log.add(name);
+		}
+	}
+
+	/**
+	 * Runs {@link RoboExecutorsTest#checkWorkerPool()} in a JVM of its own, since
+	 * the virtual thread property is only read once.
+	 */
+	public static final class WorkerPoolCheck {
+		public static void main(String[] args) throws InterruptedException {
+			String problem = checkWorkerPool();
+			System.out.println(problem);
+			System.exit(problem.isEmpty() ? 0 : 1);
+		}
+	}
+
+	@Test
+	public void testWorkerPoolKeepsOrderAndPriority() throws InterruptedException {
+		Assert.assertEquals("", checkWorkerPool());
+	}
+
+	@Test
+	public void testWorkerPoolKeepsOrderAndPriorityWithVirtualThreads() throws IOException, InterruptedException {
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		Process process = new ProcessBuilder(java, "-D" + RoboThreadFactory.PROPERTY_VIRTUAL_THREADS + "=true", "-cp",
+				System.getProperty("java.class.path"), WorkerPoolCheck.class.getName()).redirectErrorStream(true)
+						.start();
+		StringBuilder output = new StringBuilder();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				output.append(line).append('\n');
+			}
+		}
+		Assert.assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+		Assert.assertEquals(output.toString(), 0, process.exitValue());
+	}
+
+	/**
+	 * Queues tasks on a single thread worker pool over two lanes, while the
+	 * thread is busy.
+	 * 
+	 * @return what went wrong, or an empty string.
+	 */
+	static String checkWorkerPool() throws InterruptedException {
+		PriorityLaneQueue<Runnable> queue = new PriorityLaneQueue<>(2,
+				task -> task instanceof LaneTask ? ((LaneTask) task).lane : 0);
+		ThreadPoolExecutor executor = RoboExecutors.newWorkerPool("Robo4J Test ", 1, queue);
+		List<String> log = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		executor.execute(() -> {
+			started.countDown();
+			try {
+				gate.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		started.await(5, TimeUnit.SECONDS);
+		for (int i = 0; i < TASKS; i++) {
+			executor.execute(new LaneTask(1, "low" + i, log));
+		}
+		for (int i = 0; i < TASKS; i++) {
+			executor.execute(new LaneTask(0, "urgent" + i, log));
+			expected.add("urgent" + i);
+		}
+		for (int i = 0; i < TASKS; i++) {
+			expected.add("low" + i);
+		}
+		gate.countDown();
+		executor.shutdown();
+		if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+			return "The pool did not terminate";
+		}
+		if (executor.getLargestPoolSize() != 1) {
+			return "Expected one thread, got " + executor.getLargestPoolSize();
+		}
+		return expected.equals(log) ? "" : "Expected " + expected + ", got " + Arrays.toString(log.toArray());
+	}
+}
@@ -16,6 +16,13 @@
  */
 package com.robo4j.core.configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -33,6 +40,7 @@ public class XmlConfigurationFactoryTest {
 		Configuration child = config.createChildConfiguration("child");
 		child.setInteger("int", 1);
 		child.setFloat("float", 1.0f);
+		child.setBoolean("boolean", true);
 		String xml = XmlConfigurationFactory.toXml(config);
 		System.out.println(xml);
 		Assert.assertNotNull(xml);
@@ -42,4 +50,32 @@ public class XmlConfigurationFactoryTest {
 
 		Assert.assertEquals(config, fromXml);
 	}
+
+	@Test
+	public void testConcurrentParsing() throws Exception {
+		List<Callable<Boolean>> parses = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Configuration config = ConfigurationFactory.createEmptyConfiguration();
+			config.setInteger("index", i);
+			Configuration child = config.createChildConfiguration("child" + i);
+			child.createChildConfiguration("grandchild").setString("name", "unit" + i);
+			String xml = XmlConfigurationFactory.toXml(config);
+			parses.add(() -> {
+				for (int j = 0; j < 200; j++) {
+					if (!config.equals(XmlConfigurationFactory.fromXml(xml))) {
+						return false;
+					}
+				}
+				return true;
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for (Future<Boolean> result : executor.invokeAll(parses)) {
+				Assert.assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
 }
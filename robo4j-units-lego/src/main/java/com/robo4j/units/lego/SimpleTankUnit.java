@@ -19,19 +19,19 @@
 
 package com.robo4j.units.lego;
 
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.robo4j.core.ConfigurationException;
+import com.robo4j.core.IndexedUnit;
 import com.robo4j.core.LifecycleState;
+import com.robo4j.core.MessageHandler;
 import com.robo4j.core.RoboContext;
-import com.robo4j.core.RoboResult;
 import com.robo4j.core.RoboUnit;
-import com.robo4j.core.concurrency.RoboThreadFactory;
+import com.robo4j.core.concurrency.RoboExecutors;
 import com.robo4j.core.configuration.Configuration;
 import com.robo4j.core.logging.SimpleLoggingUtil;
 import com.robo4j.hw.lego.ILegoMotor;
@@ -45,20 +45,32 @@ import com.robo4j.units.lego.platform.MotorRotationEnum;
 /**
  * Lego Mindstorm tank platform consist from two engines
  *
+ * <p>
+ * The engines are driven asynchronously. The result of a platform message is
+ * a {@link CompletionStage}, completed when both engines have been set, so
+ * use {@link #ask(Object)} to get hold of the outcome without blocking. Each
+ * engine has its own thread, so the commands for one engine are always
+ * executed in the order the messages were processed.
+ *
+ * <p>
+ * Indexed as "tank", with the engines on the default ports.
+ *
  * @author Marcus Hirt (@hirt)
  * @author Miro Wengner (@miragemiko)
  * @since 30.01.2017
  */
+@IndexedUnit(id = "tank", config = {
+		@IndexedUnit.Value(name = "leftMotorPort", value = SimpleTankUnit.DEFAULT_MOTOR_LEFT),
+		@IndexedUnit.Value(name = "rightMotorPort", value = SimpleTankUnit.DEFAULT_MOTOR_RIGHT) })
 public class SimpleTankUnit extends RoboUnit<String> {
 
 	private static final int DEFAULT_1 = 1;
 	private static final int DEFAULT_0 = 0;
-	private static final int DEFAULT_THREAD_POOL_SIZE = 2;
 	private static final int TERMINATION_TIMEOUT = 2;
-	private static final int KEEP_ALIVE_TIME = 10;
-	private final LinkedBlockingQueue<Runnable> workQueue = new LinkedBlockingQueue<>();
-	private final ExecutorService executor = new ThreadPoolExecutor(DEFAULT_THREAD_POOL_SIZE, DEFAULT_THREAD_POOL_SIZE,
-			KEEP_ALIVE_TIME, TimeUnit.SECONDS, workQueue, new RoboThreadFactory("Robo4J Lego Platform ", true));
+	private final ExecutorService leftExecutor = RoboExecutors.newWorkerPool("Robo4J Lego Platform Left ", DEFAULT_1,
+			new LinkedBlockingQueue<>());
+	private final ExecutorService rightExecutor = RoboExecutors.newWorkerPool("Robo4J Lego Platform Right ", DEFAULT_1,
+			new LinkedBlockingQueue<>());
 	protected static final String DEFAULT_MOTOR_LEFT = "B";
 	protected static final String DEFAULT_MOTOR_RIGHT = "C";
 	protected static final Character DEFAULT_MOTOR_TYPE = 'N';
@@ -69,15 +81,19 @@ public class SimpleTankUnit extends RoboUnit<String> {
 		super(context, id);
 	}
 
-	@SuppressWarnings("unchecked")
-	@Override
-	public RoboResult<String, ?> onMessage(Object message) {
-
-		if (message instanceof LegoPlatformMessage) {
-			return processPlatformMessage((LegoPlatformMessage) message);
-		}
+	@MessageHandler
+	CompletionStage<Boolean> onPlatformMessage(LegoPlatformMessage message) {
+		return processPlatformMessage(message);
+	}
 
-		return super.onMessage(message);
+	/**
+	 * All platform messages set the motion of the platform, so only the
+	 * latest one queued needs to be executed. Requires a
+	 * {@link com.robo4j.core.DispatchMode#MAILBOX} system.
+	 */
+	@Override
+	public Object getCoalescingKey(Object message) {
+		return message instanceof LegoPlatformMessage ? LegoPlatformMessage.class : null;
 	}
 
 	@Override
@@ -85,13 +101,15 @@ public class SimpleTankUnit extends RoboUnit<String> {
 		setState(LifecycleState.SHUTTING_DOWN);
 		rightMotor.close();
 		leftMotor.close();
-        try {
-            executor.awaitTermination(TERMINATION_TIMEOUT, TimeUnit.SECONDS);
-			executor.shutdown();
-        } catch (InterruptedException e) {
-            SimpleLoggingUtil.error(getClass(), "termination failed");
-        }
-		if(executor.isShutdown()){
+		leftExecutor.shutdown();
+		rightExecutor.shutdown();
+		try {
+			leftExecutor.awaitTermination(TERMINATION_TIMEOUT, TimeUnit.SECONDS);
+			rightExecutor.awaitTermination(TERMINATION_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			SimpleLoggingUtil.error(getClass(), "termination failed");
+		}
+		if (leftExecutor.isShutdown() && rightExecutor.isShutdown()) {
 			SimpleLoggingUtil.debug(getClass(), "executor is down");
 		}
 		setState(LifecycleState.SHUTDOWN);
@@ -116,53 +134,40 @@ public class SimpleTankUnit extends RoboUnit<String> {
 	}
 
 	// Private Methods
-	private RoboResult<String, ?> processPlatformMessage(LegoPlatformMessage message) {
+	private CompletableFuture<Boolean> processPlatformMessage(LegoPlatformMessage message) {
 		switch (message.getType()) {
 		case STOP:
-			return createResult(executeBothEnginesStop(rightMotor, leftMotor));
+			return executeBothEnginesStop(rightMotor, leftMotor);
 		case MOVE:
-			return createResult(executeBothEngines(MotorRotationEnum.FORWARD, rightMotor, leftMotor));
+			return executeBothEngines(MotorRotationEnum.FORWARD, rightMotor, leftMotor);
 		case BACK:
-			return createResult(executeBothEngines(MotorRotationEnum.BACKWARD, rightMotor, leftMotor));
+			return executeBothEngines(MotorRotationEnum.BACKWARD, rightMotor, leftMotor);
 		case LEFT:
-			return createResult(executeTurn(leftMotor, rightMotor));
+			return executeTurn(leftMotor, rightMotor);
 		case RIGHT:
-			return createResult(executeTurn(rightMotor, leftMotor));
+			return executeTurn(rightMotor, leftMotor);
 		default:
 			SimpleLoggingUtil.error(getClass(), message.getType() + " not supported!");
 			throw new LegoUnitException("PLATFORM COMMAND: " + message);
 		}
 	}
 
-	private RoboResult<String, ?> createResult(boolean result){
-		return new RoboResult<>(this, result);
-	}
-
-	private boolean executeTurn(ILegoMotor... motors) {
+	private CompletableFuture<Boolean> executeTurn(ILegoMotor... motors) {
 		ILegoMotor rOne = motors[DEFAULT_0];
 		ILegoMotor rTwo = motors[DEFAULT_1];
-		Future<Boolean> first = runEngine(rOne, MotorRotationEnum.BACKWARD);
-		Future<Boolean> second = runEngine(rTwo, MotorRotationEnum.FORWARD);
-		try {
-			return first.get() && second.get();
-		} catch (InterruptedException | ExecutionException e) {
-			throw new LegoUnitException("executeTurnByCycles error: ", e);
-		}
+		CompletableFuture<Boolean> first = runEngine(rOne, MotorRotationEnum.BACKWARD);
+		CompletableFuture<Boolean> second = runEngine(rTwo, MotorRotationEnum.FORWARD);
+		return first.thenCombine(second, Boolean::logicalAnd);
 	}
 
-	protected boolean executeBothEngines(MotorRotationEnum rotation, ILegoMotor... motors) {
-		Future<Boolean> motorLeft = runEngine(motors[DEFAULT_0], rotation);
-		Future<Boolean> motorRight = runEngine(motors[DEFAULT_1], rotation);
-
-		try {
-			return motorLeft.get() && motorRight.get();
-		} catch (InterruptedException | ExecutionException e) {
-			throw new LegoUnitException("BothEnginesByCycles error: ", e);
-		}
+	protected CompletableFuture<Boolean> executeBothEngines(MotorRotationEnum rotation, ILegoMotor... motors) {
+		CompletableFuture<Boolean> motorLeft = runEngine(motors[DEFAULT_0], rotation);
+		CompletableFuture<Boolean> motorRight = runEngine(motors[DEFAULT_1], rotation);
+		return motorLeft.thenCombine(motorRight, Boolean::logicalAnd);
 	}
 
-	private Future<Boolean> runEngine(ILegoMotor motor, MotorRotationEnum rotation) {
-		return executor.submit(() -> {
+	private CompletableFuture<Boolean> runEngine(ILegoMotor motor, MotorRotationEnum rotation) {
+		return CompletableFuture.supplyAsync(() -> {
 			switch (rotation) {
 			case FORWARD:
 				motor.forward();
@@ -178,23 +183,23 @@ public class SimpleTankUnit extends RoboUnit<String> {
 			default:
 				throw new LegoUnitException("no such rotation= " + rotation);
 			}
-		});
+		}, executorFor(motor));
 	}
 
-	private boolean executeBothEnginesStop(ILegoMotor... motors) {
-		Future<Boolean> motorLeft = executeEngineStop(motors[DEFAULT_0]);
-		Future<Boolean> motorRight = executeEngineStop(motors[DEFAULT_1]);
-		try {
-			return motorLeft.get() && motorRight.get();
-		} catch (InterruptedException | ExecutionException e) {
-			throw new LegoUnitException("executeBothEnginesStop error: ", e);
-		}
+	private CompletableFuture<Boolean> executeBothEnginesStop(ILegoMotor... motors) {
+		CompletableFuture<Boolean> motorLeft = executeEngineStop(motors[DEFAULT_0]);
+		CompletableFuture<Boolean> motorRight = executeEngineStop(motors[DEFAULT_1]);
+		return motorLeft.thenCombine(motorRight, Boolean::logicalAnd);
 	}
 
-	private Future<Boolean> executeEngineStop(ILegoMotor motor) {
-		return executor.submit(() -> {
+	private CompletableFuture<Boolean> executeEngineStop(ILegoMotor motor) {
+		return CompletableFuture.supplyAsync(() -> {
 			motor.stop();
 			return motor.isMoving();
-		});
+		}, executorFor(motor));
+	}
+
+	private ExecutorService executorFor(ILegoMotor motor) {
+		return motor == leftMotor ? leftExecutor : rightExecutor;
 	}
 }
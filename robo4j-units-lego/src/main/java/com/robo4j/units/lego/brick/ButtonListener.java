@@ -46,7 +46,7 @@ public class ButtonListener implements KeyListener {
     @Override
     public void keyPressed(Key key) {
         Button.LEDPattern(color);
-        target.sendMessage(button.getMessage());
+        target.sendOneWay(button.getMessage());
     }
 
     @Override
@@ -19,16 +19,20 @@
 
 package com.robo4j.units.lego.platform;
 
+import com.robo4j.core.MessagePriority;
+import com.robo4j.core.PrioritizedMessage;
 import com.robo4j.core.RoboReference;
 
 /**
- * Lego Platform message
+ * Lego Platform message. Stop messages are delivered with
+ * {@link MessagePriority#EMERGENCY} priority, so that they overtake any
+ * pending movement commands.
  *
  * @author Marcus Hirt (@hirt)
  * @author Miro Wengner (@miragemiko)
  * @since 30.01.2017
  */
-public class LegoPlatformMessage {
+public class LegoPlatformMessage implements PrioritizedMessage {
 
     private final RoboReference<?> source;
     private final LegoPlatformMessageType type;
@@ -59,6 +63,11 @@ public class LegoPlatformMessage {
         return type;
     }
 
+    @Override
+    public MessagePriority getPriority() {
+        return type == LegoPlatformMessageType.STOP ? MessagePriority.EMERGENCY : MessagePriority.CONTROL;
+    }
+
     /*
 	 * (non-Javadoc)
 	 *
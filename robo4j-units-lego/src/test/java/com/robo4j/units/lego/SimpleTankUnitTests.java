@@ -19,12 +19,22 @@
 
 package com.robo4j.units.lego;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.robo4j.core.RoboResult;
 import com.robo4j.core.RoboSystem;
 import com.robo4j.core.configuration.Configuration;
 import com.robo4j.core.configuration.ConfigurationFactory;
+import com.robo4j.hw.lego.enums.AnalogPortEnum;
+import com.robo4j.hw.lego.enums.MotorTypeEnum;
+import com.robo4j.hw.lego.wrapper.MotorTestWrapper;
 import com.robo4j.units.lego.platform.LegoPlatformMessage;
 
 /**
@@ -41,13 +51,66 @@ public class SimpleTankUnitTests {
         Configuration config = ConfigurationFactory.createEmptyConfiguration();
 
         tank.onInitialization(config);
-        Assert.assertTrue((Boolean)tank.onMessage(new LegoPlatformMessage("right")).getResult());
-        Assert.assertTrue((Boolean)tank.onMessage(new LegoPlatformMessage("left")).getResult());
-        Assert.assertTrue((Boolean)tank.onMessage(new LegoPlatformMessage("move")).getResult());
-        Assert.assertTrue((Boolean)tank.onMessage(new LegoPlatformMessage("back")).getResult());
-        Assert.assertFalse((Boolean)tank.onMessage(new LegoPlatformMessage("stop")).getResult());
+        Assert.assertTrue(askPlatform(tank, "right"));
+        Assert.assertTrue(askPlatform(tank, "left"));
+        Assert.assertTrue(askPlatform(tank, "move"));
+        Assert.assertTrue(askPlatform(tank, "back"));
+        Assert.assertFalse(askPlatform(tank, "stop"));
+        tank.shutdown();
+
+    }
+
+    @Test
+    public void motorCommandsKeepTheirOrder() throws Exception {
+        RoboSystem system = new RoboSystem();
+        SimpleTankUnitMock tank = new SimpleTankUnitMock(system, "tank");
+        RecordingMotor left = new RecordingMotor(AnalogPortEnum.B);
+        RecordingMotor right = new RecordingMotor(AnalogPortEnum.C);
+        tank.leftMotor = left;
+        tank.rightMotor = right;
+
+        List<String> expected = new ArrayList<>();
+        List<CompletionStage<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            boolean move = i % 2 == 0;
+            results.add(tank.onPlatformMessage(new LegoPlatformMessage(move ? "move" : "stop")));
+            expected.add(move ? "forward" : "stop");
+        }
+        for (CompletionStage<Boolean> result : results) {
+            result.toCompletableFuture().get(5, TimeUnit.SECONDS);
+        }
         tank.shutdown();
 
+        Assert.assertEquals(expected, left.commands);
+        Assert.assertEquals(expected, right.commands);
+        Assert.assertFalse(left.isMoving());
+        Assert.assertFalse(right.isMoving());
+    }
+
+    private static boolean askPlatform(SimpleTankUnit tank, String command) throws Exception {
+        RoboResult<String, Boolean> result = tank.<Boolean> ask(new LegoPlatformMessage(command), 5, TimeUnit.SECONDS)
+                .toCompletableFuture().get();
+        return result.getResult();
+    }
+
+    private static class RecordingMotor extends MotorTestWrapper {
+        private final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingMotor(AnalogPortEnum port) {
+            super(port, MotorTypeEnum.NXT);
+        }
+
+        @Override
+        public void forward() {
+            commands.add("forward");
+            super.forward();
+        }
+
+        @Override
+        public void stop() {
+            commands.add("stop");
+            super.stop();
+        }
     }
 
 }
@@ -19,8 +19,9 @@ package com.robo4j.units.rpi.lcd;
 import java.io.IOException;
 
 import com.robo4j.core.ConfigurationException;
+import com.robo4j.core.IndexedUnit;
+import com.robo4j.core.MessageHandler;
 import com.robo4j.core.RoboContext;
-import com.robo4j.core.RoboResult;
 import com.robo4j.core.RoboUnit;
 import com.robo4j.core.configuration.Configuration;
 import com.robo4j.core.logging.SimpleLoggingUtil;
@@ -33,11 +34,17 @@ import com.robo4j.units.rpi.I2CRegistry;
 /**
  * A {@link RoboUnit} for the Adafruit 16x2 character LCD shield.
  * 
+ * <p>
+ * Indexed as "lcd", with the default bus and address of the shield.
+ * 
  * @author Marcus Hirt (@hirt)
  * @author Miroslav Wengner (@miragemiko)
  * @since 17.12.2016
  *
  */
+@IndexedUnit(id = "lcd", config = { @IndexedUnit.Value(name = "bus", type = "int", value = "1"),
+		// 0x20
+		@IndexedUnit.Value(name = "address", type = "int", value = "32") })
 public class AdafruitLcdUnit extends I2CRoboUnit<String> {
 	private AdafruitLcd lcd;
 
@@ -60,19 +67,42 @@ public class AdafruitLcdUnit extends I2CRoboUnit<String> {
 		return (AdafruitLcd) lcd;
 	}
 
-	@SuppressWarnings("unchecked")
-	@Override
-	public RoboResult<String, ?> onMessage(Object message) {
+	@MessageHandler
+	void onLcdMessage(LcdMessage message) {
 		try {
-			if (message instanceof LcdMessage) {
-				processLcdMessage((LcdMessage) message);
-			} else if (message instanceof String) {
-				lcd.setText((String) message);
-			}
+			processLcdMessage(message);
 		} catch (Exception e) {
 			SimpleLoggingUtil.debug(getClass(), "Could not accept message" + message.toString(), e);
 		}
-		return super.onMessage(message);
+	}
+
+	@MessageHandler
+	void onText(String text) {
+		try {
+			lcd.setText(text);
+		} catch (Exception e) {
+			SimpleLoggingUtil.debug(getClass(), "Could not accept message" + text, e);
+		}
+	}
+
+	/**
+	 * Only the latest text needs to be shown, so a burst of text updates is
+	 * coalesced. Messages also setting the color are left alone, as are all
+	 * other commands. Requires a {@link com.robo4j.core.DispatchMode#MAILBOX}
+	 * system.
+	 */
+	@Override
+	public Object getCoalescingKey(Object message) {
+		if (message instanceof String) {
+			return LcdMessageType.SET_TEXT;
+		}
+		if (message instanceof LcdMessage) {
+			LcdMessage lcdMessage = (LcdMessage) message;
+			if (lcdMessage.getType() == LcdMessageType.SET_TEXT && lcdMessage.getColor() == null) {
+				return LcdMessageType.SET_TEXT;
+			}
+		}
+		return null;
 	}
 
 	/**
@@ -76,19 +76,19 @@ public class ButtonUnit extends I2CRoboUnit<Object> {
 				try {
 					switch (button) {
 					case UP:
-						targetRef.sendMessage(AdafruitButtonPlateEnum.UP);
+						targetRef.sendOneWay(AdafruitButtonPlateEnum.UP);
 						break;
 					case DOWN:
-						targetRef.sendMessage(AdafruitButtonPlateEnum.DOWN);
+						targetRef.sendOneWay(AdafruitButtonPlateEnum.DOWN);
 						break;
 					case RIGHT:
-						targetRef.sendMessage(AdafruitButtonPlateEnum.LEFT);
+						targetRef.sendOneWay(AdafruitButtonPlateEnum.LEFT);
 						break;
 					case LEFT:
-						targetRef.sendMessage(AdafruitButtonPlateEnum.RIGHT);
+						targetRef.sendOneWay(AdafruitButtonPlateEnum.RIGHT);
 						break;
 					case SELECT:
-						targetRef.sendMessage(AdafruitButtonPlateEnum.SELECT);
+						targetRef.sendOneWay(AdafruitButtonPlateEnum.SELECT);
 						break;
 					default:
 						lcd.clear();